@@ -0,0 +1,20 @@
+#!/bin/sh
+# Builds the application and the JMH benchmarks with Maven, runs every benchmark
+# headlessly and writes the results, with the allocation per operation, to
+# benchmarks/results/<date>.json (or to the file given as first argument).
+# Further arguments go to JMH, such as a pattern selecting benchmarks:
+#   benchmarks/run.sh results.json Formatting
+set -e
+
+BENCH_DIR=$(cd "$(dirname "$0")" && pwd)
+ROOT_DIR=$(dirname "$BENCH_DIR")
+OUTPUT=${1:-"$BENCH_DIR/results/$(date +%Y%m%d-%H%M%S).json"}
+[ $# -gt 0 ] && shift
+case "$OUTPUT" in
+    /*) ;;
+    *) OUTPUT="$(pwd)/$OUTPUT" ;;
+esac
+mkdir -p "$(dirname "$OUTPUT")"
+
+(cd "$ROOT_DIR" && mvn -B -q package -DskipTests)
+java -Djava.awt.headless=true -jar "$BENCH_DIR/target/benchmarks.jar" -prof gc -rf json -rff "$OUTPUT" "$@"
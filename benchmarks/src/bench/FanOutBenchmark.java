@@ -0,0 +1,129 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import controller.ChatListener;
+import controller.PresenceService;
+import gateway.FanOutGateway;
+import gateway.GatewayClient;
+import model.Backend;
+import model.InMemoryStore;
+import model.Message;
+import model.User;
+
+/**
+ * Measures the throughput of a {@link FanOutGateway} as the number of sessions
+ * subscribed to one room grows. One operation is a burst of {@value #BURST}
+ * messages sent by one client, complete once every other client received the
+ * whole burst, over the in-memory backend so that the database does not dominate.
+ * Deliveries per second are the operations per second times the burst size
+ * times the number of sessions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+    private static final int BURST = 100;
+    private static final long POLL_INTERVAL = 5; // milliseconds
+    private static final int WORKERS = 2;
+    private static final long BURST_TIMEOUT = 10000; // milliseconds
+
+    @Param({ "1", "10", "100", "500" })
+    public int sessions;
+
+    private FanOutGateway gateway;
+    private final List<GatewayClient> clients = new ArrayList<>();
+    private final LongAdder received = new LongAdder();
+    private GatewayClient sender;
+
+    @Setup
+    public void setUp() throws Exception {
+        InMemoryStore store = new InMemoryStore();
+        gateway = new FanOutGateway(() -> Backend.inMemory(store),
+                Backend.inMemory(store).getMessageModel(), 0, POLL_INTERVAL, WORKERS, PresenceService.DEFAULT_LEASE);
+        gateway.start();
+        for (int i = 0; i < sessions; i++) {
+            GatewayClient client = new GatewayClient("localhost", gateway.getPort(), new CountingListener(received));
+            clients.add(client);
+            client.connect("reader-" + i);
+            client.join(Message.DEFAULT_ROOM, 0);
+        }
+        sender = new GatewayClient("localhost", gateway.getPort(), new CountingListener(new LongAdder()));
+        clients.add(sender);
+        sender.connect("sender");
+        sender.join(Message.DEFAULT_ROOM, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (GatewayClient client : clients) {
+            client.close();
+        }
+        gateway.stop();
+    }
+
+    /**
+     * Sends one burst and waits until every reader received it.
+     *
+     * @return The number of deliveries
+     */
+    @Benchmark
+    public long burst() throws Exception {
+        long target = received.sum() + (long) BURST * sessions;
+        for (int i = 0; i < BURST; i++) {
+            sender.send(Message.DEFAULT_ROOM, "message " + i);
+        }
+        long deadline = System.currentTimeMillis() + BURST_TIMEOUT;
+        while (received.sum() < target) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Burst not delivered to " + sessions + " sessions in time");
+            }
+            Thread.yield();
+        }
+        return (long) BURST * sessions;
+    }
+
+    /**
+     * Counts the messages received by a client.
+     */
+    private static class CountingListener implements ChatListener {
+        private final LongAdder received;
+
+        CountingListener(LongAdder received) {
+            this.received = received;
+        }
+
+        @Override
+        public void messagesReceived(List<Message> messages) {
+            received.add(messages.size());
+        }
+
+        @Override
+        public void presenceChanged(List<User> users) {
+        }
+
+        @Override
+        public void errorOccurred(String message) {
+            System.err.println("Gateway error: " + message);
+        }
+    }
+}
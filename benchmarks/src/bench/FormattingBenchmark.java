@@ -0,0 +1,80 @@
+package bench;
+
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.Message;
+import model.User;
+
+/**
+ * Compares the cost of formatting messages and users for display with the former
+ * implementation, which created a SimpleDateFormat on every call. Run with
+ * {@code -prof gc} to compare the allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormattingBenchmark {
+    /** Number of distinct minutes the inputs are spread over */
+    private static final int MINUTES = 60;
+
+    private Message[] messages;
+    private User[] users;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        long now = System.currentTimeMillis();
+        messages = new Message[MINUTES];
+        users = new User[MINUTES];
+        for (int i = 0; i < MINUTES; i++) {
+            Timestamp ts = new Timestamp(now - i * 60000L);
+            messages[i] = new Message(i, "nick" + i, "Hello from message " + i, ts);
+            users[i] = new User("nick" + i, ts);
+        }
+    }
+
+    @Benchmark
+    public String messageSimpleDateFormat() {
+        Message msg = messages[nextIndex()];
+        String sTimestamp = new SimpleDateFormat("dd/MM/yyyy HH:mm").format(msg.getTimestamp());
+        return "[" + sTimestamp + "] " + msg.getNick() + ": " + msg.getMessage();
+    }
+
+    @Benchmark
+    public String messageToString() {
+        return messages[nextIndex()].toString();
+    }
+
+    @Benchmark
+    public String userSimpleDateFormat() {
+        User user = users[nextIndex()];
+        String sTimestamp = new SimpleDateFormat("dd/MM/yyyy HH:mm").format(user.getDateCon());
+        return "[" + user.getNick() + "] " + sTimestamp;
+    }
+
+    @Benchmark
+    public String userToString() {
+        return users[nextIndex()].toString();
+    }
+
+    private int nextIndex() {
+        next = next == MINUTES - 1 ? 0 : next + 1;
+        return next;
+    }
+}
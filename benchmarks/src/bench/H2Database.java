@@ -0,0 +1,120 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import model.Backend;
+import model.H2Procedures;
+import utilities.ChatException;
+import utilities.ConfigRegistry;
+
+/**
+ * An embedded H2 database holding the tables and procedures of the h2 backend,
+ * filled with messages and connected users. The models reach it through a
+ * database-config.xml whose url points at it, so that the pool borrow, the
+ * call, the driver and the row mapping are all measured.
+ */
+public final class H2Database implements AutoCloseable {
+    private static final String USER = "bench";
+    private static final String PASSWORD = "bench";
+    private static int nextId;
+
+    private final Path configFile;
+    /** Keeps the in-memory database alive until closed */
+    private final Connection keeper;
+
+    private H2Database(Path configFile, Connection keeper) {
+        this.configFile = configFile;
+        this.keeper = keeper;
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param messages The number of messages of the default room
+     * @param users The number of connected users
+     * @return The database
+     * @throws SQLException If the database cannot be created
+     * @throws IOException If the configuration file cannot be written
+     */
+    public static synchronized H2Database create(int messages, int users) throws SQLException, IOException {
+        String url = "jdbc:h2:mem:chat" + (++nextId);
+        Connection keeper = DriverManager.getConnection(url, USER, PASSWORD);
+        try {
+            H2Procedures.install(keeper);
+            fill(keeper, messages, users);
+            Path configFile = Files.createTempFile("database-config", ".xml");
+            Files.write(configFile, config(url).getBytes(StandardCharsets.UTF_8));
+            return new H2Database(configFile, keeper);
+        } catch (SQLException | IOException e) {
+            keeper.close();
+            throw e;
+        }
+    }
+
+    private static void fill(Connection conn, int messages, int users) throws SQLException {
+        long now = System.currentTimeMillis();
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO messages (nick, message, ts) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < messages; i++) {
+                stmt.setString(1, "nick" + (i % 50));
+                stmt.setString(2, "Benchmark message number " + i);
+                stmt.setTimestamp(3, new Timestamp(now + i * 1000L));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO users (nick, date_con, last_heartbeat) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < users; i++) {
+                stmt.setString(1, "nick" + i);
+                stmt.setTimestamp(2, new Timestamp(now + i * 1000L));
+                stmt.setTimestamp(3, new Timestamp(now + i * 1000L));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    private static String config(String url) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<database-config>\n"
+                + "    <backend>" + Backend.H2 + "</backend>\n"
+                + "    <url>" + url + "</url>\n"
+                + "    <username>" + USER + "</username>\n"
+                + "    <password>" + PASSWORD + "</password>\n"
+                + "</database-config>\n";
+    }
+
+    /**
+     * @return the path of a database-config.xml pointing at the database
+     */
+    public String getConfigFile() {
+        return configFile.toString();
+    }
+
+    /**
+     * @return a new registry of the configuration pointing at the database, to be closed by the caller
+     * @throws ChatException If the configuration cannot be read
+     */
+    public ConfigRegistry newRegistry() throws ChatException {
+        return new ConfigRegistry(getConfigFile());
+    }
+
+    /**
+     * Drops the database and deletes its configuration file.
+     */
+    @Override
+    public void close() throws SQLException, IOException {
+        try {
+            keeper.close();
+        } finally {
+            Files.deleteIfExists(configFile);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.Backend;
+import model.InMemoryStore;
+import model.Message;
+import model.MessageInterface;
+import model.MessageModel;
+import model.User;
+import model.UserInterface;
+import model.UserModel;
+import utilities.ChatException;
+import utilities.ConfigRegistry;
+
+/**
+ * Measures fetching a page of messages and the connected users through the
+ * regular models, against an embedded {@link H2Database}: pool borrow, call
+ * preparation, the query and result-set-to-object mapping. The in-memory
+ * backend is measured too, as a zero-network baseline. Streaming the users
+ * with {@code forEach} is measured against building the list with {@code getAll}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMappingBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    private H2Database database;
+    private ConfigRegistry registry;
+    private MessageModel messageModel;
+    private UserModel userModel;
+    private MessageInterface memoryMessages;
+    private UserInterface memoryUsers;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = H2Database.create(PAGE_SIZE, PAGE_SIZE);
+        registry = database.newRegistry();
+        messageModel = new MessageModel(registry.getDBConnection());
+        userModel = new UserModel(registry.getDBConnection());
+
+        InMemoryStore store = new InMemoryStore();
+        Backend memory = Backend.inMemory(store);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            store.connect("nick" + i);
+            store.append("nick" + i, "Benchmark message number " + i);
+        }
+        memoryMessages = memory.getMessageModel();
+        memoryUsers = memory.getUserModel();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        registry.close();
+        database.close();
+    }
+
+    @Benchmark
+    public List<Message> messageGetSince() throws ChatException {
+        return messageModel.getSince(0, PAGE_SIZE);
+    }
+
+    /** The legacy poll of a client that already read every message: the call without the rows */
+    @Benchmark
+    public List<Message> messageGetAllCaughtUp() throws ChatException {
+        return messageModel.getAll();
+    }
+
+    @Benchmark
+    public List<User> userGetAll() throws ChatException {
+        return userModel.getAll();
+    }
+
+    @Benchmark
+    public long userForEach() throws ChatException {
+        long[] count = new long[1];
+        userModel.forEach(user -> count[0]++);
+        return count[0];
+    }
+
+    @Benchmark
+    public List<Message> memoryMessageGetSince() throws ChatException {
+        return memoryMessages.getSince(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<User> memoryUserGetAll() throws ChatException {
+        return memoryUsers.getAll();
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.MessageModel;
+import model.UserModel;
+import utilities.ConfigRegistry;
+import utilities.DBConfigParser;
+import utilities.DBConnection;
+
+/**
+ * Measures building the database models at startup, against an embedded
+ * {@link H2Database}: once with a configuration parse and a connection pool per
+ * model, as every model used to do, and once with the configuration parsed once
+ * and one {@link DBConnection} shared through a {@link ConfigRegistry}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+    private H2Database database;
+    private String configFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        database = H2Database.create(0, 0);
+        configFile = database.getConfigFile();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public DBConfigParser parseConfig() throws Exception {
+        DBConfigParser config = new DBConfigParser();
+        config.parseConfig(configFile);
+        return config;
+    }
+
+    @Benchmark
+    public int connectionPerModel() throws Exception {
+        DBConnection userConnection = new DBConnection(new ConfigRegistry(configFile).getConfig());
+        DBConnection messageConnection = new DBConnection(new ConfigRegistry(configFile).getConfig());
+        UserModel userModel = new UserModel(userConnection);
+        MessageModel messageModel = new MessageModel(messageConnection);
+        userConnection.close();
+        messageConnection.close();
+        return userModel.hashCode() ^ messageModel.hashCode();
+    }
+
+    @Benchmark
+    public int sharedConnection() throws Exception {
+        ConfigRegistry registry = new ConfigRegistry(configFile);
+        UserModel userModel = new UserModel(registry.getDBConnection());
+        MessageModel messageModel = new MessageModel(registry.getDBConnection());
+        registry.close();
+        return userModel.hashCode() ^ messageModel.hashCode();
+    }
+}
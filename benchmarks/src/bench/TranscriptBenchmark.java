@@ -0,0 +1,76 @@
+package bench;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JList;
+import javax.swing.JTextArea;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.Message;
+import view.TranscriptModel;
+
+/**
+ * Measures appending a page of messages to the chat transcript, with the former
+ * ever-growing JTextArea as a baseline. Both components are attached but never
+ * shown, so the cost is the model and document updates, not painting. The text
+ * area starts empty on every iteration, so that it does not grow for the whole run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TranscriptBenchmark {
+    private static final int PAGE_SIZE = 20;
+    private static final int CAPACITY = 2000;
+
+    private List<Message> page;
+    private JTextArea textArea;
+    private TranscriptModel transcript;
+    private JList<Message> list;
+
+    @Setup
+    public void setUp() {
+        long now = System.currentTimeMillis();
+        page = new ArrayList<>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            page.add(new Message(i, "nick" + i, "Benchmark message number " + i, new Timestamp(now + i)));
+        }
+        transcript = new TranscriptModel(CAPACITY);
+        list = new JList<>(transcript);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearTextArea() {
+        textArea = new JTextArea();
+    }
+
+    @Benchmark
+    public int textAreaAppend() {
+        for (Message msg : page) {
+            textArea.append(msg + "\n");
+        }
+        return textArea.getDocument().getLength();
+    }
+
+    @Benchmark
+    public int ringAppend() {
+        transcript.append(page);
+        return list.getModel().getSize();
+    }
+}
@@ -0,0 +1,168 @@
+-- Upgrades a database created for the original client to the schema of schema.sql.
+--
+-- The original schema had the tables users (nick, date_con) and messages
+-- (id, nick, message, ts), and the procedures connect(nick), disconnect(),
+-- send(message), getMessages() and getConnectedUsers(). Those procedures are
+-- left as they are, so clients of both versions can run during the upgrade.
+-- The script can be run again; it only adds what is missing.
+--
+-- The events below need the event scheduler: event_scheduler=ON in the server configuration.
+
+DROP PROCEDURE IF EXISTS migrate_execute_if;
+
+DELIMITER //
+
+CREATE PROCEDURE migrate_execute_if(IN p_condition BOOLEAN, IN p_ddl TEXT)
+BEGIN
+    IF p_condition THEN
+        SET @ddl = p_ddl;
+        PREPARE stmt FROM @ddl;
+        EXECUTE stmt;
+        DEALLOCATE PREPARE stmt;
+    END IF;
+END //
+
+DELIMITER ;
+
+-- Leases: a user connected before the upgrade starts with a fresh one
+CALL migrate_execute_if(NOT EXISTS (SELECT 1 FROM information_schema.columns
+        WHERE table_schema = DATABASE() AND table_name = 'users' AND column_name = 'last_heartbeat'),
+    'ALTER TABLE users ADD COLUMN last_heartbeat TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP');
+CALL migrate_execute_if(NOT EXISTS (SELECT 1 FROM information_schema.statistics
+        WHERE table_schema = DATABASE() AND table_name = 'users' AND index_name = 'users_last_heartbeat'),
+    'CREATE INDEX users_last_heartbeat ON users (last_heartbeat)');
+DROP PROCEDURE migrate_execute_if;
+
+CREATE TABLE IF NOT EXISTS room_messages (
+    room VARCHAR(100) NOT NULL,
+    id BIGINT NOT NULL,
+    nick VARCHAR(50) NOT NULL,
+    message TEXT NOT NULL,
+    ts TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (room, id)
+) ENGINE = InnoDB
+PARTITION BY KEY (room) PARTITIONS 16;
+
+CREATE TABLE IF NOT EXISTS room_sequences (
+    room VARCHAR(100) NOT NULL PRIMARY KEY,
+    last_id BIGINT NOT NULL
+) ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS message_keys (
+    idem_key VARCHAR(100) NOT NULL PRIMARY KEY,
+    created TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    KEY message_keys_created (created)
+) ENGINE = InnoDB;
+
+CREATE TABLE IF NOT EXISTS chat_settings (
+    id TINYINT NOT NULL PRIMARY KEY DEFAULT 1,
+    presence_lease INT NOT NULL DEFAULT 90,
+    key_retention INT NOT NULL DEFAULT 86400,
+    CHECK (id = 1)
+) ENGINE = InnoDB;
+
+INSERT IGNORE INTO chat_settings (id) VALUES (1);
+
+DROP PROCEDURE IF EXISTS disconnectUser;
+DROP PROCEDURE IF EXISTS heartbeat;
+DROP PROCEDURE IF EXISTS reapExpiredUsers;
+DROP PROCEDURE IF EXISTS sendAs;
+DROP PROCEDURE IF EXISTS sendToRoomAs;
+DROP PROCEDURE IF EXISTS sendOnceAs;
+DROP PROCEDURE IF EXISTS sendOnceToRoomAs;
+DROP PROCEDURE IF EXISTS getMessagesSince;
+DROP PROCEDURE IF EXISTS getMessagesBefore;
+DROP PROCEDURE IF EXISTS getRoomMessagesSince;
+DROP PROCEDURE IF EXISTS getRoomMessagesBefore;
+DROP PROCEDURE IF EXISTS getRooms;
+DROP EVENT IF EXISTS reap_expired_users;
+DROP EVENT IF EXISTS expire_message_keys;
+
+DELIMITER //
+
+CREATE PROCEDURE disconnectUser(IN p_nick VARCHAR(50))
+BEGIN
+    DELETE FROM users WHERE nick = p_nick;
+END //
+
+CREATE PROCEDURE heartbeat(IN p_nick VARCHAR(50))
+BEGIN
+    INSERT INTO users (nick, date_con, last_heartbeat) VALUES (p_nick, NOW(), NOW())
+        ON DUPLICATE KEY UPDATE last_heartbeat = NOW();
+END //
+
+CREATE PROCEDURE reapExpiredUsers(IN p_seconds INT)
+BEGIN
+    DELETE FROM users WHERE last_heartbeat < NOW() - INTERVAL p_seconds SECOND;
+END //
+
+CREATE PROCEDURE sendAs(IN p_nick VARCHAR(50), IN p_message TEXT)
+BEGIN
+    INSERT INTO messages (nick, message, ts) VALUES (p_nick, p_message, NOW());
+END //
+
+CREATE PROCEDURE sendToRoomAs(IN p_room VARCHAR(100), IN p_nick VARCHAR(50), IN p_message TEXT)
+BEGIN
+    INSERT INTO room_sequences (room, last_id) VALUES (p_room, LAST_INSERT_ID(1))
+        ON DUPLICATE KEY UPDATE last_id = LAST_INSERT_ID(last_id + 1);
+    INSERT INTO room_messages (room, id, nick, message, ts) VALUES (p_room, LAST_INSERT_ID(), p_nick, p_message, NOW());
+END //
+
+CREATE PROCEDURE sendOnceAs(IN p_nick VARCHAR(50), IN p_key VARCHAR(100), IN p_message TEXT)
+BEGIN
+    INSERT IGNORE INTO message_keys (idem_key, created) VALUES (p_key, NOW());
+    IF ROW_COUNT() = 1 THEN
+        CALL sendAs(p_nick, p_message);
+    END IF;
+END //
+
+CREATE PROCEDURE sendOnceToRoomAs(IN p_room VARCHAR(100), IN p_nick VARCHAR(50), IN p_key VARCHAR(100), IN p_message TEXT)
+BEGIN
+    INSERT IGNORE INTO message_keys (idem_key, created) VALUES (p_key, NOW());
+    IF ROW_COUNT() = 1 THEN
+        CALL sendToRoomAs(p_room, p_nick, p_message);
+    END IF;
+END //
+
+CREATE PROCEDURE getMessagesSince(IN p_last_seen_id BIGINT, IN p_limit INT)
+BEGIN
+    SELECT id, nick, message, ts FROM messages WHERE id > p_last_seen_id ORDER BY id LIMIT p_limit;
+END //
+
+CREATE PROCEDURE getMessagesBefore(IN p_before_id BIGINT, IN p_limit INT)
+BEGIN
+    SELECT id, nick, message, ts FROM messages WHERE id < p_before_id ORDER BY id DESC LIMIT p_limit;
+END //
+
+CREATE PROCEDURE getRoomMessagesSince(IN p_room VARCHAR(100), IN p_last_seen_id BIGINT, IN p_limit INT)
+BEGIN
+    SELECT id, nick, message, ts FROM room_messages
+        WHERE room = p_room AND id > p_last_seen_id ORDER BY id LIMIT p_limit;
+END //
+
+CREATE PROCEDURE getRoomMessagesBefore(IN p_room VARCHAR(100), IN p_before_id BIGINT, IN p_limit INT)
+BEGIN
+    SELECT id, nick, message, ts FROM room_messages
+        WHERE room = p_room AND id < p_before_id ORDER BY id DESC LIMIT p_limit;
+END //
+
+CREATE PROCEDURE getRooms()
+BEGIN
+    SELECT room FROM room_sequences ORDER BY room;
+END //
+
+CREATE EVENT reap_expired_users ON SCHEDULE EVERY 15 SECOND
+DO BEGIN
+    DECLARE v_lease INT;
+    SELECT presence_lease INTO v_lease FROM chat_settings WHERE id = 1;
+    CALL reapExpiredUsers(v_lease);
+END //
+
+CREATE EVENT expire_message_keys ON SCHEDULE EVERY 1 HOUR
+DO BEGIN
+    DECLARE v_retention INT;
+    SELECT key_retention INTO v_retention FROM chat_settings WHERE id = 1;
+    DELETE FROM message_keys WHERE created < NOW() - INTERVAL v_retention SECOND;
+END //
+
+DELIMITER ;
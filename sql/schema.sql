@@ -0,0 +1,196 @@
+-- Schema of the chat database for MySQL 8, for a new installation.
+-- An existing installation is upgraded with the scripts in migrations/, in order.
+-- The client calls only the procedures below; src/model/H2Procedures.java
+-- implements the same ones for the h2 backend.
+--
+-- Contract:
+-- * Messages of the default room are in `messages`, every other room in
+--   `room_messages` under its name. Ids are assigned by the database, increase
+--   within a room and are never reused; a room's ids are unrelated to another's.
+-- * Every write names its sender, since clients may share a database account.
+-- * sendOnce* store a message at most once per idempotency key: a key already
+--   stored makes the call succeed without storing anything. Keys are kept for
+--   `chat_settings.key_retention` seconds.
+-- * A connected user holds a lease renewed by heartbeat(nick). The event
+--   reap_expired_users disconnects users whose last heartbeat is older than
+--   `chat_settings.presence_lease` seconds; clients never reap.
+-- * Read procedures return at most `limit` rows; *Since oldest first,
+--   *Before newest first.
+
+-- The events below need the event scheduler: event_scheduler=ON in the server configuration.
+
+CREATE TABLE users (
+    nick VARCHAR(50) NOT NULL PRIMARY KEY,
+    date_con TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_heartbeat TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    KEY users_last_heartbeat (last_heartbeat)
+) ENGINE = InnoDB;
+
+CREATE TABLE messages (
+    id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    nick VARCHAR(50) NOT NULL,
+    message TEXT NOT NULL,
+    ts TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+) ENGINE = InnoDB;
+
+-- Each room is a partition of its own, keyed by its name
+CREATE TABLE room_messages (
+    room VARCHAR(100) NOT NULL,
+    id BIGINT NOT NULL,
+    nick VARCHAR(50) NOT NULL,
+    message TEXT NOT NULL,
+    ts TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (room, id)
+) ENGINE = InnoDB
+PARTITION BY KEY (room) PARTITIONS 16;
+
+-- Last id of each room other than the default one
+CREATE TABLE room_sequences (
+    room VARCHAR(100) NOT NULL PRIMARY KEY,
+    last_id BIGINT NOT NULL
+) ENGINE = InnoDB;
+
+-- Idempotency keys of the messages sent with sendOnce*
+CREATE TABLE message_keys (
+    idem_key VARCHAR(100) NOT NULL PRIMARY KEY,
+    created TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    KEY message_keys_created (created)
+) ENGINE = InnoDB;
+
+-- Last message of the default room returned by getMessages() to each account
+CREATE TABLE message_cursors (
+    account VARCHAR(300) NOT NULL PRIMARY KEY,
+    last_id BIGINT NOT NULL
+) ENGINE = InnoDB;
+
+-- Settings owned by the server, in seconds
+CREATE TABLE chat_settings (
+    id TINYINT NOT NULL PRIMARY KEY DEFAULT 1,
+    presence_lease INT NOT NULL DEFAULT 90,
+    key_retention INT NOT NULL DEFAULT 86400,
+    CHECK (id = 1)
+) ENGINE = InnoDB;
+
+INSERT INTO chat_settings (id) VALUES (1);
+
+DELIMITER //
+
+-- Presence
+
+CREATE PROCEDURE connect(IN p_nick VARCHAR(50))
+BEGIN
+    -- A taken nickname fails with a duplicate key error
+    INSERT INTO users (nick, date_con, last_heartbeat) VALUES (p_nick, NOW(), NOW());
+END //
+
+CREATE PROCEDURE disconnectUser(IN p_nick VARCHAR(50))
+BEGIN
+    DELETE FROM users WHERE nick = p_nick;
+END //
+
+CREATE PROCEDURE heartbeat(IN p_nick VARCHAR(50))
+BEGIN
+    -- Inserts the user again if it was reaped while the client was away
+    INSERT INTO users (nick, date_con, last_heartbeat) VALUES (p_nick, NOW(), NOW())
+        ON DUPLICATE KEY UPDATE last_heartbeat = NOW();
+END //
+
+CREATE PROCEDURE reapExpiredUsers(IN p_seconds INT)
+BEGIN
+    DELETE FROM users WHERE last_heartbeat < NOW() - INTERVAL p_seconds SECOND;
+END //
+
+CREATE PROCEDURE getConnectedUsers()
+BEGIN
+    SELECT nick, date_con FROM users ORDER BY nick;
+END //
+
+-- Sending
+
+CREATE PROCEDURE sendAs(IN p_nick VARCHAR(50), IN p_message TEXT)
+BEGIN
+    INSERT INTO messages (nick, message, ts) VALUES (p_nick, p_message, NOW());
+END //
+
+CREATE PROCEDURE sendToRoomAs(IN p_room VARCHAR(100), IN p_nick VARCHAR(50), IN p_message TEXT)
+BEGIN
+    -- Locks the room's sequence row until commit, so its ids are gapless and ordered
+    INSERT INTO room_sequences (room, last_id) VALUES (p_room, LAST_INSERT_ID(1))
+        ON DUPLICATE KEY UPDATE last_id = LAST_INSERT_ID(last_id + 1);
+    INSERT INTO room_messages (room, id, nick, message, ts) VALUES (p_room, LAST_INSERT_ID(), p_nick, p_message, NOW());
+END //
+
+CREATE PROCEDURE sendOnceAs(IN p_nick VARCHAR(50), IN p_key VARCHAR(100), IN p_message TEXT)
+BEGIN
+    INSERT IGNORE INTO message_keys (idem_key, created) VALUES (p_key, NOW());
+    IF ROW_COUNT() = 1 THEN
+        CALL sendAs(p_nick, p_message);
+    END IF;
+END //
+
+CREATE PROCEDURE sendOnceToRoomAs(IN p_room VARCHAR(100), IN p_nick VARCHAR(50), IN p_key VARCHAR(100), IN p_message TEXT)
+BEGIN
+    INSERT IGNORE INTO message_keys (idem_key, created) VALUES (p_key, NOW());
+    IF ROW_COUNT() = 1 THEN
+        CALL sendToRoomAs(p_room, p_nick, p_message);
+    END IF;
+END //
+
+-- Reading
+
+CREATE PROCEDURE getMessages()
+BEGIN
+    -- Legacy polling: the messages of the default room not yet returned to this account
+    DECLARE v_last BIGINT;
+    SELECT COALESCE((SELECT last_id FROM message_cursors WHERE account = CURRENT_USER()),
+                    (SELECT COALESCE(MAX(id), 0) FROM messages)) INTO v_last;
+    SELECT id, nick, message, ts FROM messages WHERE id > v_last ORDER BY id;
+    INSERT INTO message_cursors (account, last_id)
+        VALUES (CURRENT_USER(), (SELECT COALESCE(MAX(id), v_last) FROM messages))
+        ON DUPLICATE KEY UPDATE last_id = VALUES(last_id);
+END //
+
+CREATE PROCEDURE getMessagesSince(IN p_last_seen_id BIGINT, IN p_limit INT)
+BEGIN
+    SELECT id, nick, message, ts FROM messages WHERE id > p_last_seen_id ORDER BY id LIMIT p_limit;
+END //
+
+CREATE PROCEDURE getMessagesBefore(IN p_before_id BIGINT, IN p_limit INT)
+BEGIN
+    SELECT id, nick, message, ts FROM messages WHERE id < p_before_id ORDER BY id DESC LIMIT p_limit;
+END //
+
+CREATE PROCEDURE getRoomMessagesSince(IN p_room VARCHAR(100), IN p_last_seen_id BIGINT, IN p_limit INT)
+BEGIN
+    SELECT id, nick, message, ts FROM room_messages
+        WHERE room = p_room AND id > p_last_seen_id ORDER BY id LIMIT p_limit;
+END //
+
+CREATE PROCEDURE getRoomMessagesBefore(IN p_room VARCHAR(100), IN p_before_id BIGINT, IN p_limit INT)
+BEGIN
+    SELECT id, nick, message, ts FROM room_messages
+        WHERE room = p_room AND id < p_before_id ORDER BY id DESC LIMIT p_limit;
+END //
+
+CREATE PROCEDURE getRooms()
+BEGIN
+    SELECT room FROM room_sequences ORDER BY room;
+END //
+
+-- Server-side housekeeping
+
+CREATE EVENT reap_expired_users ON SCHEDULE EVERY 15 SECOND
+DO BEGIN
+    DECLARE v_lease INT;
+    SELECT presence_lease INTO v_lease FROM chat_settings WHERE id = 1;
+    CALL reapExpiredUsers(v_lease);
+END //
+
+CREATE EVENT expire_message_keys ON SCHEDULE EVERY 1 HOUR
+DO BEGIN
+    DECLARE v_retention INT;
+    SELECT key_retention INTO v_retention FROM chat_settings WHERE id = 1;
+    DELETE FROM message_keys WHERE created < NOW() - INTERVAL v_retention SECOND;
+END //
+
+DELIMITER ;
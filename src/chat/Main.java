@@ -3,19 +3,71 @@ package chat;
 import controller.*;
 import view.*;
 import model.*;
+import relay.MessageRelay;
+import relay.RelayMessageModel;
 import utilities.ChatException;
+import utilities.ConfigRegistry;
+import utilities.DBConfigParser;
+import utilities.DBConnection;
+import utilities.FileNames;
+import utilities.MetricsRegistry;
+
+import javax.swing.JOptionPane;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Entry point of the chat application.
  */
 public class Main {
     public static void main(String[] args) throws ChatException {
-        // 1. Models
-        UserInterface userModel = new UserModel();
-        MessageInterface messageModel = new MessageModel();
+        long start = System.nanoTime();
+        
+        // 1. Models, from the backend selected in the configuration, parsed once and shared
+        ConfigRegistry registry = ConfigRegistry.getDefault();
+        registry.watch();
+        DBConfigParser config = registry.getConfig();
+        Backend backend = Backend.fromConfig(registry);
+        UserInterface userModel = backend.getUserModel();
+        MessageInterface messageModel = backend.getMessageModel();
+        
+        // Push mode: read new messages from the relay when one is configured
+        RelayMessageModel relayModel = null;
+        if (config.getRelayHost() != null) {
+            int relayPort = config.getRelayPort() != null ? Integer.parseInt(config.getRelayPort()) : MessageRelay.DEFAULT_PORT;
+            relayModel = new RelayMessageModel(messageModel, config.getRelayHost(), relayPort);
+            relayModel.start();
+            messageModel = relayModel;
+        }
+        
+        // Local history, so the chat shows up at once and only the new messages are fetched
+        if (config.getHistoryDir() != null) {
+            try {
+                messageModel = new CachedMessageModel(messageModel, Paths.get(config.getHistoryDir()));
+            } catch (IOException e) {
+                System.err.println("Local history disabled: " + e.getMessage());
+            }
+        }
+        
+        if (config.getMetricsInterval() != null) {
+            MetricsRegistry.getDefault().startReporting(Long.parseLong(config.getMetricsInterval()) * 1000);
+        }
+        
+        // Single owner of the connected users list, shared by both views
+        long lease = config.getPresenceLease() != null
+                ? Long.parseLong(config.getPresenceLease()) * 1000 : PresenceService.DEFAULT_LEASE;
+        PresenceService presenceService = new PresenceService(userModel, lease);
+        presenceService.start();
+        
+        MetricsRegistry.getDefault().timer("startup.models").stop(start);
+        MetricsRegistry.getDefault().timer("startup.config").record(registry.getParseNanos() / 1000);
         
         // 2. Views
-    	LoginView loginView = new LoginView(userModel);
+    	LoginView loginView = new LoginView(presenceService);
         ChatView view = new ChatView();
         
         // 3. 
@@ -27,12 +79,62 @@ public class Main {
         }
 
         // 4. Controller
-        ChatControllerInterface controller = new ChatController(view, userModel, messageModel, nickname);
+        ChatControllerInterface controller;
+        try {
+            if (config.getOutboxDir() != null) {
+                // One journal per user, so messages are delivered under the nickname they were written with
+                Path outboxDir = outboxDirectory(config.getOutboxDir(), nickname);
+                DurableOutbox outbox = new DurableOutbox(messageModel, outboxDir);
+                controller = new ChatController(view, userModel, messageModel, outbox, presenceService, nickname);
+                outbox.start();
+            } else {
+                // No more flushes at once than the pool has connections to send them with
+                ScheduledExecutorService outboxExecutor = Executors.newScheduledThreadPool(DBConnection.getPoolMaxSize(config), r -> {
+                    Thread t = new Thread(r, "message-outbox");
+                    t.setDaemon(true);
+                    return t;
+                });
+                controller = new ChatController(view, userModel, messageModel,
+                        new MessageOutbox(messageModel, outboxExecutor), presenceService, nickname);
+            }
+        } catch (ChatException e) {
+            System.out.println(e.getMessage());
+            JOptionPane.showMessageDialog(null, "Connection Error: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+            return;
+        }
         
         // 5. Set controller to the view
         view.setController(controller);
+        if (relayModel != null) {
+            // Pushed messages are shown at once instead of on the next, possibly distant, refresh
+            relayModel.setPushListener(view::refreshNow);
+        }
 
         // 6. Show the UI
         view.setVisible(true);
     }
+
+    /**
+     * Returns the outbox directory of a user, named after the encoded nickname.
+     * The directory of an earlier version, named after the nickname with every
+     * character but letters, digits, '_' and '-' replaced by '_', is taken over
+     * when that name could only belong to this user.
+     *
+     * @param base The directory of the outboxes
+     * @param nickname The nickname of the user
+     * @return The outbox directory
+     */
+    private static Path outboxDirectory(String base, String nickname) {
+        Path directory = Paths.get(base, FileNames.encode(nickname));
+        Path legacy = Paths.get(base, nickname);
+        if (nickname.matches("[A-Za-z0-9-]+") && !Files.exists(directory) && Files.isDirectory(legacy)) {
+            try {
+                Files.move(legacy, directory);
+            } catch (IOException e) {
+                System.err.println("Error moving outbox " + legacy + ": " + e.getMessage());
+            }
+        }
+        return directory;
+    }
 }
@@ -0,0 +1,210 @@
+package controller;
+
+import model.Message;
+import model.User;
+import utilities.ChatException;
+import utilities.Deadline;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the operations of a {@link ChatControllerInterface} on a small bounded pool
+ * of worker threads so that database round trips never block the caller,
+ * typically the Swing event dispatch thread.
+ * <p>
+ * Each operation gets a {@link Deadline} when it is submitted, so that time
+ * spent waiting for a worker counts against it, and the layers below give up
+ * once nobody is waiting for the result anymore.
+ * <p>
+ * Messages are handed to the controller's outbox on a thread of their own, in
+ * the order they were sent, since a durable outbox writes them to disk first.
+ * Disconnecting runs on the same thread, after the messages sent before it.
+ */
+public class AsyncChatController implements AsyncChatControllerInterface {
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_QUEUE_SIZE = 32;
+    private static final long DEFAULT_TIMEOUT = 10000; // milliseconds
+
+    private final ChatControllerInterface controller;
+    private final ThreadPoolExecutor executor;
+    private final ThreadPoolExecutor sender;
+    private final long timeout;
+
+    /**
+     * Creates an asynchronous controller with the default pool size.
+     * 
+     * @param controller The controller whose operations are run asynchronously
+     */
+    public AsyncChatController(ChatControllerInterface controller) {
+        this(controller, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates an asynchronous controller.
+     * 
+     * @param controller The controller whose operations are run asynchronously
+     * @param threads The number of worker threads
+     * @param queueSize The maximum number of pending operations; further ones fail immediately
+     */
+    public AsyncChatController(ChatControllerInterface controller, int threads, int queueSize) {
+        this(controller, threads, queueSize, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates an asynchronous controller.
+     * 
+     * @param controller The controller whose operations are run asynchronously
+     * @param threads The number of worker threads
+     * @param queueSize The maximum number of pending operations; further ones fail immediately
+     * @param timeout The time allowed to each operation from its submission, in milliseconds
+     */
+    public AsyncChatController(ChatControllerInterface controller, int threads, int queueSize, long timeout) {
+        this.controller = controller;
+        this.timeout = timeout;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "chat-controller-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.sender = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "chat-sender");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> sendMessage(String room, String messageContent) {
+        // Batched by the controller's outbox, no thread is held while waiting for the delivery
+        return submit(sender, () -> controller.queueMessage(room, messageContent))
+                .thenCompose(delivery -> delivery);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> joinRoom(String room) {
+        return submit(() -> {
+            controller.joinRoom(room);
+            return null;
+        });
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> leaveRoom(String room) {
+        return submit(() -> {
+            controller.leaveRoom(room);
+            return null;
+        });
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<List<String>> getRooms() {
+        return submit(controller::getRooms);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Integer> poll() {
+        return submit(controller::poll);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<List<Message>> getMessagesSince(String room, long lastSeenId, int limit) {
+        return submit(() -> controller.getMessagesSince(room, lastSeenId, limit));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<List<Message>> getMessagesBefore(String room, long beforeId, int limit) {
+        return submit(() -> controller.getMessagesBefore(room, beforeId, limit));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<List<User>> getUsers() {
+        return submit(controller::getUsers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> disconnect() {
+        return submit(sender, () -> {
+            controller.disconnect();
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+        sender.shutdown();
+    }
+
+    /**
+     * Runs the operation on the worker pool, with a deadline starting now.
+     * 
+     * @param operation The operation to run
+     * @return A future completed with the operation result or its ChatException
+     */
+    private <T> CompletableFuture<T> submit(Deadline.Operation<T> operation) {
+        return submit(executor, operation);
+    }
+
+    /**
+     * Runs the operation on an executor, with a deadline starting now.
+     * 
+     * @param executor The worker pool or the sender thread
+     * @param operation The operation to run
+     * @return A future completed with the operation result or its ChatException
+     */
+    private <T> CompletableFuture<T> submit(ThreadPoolExecutor executor, Deadline.Operation<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Deadline deadline = Deadline.after(timeout);
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(deadline.run(operation));
+                } catch (ChatException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new ChatException("Too many pending chat operations", e));
+        }
+        return future;
+    }
+}
@@ -0,0 +1,126 @@
+package controller;
+
+import model.Message;
+import model.User;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of {@link ChatControllerInterface}.
+ * Every operation runs off the calling thread and completes the returned future
+ * with its result, or exceptionally with the {@link utilities.ChatException} it raised.
+ */
+public interface AsyncChatControllerInterface {
+    
+    /**
+     * Sends a message to the default room.
+     *
+     * @param messageContent The content of the message to send
+     * @return A future completed once the message has been sent
+     */
+    default CompletableFuture<Void> sendMessage(String messageContent) {
+        return sendMessage(Message.DEFAULT_ROOM, messageContent);
+    }
+    
+    /**
+     * Sends a message to a room.
+     *
+     * @param room The room to send the message to
+     * @param messageContent The content of the message to send
+     * @return A future completed once the message has been sent
+     */
+    CompletableFuture<Void> sendMessage(String room, String messageContent);
+    
+    /**
+     * Enters a room, see {@link ChatControllerInterface#joinRoom(String)}.
+     *
+     * @param room The room to enter
+     * @return A future completed once the room's messages are polled
+     */
+    CompletableFuture<Void> joinRoom(String room);
+    
+    /**
+     * Leaves a room, see {@link ChatControllerInterface#leaveRoom(String)}.
+     *
+     * @param room The room to leave
+     * @return A future completed once the room's messages are no longer polled
+     */
+    CompletableFuture<Void> leaveRoom(String room);
+    
+    /**
+     * Retrieves the rooms that can be joined.
+     *
+     * @return A future completed with the sorted room names
+     */
+    CompletableFuture<List<String>> getRooms();
+    
+    /**
+     * Fetches the messages sent since the previous poll and publishes them to the
+     * controller's {@link ChatListener}.
+     *
+     * @return A future completed with the number of messages received
+     */
+    CompletableFuture<Integer> poll();
+    
+    /**
+     * Retrieves the messages of the default room sent after the given message id, oldest first.
+     *
+     * @param lastSeenId The id of the last message already seen, or 0 to start from the beginning
+     * @param limit The maximum number of messages to return
+     * @return A future completed with the list of Message objects ordered by id
+     */
+    default CompletableFuture<List<Message>> getMessagesSince(long lastSeenId, int limit) {
+        return getMessagesSince(Message.DEFAULT_ROOM, lastSeenId, limit);
+    }
+    
+    /**
+     * Retrieves the messages of a room sent after the given message id, oldest first.
+     *
+     * @param room The room to read
+     * @param lastSeenId The id of the last message already seen, or 0 to start from the beginning
+     * @param limit The maximum number of messages to return
+     * @return A future completed with the list of Message objects ordered by id
+     */
+    CompletableFuture<List<Message>> getMessagesSince(String room, long lastSeenId, int limit);
+    
+    /**
+     * Retrieves the most recent messages of the default room sent before the given message id, oldest first.
+     *
+     * @param beforeId The id of the oldest message already loaded
+     * @param limit The maximum number of messages to return
+     * @return A future completed with the list of Message objects ordered by id
+     */
+    default CompletableFuture<List<Message>> getMessagesBefore(long beforeId, int limit) {
+        return getMessagesBefore(Message.DEFAULT_ROOM, beforeId, limit);
+    }
+    
+    /**
+     * Retrieves the most recent messages of a room sent before the given message id, oldest first.
+     *
+     * @param room The room to read
+     * @param beforeId The id of the oldest message already loaded
+     * @param limit The maximum number of messages to return
+     * @return A future completed with the list of Message objects ordered by id
+     */
+    CompletableFuture<List<Message>> getMessagesBefore(String room, long beforeId, int limit);
+    
+    /**
+     * Retrieves a list of currently connected users.
+     *
+     * @return A future completed with the list of connected users
+     */
+    CompletableFuture<List<User>> getUsers();
+    
+    /**
+     * Disconnects the current user from the chat system.
+     *
+     * @return A future completed once the user has been disconnected
+     */
+    CompletableFuture<Void> disconnect();
+    
+    /**
+     * Stops accepting new operations and releases the worker threads.
+     */
+    void shutdown();
+}
@@ -2,42 +2,144 @@ package controller;
 
 import model.*;
 import utilities.ChatException;
-import view.ChatView;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Controller class that handles the logic and interactions between the model and the view.
+ * The view, or any other front end, receives messages, presence changes and
+ * errors through the {@link ChatListener} it registered.
+ * <p>
+ * The presence lease of the user is renewed by {@link #poll()}, at most a few
+ * times per lease, so a front end that polls needs no separate heartbeat timer.
  */
 public class ChatController implements ChatControllerInterface {
+    private static final int MESSAGE_PAGE_SIZE = 100;
+    private static final int HEARTBEATS_PER_LEASE = 3;
+
     private final UserInterface userModel;
     private final MessageInterface messageModel;
-    private final ChatView view;
+    private final ChatListener listener;
+    private final PresenceService presenceService;
+    private final PresenceListener presenceListener;
+    private final Outbox outbox;
     private final String nickname;
+    private final long heartbeatInterval;
+    private long lastHeartbeat;
+    /**
+     * Joined rooms, with the id of the last message of each published to the listener.
+     * Guarded by itself rather than by the controller, so that joining or leaving
+     * a room does not wait for a poll. A room joined again gets a new cursor.
+     */
+    private final Map<String, AtomicLong> cursors = new LinkedHashMap<>();
 
     /**
      * Initializes the ChatController and connects the user to the chat system.
      * 
-     * @param view The chat view component
-     * @param userDAO The User DAO
-     * @param messageDAO The Message DAO
+     * @param listener The listener receiving the chat events
+     * @param userModel The User DAO
+     * @param messageModel The Message DAO
+     * @param outbox The outbox the messages are sent through; it is closed on disconnect
+     * @param presenceService The service whose changes are forwarded to the listener, or null
      * @param nickname The nickname of the user
-     * @throws ChatException If there is an error during initialization
+     * @throws ChatException If the user cannot be connected
      */
-    public ChatController(ChatView view, UserInterface userModel, MessageInterface messageModel, String nickname) throws ChatException {
-        this.view = view;
+    public ChatController(ChatListener listener, UserInterface userModel, MessageInterface messageModel,
+            Outbox outbox, PresenceService presenceService, String nickname) throws ChatException {
+        this.listener = listener;
         this.userModel = userModel;
         this.messageModel = messageModel;
+        this.presenceService = presenceService;
+        this.presenceListener = (users, version) -> listener.presenceChanged(users);
         this.nickname = nickname;
+        this.outbox = outbox;
+        this.heartbeatInterval = (presenceService != null ? presenceService.getLease() : PresenceService.DEFAULT_LEASE)
+                / HEARTBEATS_PER_LEASE;
+        cursors.put(Message.DEFAULT_ROOM, new AtomicLong());
         
         // Connect the user to the database using the model
         try {
         	this.userModel.connect(this.nickname);
+        	this.lastHeartbeat = System.currentTimeMillis();
         } catch (ChatException e) {
-        	System.out.println(e.getMessage());
-        	this.view.showError("Connection Error: " + e.getMessage());
-            disconnect();
-            System.exit(1);
+            // Clean up whatever the failed attempt left behind; the caller decides what to do next
+            try {
+                disconnect();
+            } catch (ChatException ignored) {
+                // The connection error is the one worth reporting
+            }
+            throw e;
+        }
+        
+        if (presenceService != null) {
+            presenceService.subscribe(presenceListener);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(String room, String messageContent) throws ChatException {
+        CompletableFuture<Void> delivery = queueMessage(room, messageContent);
+        if (outbox.isDurable() && !delivery.isCompletedExceptionally()) {
+            // Saved locally, it will be delivered even if the database is down right now
+            delivery.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    listener.errorOccurred("Failed to send message: " + error.getMessage());
+                }
+            });
+            return;
+        }
+        try {
+            // Wait for the batch the message joined
+            delivery.join();
+        } catch (CompletionException e) {
+            listener.errorOccurred("Failed to send message: " + e.getCause().getMessage());
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> queueMessage(String room, String messageContent) {
+        return outbox.submit(room, messageContent);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void joinRoom(String room) {
+        synchronized (cursors) {
+            cursors.putIfAbsent(room, new AtomicLong());
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void leaveRoom(String room) {
+        synchronized (cursors) {
+            cursors.remove(room);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getJoinedRooms() {
+        synchronized (cursors) {
+            return new ArrayList<>(cursors.keySet());
         }
     }
     
@@ -45,15 +147,77 @@ public class ChatController implements ChatControllerInterface {
      * {@inheritDoc}
      */
     @Override
-    public void sendMessage(String messageContent) throws ChatException {
+    public List<String> getRooms() throws ChatException {
+        return messageModel.getRooms();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int poll() throws ChatException {
+        heartbeat();
+        Map<String, AtomicLong> joined;
+        synchronized (cursors) {
+            joined = new LinkedHashMap<>(cursors);
+        }
+        int received = 0;
+        for (Map.Entry<String, AtomicLong> entry : joined.entrySet()) {
+            received += poll(entry.getKey(), entry.getValue());
+        }
+        return received;
+    }
+    
+    /**
+     * Renews the presence lease if a heartbeat is due. A failed heartbeat is retried
+     * on the next poll and does not keep the messages from being fetched.
+     * Must be called with the lock held.
+     */
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        if (now - lastHeartbeat < heartbeatInterval) {
+            return;
+        }
         try {
-            // Create and send message
-            messageModel.sendMessage(messageContent);
+            userModel.heartbeat();
+            lastHeartbeat = now;
         } catch (ChatException e) {
-            view.showError("Failed to send message: " + e.getMessage());
+            System.err.println("Error renewing presence: " + e.getMessage());
         }
     }
     
+    /**
+     * Fetches the messages sent to a room since the previous poll and publishes them.
+     * Must be called with the lock held. A cursor of a room left meanwhile is
+     * no longer in the map, so advancing it has no effect.
+     */
+    private int poll(String room, AtomicLong cursor) throws ChatException {
+        long lastSeenId = cursor.get();
+        int received = 0;
+        List<Message> messages;
+        if (lastSeenId == 0) {
+            // Start from the most recent page, older history is loaded on demand
+            messages = messageModel.getBefore(room, Long.MAX_VALUE, MESSAGE_PAGE_SIZE);
+            if (messages.isEmpty()) {
+                return 0;
+            }
+            lastSeenId = messages.get(messages.size() - 1).getId();
+            cursor.set(lastSeenId);
+            received = messages.size();
+            listener.messagesReceived(messages);
+        }
+        do {
+            messages = messageModel.getSince(room, lastSeenId, MESSAGE_PAGE_SIZE);
+            if (!messages.isEmpty()) {
+                lastSeenId = messages.get(messages.size() - 1).getId();
+                cursor.set(lastSeenId);
+                received += messages.size();
+                listener.messagesReceived(messages);
+            }
+        } while (messages.size() == MESSAGE_PAGE_SIZE);
+        return received;
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -62,6 +226,22 @@ public class ChatController implements ChatControllerInterface {
     	return messageModel.getAll();
     }
     
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getMessagesSince(String room, long lastSeenId, int limit) throws ChatException {
+    	return messageModel.getSince(room, lastSeenId, limit);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getMessagesBefore(String room, long beforeId, int limit) throws ChatException {
+    	return messageModel.getBefore(room, beforeId, limit);
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -75,6 +255,11 @@ public class ChatController implements ChatControllerInterface {
      */
     @Override
     public void disconnect() throws ChatException {
+        // Deliver what is still queued while the user is connected
+        outbox.close().join();
+        if (presenceService != null) {
+            presenceService.unsubscribe(presenceListener);
+        }
     	userModel.disconnect();
     }
 }
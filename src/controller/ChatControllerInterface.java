@@ -5,20 +5,86 @@ import model.User;
 import utilities.ChatException;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for the Chat Controller.
  * Defines operations for managing the chat application logic.
+ * <p>
+ * The user is in one or more rooms, starting with {@link Message#DEFAULT_ROOM};
+ * only the messages of those rooms are polled. The operations that name no
+ * room work on the default room.
  */
 public interface ChatControllerInterface {
     
     /**
-     * Sends a message to the chat.
+     * Sends a message to the default room.
      *
      * @param messageContent The content of the message to send
      * @throws ChatException If there is an error sending the message
      */
-    void sendMessage(String messageContent) throws ChatException;
+    default void sendMessage(String messageContent) throws ChatException {
+        sendMessage(Message.DEFAULT_ROOM, messageContent);
+    }
+    
+    /**
+     * Sends a message to a room.
+     *
+     * @param room The room to send the message to
+     * @param messageContent The content of the message to send
+     * @throws ChatException If there is an error sending the message
+     */
+    void sendMessage(String room, String messageContent) throws ChatException;
+    
+    /**
+     * Queues a message to the default room, see {@link #queueMessage(String, String)}.
+     *
+     * @param messageContent The content of the message to send
+     * @return A future completed once the message has been sent, or exceptionally
+     *         with a {@link ChatException} if it could not be
+     */
+    default CompletableFuture<Void> queueMessage(String messageContent) {
+        return queueMessage(Message.DEFAULT_ROOM, messageContent);
+    }
+    
+    /**
+     * Queues a message to be sent with the next batch, without waiting for it.
+     * Messages are sent in the order they were queued.
+     *
+     * @param room The room to send the message to
+     * @param messageContent The content of the message to send
+     * @return A future completed once the message has been sent, or exceptionally
+     *         with a {@link ChatException} if it could not be
+     */
+    CompletableFuture<Void> queueMessage(String room, String messageContent);
+    
+    /**
+     * Enters a room: its messages are polled from now on, starting with its most recent ones.
+     * Does nothing if the user is already in the room.
+     *
+     * @param room The room to enter
+     */
+    void joinRoom(String room);
+    
+    /**
+     * Leaves a room: its messages are no longer polled.
+     *
+     * @param room The room to leave
+     */
+    void leaveRoom(String room);
+    
+    /**
+     * @return the rooms the user is in, in the order they were joined
+     */
+    List<String> getJoinedRooms();
+    
+    /**
+     * Retrieves the rooms that can be joined.
+     *
+     * @return The room names, sorted
+     * @throws ChatException If there is an error retrieving the rooms
+     */
+    List<String> getRooms() throws ChatException;
     
     /**
      * Retrieves messages from the chat system.
@@ -28,6 +94,61 @@ public interface ChatControllerInterface {
      */
     List<Message> getMessages() throws ChatException;
     
+    /**
+     * Fetches the messages sent to the joined rooms since the previous poll and
+     * publishes them to the controller's {@link ChatListener}.
+     *
+     * @return The number of messages received
+     * @throws ChatException If there is an error retrieving messages
+     */
+    int poll() throws ChatException;
+    
+    /**
+     * Retrieves the messages of the default room sent after the given message id, oldest first.
+     *
+     * @param lastSeenId The id of the last message already seen, or 0 to start from the beginning
+     * @param limit The maximum number of messages to return
+     * @return List of Message objects ordered by id
+     * @throws ChatException If there is an error retrieving messages
+     */
+    default List<Message> getMessagesSince(long lastSeenId, int limit) throws ChatException {
+        return getMessagesSince(Message.DEFAULT_ROOM, lastSeenId, limit);
+    }
+    
+    /**
+     * Retrieves the messages of a room sent after the given message id, oldest first.
+     *
+     * @param room The room to read
+     * @param lastSeenId The id of the last message already seen, or 0 to start from the beginning
+     * @param limit The maximum number of messages to return
+     * @return List of Message objects ordered by id
+     * @throws ChatException If there is an error retrieving messages
+     */
+    List<Message> getMessagesSince(String room, long lastSeenId, int limit) throws ChatException;
+    
+    /**
+     * Retrieves the most recent messages of the default room sent before the given message id, oldest first.
+     *
+     * @param beforeId The id of the oldest message already loaded
+     * @param limit The maximum number of messages to return
+     * @return List of Message objects ordered by id
+     * @throws ChatException If there is an error retrieving messages
+     */
+    default List<Message> getMessagesBefore(long beforeId, int limit) throws ChatException {
+        return getMessagesBefore(Message.DEFAULT_ROOM, beforeId, limit);
+    }
+    
+    /**
+     * Retrieves the most recent messages of a room sent before the given message id, oldest first.
+     *
+     * @param room The room to read
+     * @param beforeId The id of the oldest message already loaded
+     * @param limit The maximum number of messages to return
+     * @return List of Message objects ordered by id
+     * @throws ChatException If there is an error retrieving messages
+     */
+    List<Message> getMessagesBefore(String room, long beforeId, int limit) throws ChatException;
+    
     /**
      * Retrieves a list of currently connected users.
      *
@@ -0,0 +1,36 @@
+package controller;
+
+import model.Message;
+import model.User;
+
+import java.util.List;
+
+/**
+ * Receives the events published by a {@link ChatController}.
+ * Implemented by the Swing view, and by {@link HeadlessChatListener} for
+ * sessions without a user interface. Events are delivered on the thread that
+ * caused them, never specifically on the Swing event dispatch thread.
+ */
+public interface ChatListener {
+    
+    /**
+     * Called with new messages, oldest first.
+     *
+     * @param messages The messages received since the previous call
+     */
+    void messagesReceived(List<Message> messages);
+    
+    /**
+     * Called when the list of connected users changed.
+     *
+     * @param users Unmodifiable list of the connected users
+     */
+    void presenceChanged(List<User> users);
+    
+    /**
+     * Called when an operation failed and the user should be told.
+     *
+     * @param message The error message
+     */
+    void errorOccurred(String message);
+}
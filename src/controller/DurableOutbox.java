@@ -0,0 +1,369 @@
+package controller;
+
+import model.Message;
+import model.MessageInterface;
+import model.OutgoingMessage;
+import utilities.ChatException;
+import utilities.SegmentedJournal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbox that writes every message to a local {@link SegmentedJournal} before
+ * returning, then delivers the journal to the chat from a background thread.
+ * <p>
+ * While the database is unreachable the messages stay in the journal and
+ * delivery is retried with exponential backoff; messages left over when the
+ * application stops are delivered on the next start. Each message is sent with
+ * an idempotency key made of the outbox id and its sequence number in the
+ * journal, so a batch resent after a failure whose outcome was unknown is
+ * stored exactly once.
+ * <p>
+ * A journal record is {@code [byte 0xFF][int length][room][int length][message]},
+ * strings in UTF-8, so that any room and text round-trip. Records of earlier
+ * versions, plain UTF-8 text which never holds a 0xFF byte, are still read:
+ * the message text, preceded for rooms other than the default one by
+ * {@code \0room\0}. A batch only holds messages of one room.
+ */
+public class DurableOutbox implements Outbox {
+    public static final int DEFAULT_MAX_BATCH = 50;
+    private static final long SEGMENT_SIZE = 1 << 20; // bytes
+    private static final long MIN_RETRY_DELAY = 500; // milliseconds
+    private static final long MAX_RETRY_DELAY = 30000; // milliseconds
+    private static final String ID_FILE = "outbox.id";
+    /** First byte of a record, never found in the UTF-8 text of the records of earlier versions */
+    private static final byte RECORD_MARK = (byte) 0xFF;
+    /** Starts the room prefix of a record of an earlier version */
+    private static final char LEGACY_ROOM_MARK = '\0';
+
+    private final MessageInterface messageModel;
+    private final SegmentedJournal journal;
+    private final String outboxId;
+    private final int maxBatch;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /** Journaled messages not yet delivered, oldest first */
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    /** Whether a delivery is scheduled or running */
+    private boolean drainScheduled;
+    private boolean started;
+    private boolean closed;
+    /** Delay before the next retry, or 0 while deliveries succeed. Drainer thread only */
+    private long retryDelay;
+
+    /**
+     * Opens the outbox stored in the given directory, with the messages left over
+     * from a previous run. Call {@link #start()} once the user is connected.
+     *
+     * @param messageModel The model the messages are delivered with
+     * @param directory The directory of the journal, one per user
+     * @throws ChatException If the journal cannot be opened
+     */
+    public DurableOutbox(MessageInterface messageModel, Path directory) throws ChatException {
+        this(messageModel, directory, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * Opens the outbox stored in the given directory, with the messages left over
+     * from a previous run. Call {@link #start()} once the user is connected.
+     *
+     * @param messageModel The model the messages are delivered with
+     * @param directory The directory of the journal, one per user
+     * @param maxBatch The maximum number of messages delivered in one batch
+     * @throws ChatException If the journal cannot be opened
+     */
+    public DurableOutbox(MessageInterface messageModel, Path directory, int maxBatch) throws ChatException {
+        this(messageModel, directory, maxBatch, true);
+    }
+
+    /**
+     * Opens the outbox stored in the given directory, with the messages left over
+     * from a previous run. Call {@link #start()} once the user is connected.
+     *
+     * @param messageModel The model the messages are delivered with
+     * @param directory The directory of the journal, one per user
+     * @param maxBatch The maximum number of messages delivered in one batch
+     * @param sync Whether {@link #submit} forces each message to the storage device
+     *             before returning; without it, messages only survive a crash of
+     *             the application, not of the operating system
+     * @throws ChatException If the journal cannot be opened
+     */
+    public DurableOutbox(MessageInterface messageModel, Path directory, int maxBatch, boolean sync) throws ChatException {
+        this.messageModel = messageModel;
+        this.maxBatch = maxBatch;
+        try {
+            this.journal = new SegmentedJournal(directory, SEGMENT_SIZE, sync);
+            this.outboxId = readOrCreateId(directory.resolve(ID_FILE));
+        } catch (IOException e) {
+            throw new ChatException("Error opening outbox " + directory + ": " + e.getMessage(), e);
+        }
+        for (SegmentedJournal.Record record : journal.getRecovered()) {
+            pending.add(decode(record.getSeq(), record.getData()));
+        }
+        if (!pending.isEmpty()) {
+            System.err.println("Outbox " + directory + " holds " + pending.size() + " undelivered message(s)");
+        }
+
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "durable-outbox");
+            t.setDaemon(true);
+            return t;
+        });
+        // A pending retry must not hold up closing
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Starts delivering messages, beginning with those left over from a previous run.
+     */
+    public synchronized void start() {
+        started = true;
+        scheduleDrain(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The message is written to the journal, and unless the outbox was opened
+     * without sync forced to the storage device, before this method returns.
+     */
+    @Override
+    public synchronized CompletableFuture<Void> submit(String room, String message) {
+        if (closed) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new ChatException("Error sending message: outbox is closed"));
+            return failed;
+        }
+        long seq;
+        try {
+            seq = journal.append(encode(room, message));
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new ChatException("Error saving message to the outbox: " + e.getMessage(), e));
+            return failed;
+        }
+        Pending entry = new Pending(seq, room, message);
+        pending.add(entry);
+        scheduleDrain(0);
+        return entry.future;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Unless a retry is pending, one last delivery of the queued messages is
+     * attempted, one batch per room; whatever is left is delivered on the next start.
+     */
+    @Override
+    public CompletableFuture<Void> close() {
+        CompletableFuture<Void> closing = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                closing.complete(null);
+                return closing;
+            }
+            closed = true;
+        }
+        executor.execute(() -> {
+            if (started && retryDelay == 0) {
+                while (getPendingCount() > 0 && deliverBatch()) {
+                    // Until every room's batch is out or the database fails
+                }
+            }
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Error closing outbox: " + e.getMessage());
+            }
+            closing.complete(null);
+        });
+        executor.shutdown();
+        return closing;
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private void scheduleDrain(long delay) {
+        if (started && !closed && !drainScheduled && !pending.isEmpty()) {
+            drainScheduled = true;
+            executor.schedule(this::drain, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void drain() {
+        boolean delivered = deliverBatch();
+        if (delivered) {
+            retryDelay = 0;
+        } else {
+            retryDelay = retryDelay == 0 ? MIN_RETRY_DELAY : Math.min(MAX_RETRY_DELAY, retryDelay * 2);
+        }
+        synchronized (this) {
+            drainScheduled = false;
+            if (delivered) {
+                // Whatever was submitted during the round trip goes out in the next batch
+                scheduleDrain(0);
+            } else {
+                // +/- 20% so that clients recovering from the same outage do not retry in lockstep
+                long jitter = (long) (retryDelay * 0.2 * (ThreadLocalRandom.current().nextDouble() * 2 - 1));
+                scheduleDrain(retryDelay + jitter);
+            }
+        }
+    }
+
+    /**
+     * Sends the oldest pending messages of the same room as one batch.
+     *
+     * @return false if the batch must be retried
+     */
+    private boolean deliverBatch() {
+        List<Pending> batch = new ArrayList<>();
+        synchronized (this) {
+            for (Pending entry : pending) {
+                if (batch.size() == maxBatch || !entry.room.equals(pending.peek().room)) {
+                    break;
+                }
+                batch.add(entry);
+            }
+        }
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        List<OutgoingMessage> messages = new ArrayList<>(batch.size());
+        for (Pending entry : batch) {
+            messages.add(new OutgoingMessage(keyOf(entry), entry.message));
+        }
+        boolean[] sent;
+        try {
+            sent = messageModel.sendMessagesOnce(batch.get(0).room, messages);
+        } catch (ChatException | RuntimeException e) {
+            if (retryDelay == 0) {
+                System.err.println("Error delivering outbox, will retry: " + e.getMessage());
+            }
+            return false;
+        }
+
+        // Messages after a rejected one the driver stopped at stay pending, and are sent again under their keys
+        int handled = Math.min(sent.length, batch.size());
+        if (handled == 0) {
+            return false;
+        }
+        synchronized (this) {
+            for (int i = 0; i < handled; i++) {
+                pending.poll();
+                Pending entry = batch.get(i);
+                if (sent[i]) {
+                    entry.future.complete(null);
+                } else {
+                    // Transient errors fail the whole batch, so this is a constraint or data error:
+                    // retrying would only be rejected again, and would hold up every later message
+                    System.err.println("Message rejected by the database, dropping it: " + keyOf(entry));
+                    entry.future.completeExceptionally(new ChatException("Error sending message: rejected by the database"));
+                }
+            }
+        }
+        try {
+            journal.acknowledge(batch.get(handled - 1).seq);
+        } catch (IOException e) {
+            // The batch will be sent again on the next start, and ignored thanks to the keys
+            System.err.println("Error updating outbox checkpoint: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * @return the idempotency key of a message
+     */
+    private String keyOf(Pending entry) {
+        return outboxId + ":" + entry.seq;
+    }
+
+    private static byte[] encode(String room, String message) {
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(1 + 4 + roomBytes.length + 4 + messageBytes.length)
+                .put(RECORD_MARK)
+                .putInt(roomBytes.length).put(roomBytes)
+                .putInt(messageBytes.length).put(messageBytes)
+                .array();
+    }
+
+    private static Pending decode(long seq, byte[] data) {
+        if (data.length == 0 || data[0] != RECORD_MARK) {
+            return decodeLegacy(seq, new String(data, StandardCharsets.UTF_8));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, data.length - 1);
+        String room = readString(buffer);
+        String message = readString(buffer);
+        return new Pending(seq, room, message);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Pending decodeLegacy(long seq, String data) {
+        if (data.isEmpty() || data.charAt(0) != LEGACY_ROOM_MARK) {
+            return new Pending(seq, Message.DEFAULT_ROOM, data);
+        }
+        int end = data.indexOf(LEGACY_ROOM_MARK, 1);
+        if (end < 0) {
+            return new Pending(seq, Message.DEFAULT_ROOM, data);
+        }
+        return new Pending(seq, data.substring(1, end), data.substring(end + 1));
+    }
+
+    private static String readOrCreateId(Path file) throws IOException {
+        if (Files.exists(file)) {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        Files.write(file, id.getBytes(StandardCharsets.UTF_8));
+        return id;
+    }
+
+    /**
+     * A journaled message and the future of its caller.
+     */
+    private static class Pending {
+        private final long seq;
+        private final String room;
+        private final String message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(long seq, String room, String message) {
+            this.seq = seq;
+            this.room = room;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package controller;
+
+import model.Message;
+import model.User;
+
+import java.util.List;
+
+/**
+ * Chat listener for sessions without a user interface, such as gateways, bots
+ * and load tests. Ignores messages and presence changes and logs errors.
+ */
+public class HeadlessChatListener implements ChatListener {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void messagesReceived(List<Message> messages) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void presenceChanged(List<User> users) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void errorOccurred(String message) {
+        System.err.println(message);
+    }
+}
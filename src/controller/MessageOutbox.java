@@ -0,0 +1,206 @@
+package controller;
+
+import model.MessageInterface;
+import utilities.ChatException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces the messages sent by one sender into batches handed to
+ * {@link MessageInterface#sendMessages}, so that a burst costs one round trip
+ * and one commit instead of one per message.
+ * <p>
+ * A batch is flushed once it holds {@code maxBatch} messages or once its first
+ * message has waited {@code lingerMillis}. At most one batch per outbox is in
+ * flight at a time, so messages reach the database in the order they were submitted.
+ * A batch only holds messages of one room; a message to another room starts the next batch.
+ */
+public class MessageOutbox implements Outbox {
+    public static final int DEFAULT_MAX_BATCH = 50;
+    public static final long DEFAULT_LINGER = 20; // milliseconds
+
+    private final MessageInterface messageModel;
+    private final int maxBatch;
+    private final long lingerMillis;
+    private final ScheduledExecutorService executor;
+
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    /** The batch being sent, empty between flushes */
+    private List<Pending> inFlight = new ArrayList<>();
+    /** The flush waiting for the first pending message to linger, or null */
+    private ScheduledFuture<?> lingering;
+    /** Whether a flush is running, or about to run without lingering */
+    private boolean flushing;
+    private boolean closed;
+
+    /**
+     * Creates an outbox with the default batch size and linger time.
+     *
+     * @param messageModel The model the batches are sent with
+     * @param executor The executor running the flushes, owned by the caller
+     */
+    public MessageOutbox(MessageInterface messageModel, ScheduledExecutorService executor) {
+        this(messageModel, DEFAULT_MAX_BATCH, DEFAULT_LINGER, executor);
+    }
+
+    /**
+     * Creates an outbox.
+     *
+     * @param messageModel The model the batches are sent with
+     * @param maxBatch The maximum number of messages sent in one batch
+     * @param lingerMillis How long the first message of a batch waits for others to join it
+     * @param executor The executor running the flushes, owned by the caller
+     */
+    public MessageOutbox(MessageInterface messageModel, int maxBatch, long lingerMillis, ScheduledExecutorService executor) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatch);
+        }
+        this.messageModel = messageModel;
+        this.maxBatch = maxBatch;
+        this.lingerMillis = lingerMillis;
+        this.executor = executor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized CompletableFuture<Void> submit(String room, String message) {
+        Pending entry = new Pending(room, message);
+        if (closed) {
+            entry.future.completeExceptionally(new ChatException("Error sending message: outbox is closed"));
+            return entry.future;
+        }
+        pending.add(entry);
+        if (flushing) {
+            // The running flush sends what queued up behind it
+            return entry.future;
+        }
+        if (pending.size() >= maxBatch) {
+            // A full batch does not wait; if the lingering flush already started, it takes the batch
+            if (lingering == null || lingering.cancel(false)) {
+                lingering = null;
+                flushing = true;
+                executor.execute(this::flush);
+            }
+        } else if (lingering == null) {
+            lingering = executor.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+        return entry.future;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Messages are only kept in memory until sent.
+     */
+    @Override
+    public boolean isDurable() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Completes once the batch in flight and the pending messages are sent or failed.
+     */
+    @Override
+    public CompletableFuture<Void> close() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Pending entry : inFlight) {
+                futures.add(entry.future);
+            }
+            for (Pending entry : pending) {
+                futures.add(entry.future);
+            }
+        }
+        // Failed sends were already reported to whoever submitted them
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, error) -> null);
+    }
+
+    private void flush() {
+        List<Pending> batch = new ArrayList<>();
+        String room;
+        synchronized (this) {
+            lingering = null;
+            flushing = true;
+            // Only scheduled while messages are pending
+            room = pending.peek().room;
+            while (batch.size() < maxBatch && !pending.isEmpty() && pending.peek().room.equals(room)) {
+                batch.add(pending.poll());
+            }
+            inFlight = batch;
+        }
+
+        List<String> messages = new ArrayList<>(batch.size());
+        for (Pending entry : batch) {
+            messages.add(entry.message);
+        }
+        try {
+            boolean[] sent = messageModel.sendMessages(room, messages);
+            int handled = Math.min(sent.length, batch.size());
+            for (int i = 0; i < handled; i++) {
+                if (sent[i]) {
+                    batch.get(i).future.complete(null);
+                } else {
+                    batch.get(i).future.completeExceptionally(new ChatException("Error sending message: rejected by the database"));
+                }
+            }
+            if (handled < batch.size()) {
+                // Not attempted after a rejected message: back to the head of the queue, in order
+                synchronized (this) {
+                    for (int i = batch.size() - 1; i >= handled; i--) {
+                        pending.addFirst(batch.get(i));
+                    }
+                }
+            }
+        } catch (ChatException e) {
+            for (Pending entry : batch) {
+                entry.future.completeExceptionally(e);
+            }
+        } catch (RuntimeException e) {
+            for (Pending entry : batch) {
+                entry.future.completeExceptionally(new ChatException("Error sending message: " + e.getMessage(), e));
+            }
+        }
+
+        synchronized (this) {
+            inFlight = new ArrayList<>();
+            if (pending.isEmpty()) {
+                flushing = false;
+            } else {
+                // Whatever queued up during the round trip has already waited long enough
+                executor.execute(this::flush);
+            }
+        }
+    }
+
+    /**
+     * A queued message and the future of its caller.
+     */
+    private static class Pending {
+        private final String room;
+        private final String message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Pending(String room, String message) {
+            this.room = room;
+            this.message = message;
+        }
+    }
+}
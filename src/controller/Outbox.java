@@ -0,0 +1,54 @@
+package controller;
+
+import java.util.concurrent.CompletableFuture;
+
+import model.Message;
+
+/**
+ * Queue of the messages of one sender waiting to be sent to the chat.
+ * Messages are delivered in the order they were submitted.
+ */
+public interface Outbox {
+
+    /**
+     * Queues a message for sending to the default room.
+     *
+     * @param message The content of the message
+     * @return A future completed once the message is sent, or exceptionally with a
+     *         {@link utilities.ChatException} if it will never be
+     */
+    default CompletableFuture<Void> submit(String message) {
+        return submit(Message.DEFAULT_ROOM, message);
+    }
+
+    /**
+     * Queues a message for sending to a room.
+     *
+     * @param room The room to send the message to
+     * @param message The content of the message
+     * @return A future completed once the message is sent, or exceptionally with a
+     *         {@link utilities.ChatException} if it will never be
+     */
+    CompletableFuture<Void> submit(String room, String message);
+
+    /**
+     * @return the number of messages waiting to be sent
+     */
+    int getPendingCount();
+
+    /**
+     * Whether submitted messages survive a database outage or a restart of the
+     * application. Callers of a durable outbox need not wait for delivery.
+     *
+     * @return whether the outbox is durable
+     */
+    boolean isDurable();
+
+    /**
+     * Stops accepting messages.
+     *
+     * @return A future completed once every queued message has been sent or, for
+     *         a durable outbox, safely kept for the next start
+     */
+    CompletableFuture<Void> close();
+}
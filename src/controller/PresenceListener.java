@@ -0,0 +1,20 @@
+package controller;
+
+import model.User;
+
+import java.util.List;
+
+/**
+ * Receives the connected users from a {@link PresenceService} whenever they change.
+ */
+public interface PresenceListener {
+    
+    /**
+     * Called with the new list of connected users.
+     * Invoked on the presence refresh thread, never on the Swing event dispatch thread.
+     *
+     * @param users Unmodifiable list of the connected users
+     * @param version Version of the list, incremented on every change
+     */
+    void presenceChanged(List<User> users, long version);
+}
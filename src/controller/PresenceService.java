@@ -0,0 +1,185 @@
+package controller;
+
+import model.User;
+import model.UserInterface;
+import utilities.AdaptiveRefreshScheduler;
+import utilities.ChatException;
+import utilities.Deadline;
+import utilities.RefreshScheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single owner of the connected users list.
+ * Polls the user model on one background thread, keeps the last snapshot with a
+ * version number, and notifies its listeners only when the membership changed.
+ * <p>
+ * Connected users hold a lease that their controller renews with heartbeats.
+ * The backend disconnects the users whose lease expired, so that clients that
+ * crashed without disconnecting leave the list; the service only reads it.
+ */
+public class PresenceService {
+    private static final int MIN_INTERVAL = 1000; // milliseconds
+    private static final int INITIAL_INTERVAL = 3000; // milliseconds
+    private static final int MAX_INTERVAL = 30000; // milliseconds
+    public static final long DEFAULT_LEASE = 90000; // milliseconds
+    private static final long REFRESH_TIMEOUT = 10000; // milliseconds
+
+    private final UserInterface userModel;
+    private final RefreshScheduler scheduler;
+    private final long lease;
+    private final List<PresenceListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor;
+
+    private volatile List<User> snapshot = Collections.emptyList();
+    private volatile long version;
+
+    /**
+     * Creates a presence service with an adaptive refresh interval.
+     * 
+     * @param userModel The model the connected users are read from
+     */
+    public PresenceService(UserInterface userModel) {
+        this(userModel, DEFAULT_LEASE);
+    }
+
+    /**
+     * Creates a presence service with an adaptive refresh interval.
+     * 
+     * @param userModel The model the connected users are read from
+     * @param lease The presence lease of the backend, which the heartbeats are paced by, in milliseconds
+     */
+    public PresenceService(UserInterface userModel, long lease) {
+        this(userModel, new AdaptiveRefreshScheduler(MIN_INTERVAL, INITIAL_INTERVAL, MAX_INTERVAL), lease);
+    }
+
+    /**
+     * Creates a presence service.
+     * 
+     * @param userModel The model the connected users are read from
+     * @param scheduler Decides the delay between two refreshes
+     */
+    public PresenceService(UserInterface userModel, RefreshScheduler scheduler) {
+        this(userModel, scheduler, DEFAULT_LEASE);
+    }
+
+    /**
+     * Creates a presence service.
+     * 
+     * @param userModel The model the connected users are read from
+     * @param scheduler Decides the delay between two refreshes
+     * @param lease The presence lease of the backend, which the heartbeats are paced by, in milliseconds
+     */
+    public PresenceService(UserInterface userModel, RefreshScheduler scheduler, long lease) {
+        if (lease <= 0) {
+            throw new IllegalArgumentException("Presence lease must be positive: " + lease);
+        }
+        this.userModel = userModel;
+        this.scheduler = scheduler;
+        this.lease = lease;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts refreshing the connected users in the background.
+     */
+    public void start() {
+        executor.execute(this::refresh);
+    }
+
+    /**
+     * Stops refreshing.
+     */
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Registers a listener. If a snapshot is already available, it is delivered right away.
+     * 
+     * @param listener The listener to notify of changes
+     */
+    public void subscribe(PresenceListener listener) {
+        listeners.add(listener);
+        long current = version;
+        if (current > 0) {
+            executor.execute(() -> {
+                // Skip if the regular refresh delivered a newer version in the meantime
+                if (version == current) {
+                    listener.presenceChanged(snapshot, current);
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes a listener.
+     * 
+     * @param listener The listener to remove
+     */
+    public void unsubscribe(PresenceListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the last known list of connected users
+     */
+    public List<User> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the version of the last snapshot, 0 before the first refresh
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the presence lease of the backend, which the heartbeats are paced by, in milliseconds
+     */
+    public long getLease() {
+        return lease;
+    }
+
+    /**
+     * @return the scheduler driving the refresh interval
+     */
+    public RefreshScheduler getScheduler() {
+        return scheduler;
+    }
+
+    private void refresh() {
+        try {
+            List<User> users = Deadline.after(REFRESH_TIMEOUT).run(userModel::getAll);
+            boolean changed = version == 0 || !users.equals(snapshot);
+            scheduler.onResult(changed ? 1 : 0);
+            if (changed) {
+                snapshot = Collections.unmodifiableList(new ArrayList<>(users));
+                long current = ++version;
+                for (PresenceListener listener : listeners) {
+                    listener.presenceChanged(snapshot, current);
+                }
+            }
+        } catch (ChatException e) {
+            scheduler.onError(e);
+            System.err.println("Error refreshing user list: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error notifying presence listeners: " + e.getMessage());
+        }
+
+        if (!executor.isShutdown()) {
+            executor.schedule(this::refresh, scheduler.nextDelay(), TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package gateway;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size ring that one writer publishes to and any number of readers
+ * consume, each at its own pace, without locks and without copying.
+ * <p>
+ * Every element gets the next sequence number. A reader keeps its own
+ * {@link Cursor}; the writer never waits for readers, so a reader that falls
+ * more than the capacity behind finds its next element overwritten and is told
+ * it lagged, rather than slowing everyone down.
+ *
+ * @param <T> The type of the elements
+ */
+public class BroadcastRing<T> {
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private final int mask;
+    /** Sequence of the last published element, -1 before the first */
+    private volatile long published = -1;
+
+    /**
+     * @param capacity The number of elements kept, a power of two
+     */
+    public BroadcastRing(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Publishes an element, overwriting the oldest one once the ring is full.
+     * Must only be called by one thread at a time.
+     *
+     * @param value The element
+     */
+    public void publish(T value) {
+        long sequence = published + 1;
+        slots.set((int) sequence & mask, new Slot<>(sequence, value));
+        // Readers check the sequence before reading the slot, so it is advanced last
+        published = sequence;
+    }
+
+    /**
+     * @return the sequence of the last published element, -1 before the first
+     */
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * @return the sequence of the oldest element still in the ring
+     */
+    public long getOldest() {
+        return Math.max(0, published - mask);
+    }
+
+    /**
+     * @return the number of elements kept
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Creates a reader starting at the given sequence.
+     *
+     * @param next The sequence of the first element to read, usually between
+     *             {@link #getOldest()} and {@link #getPublished()} + 1
+     * @return The cursor
+     */
+    public Cursor cursor(long next) {
+        return new Cursor(next);
+    }
+
+    /**
+     * Position of one reader in the ring. Not thread-safe: one reader thread each.
+     */
+    public class Cursor {
+        private long next;
+        private boolean lagged;
+
+        private Cursor(long next) {
+            this.next = next;
+        }
+
+        /**
+         * @return the next element, or null if none was published yet or the reader lagged
+         */
+        public T poll() {
+            if (lagged || next > published) {
+                return null;
+            }
+            Slot<T> slot = slots.get((int) next & mask);
+            if (slot == null || slot.sequence != next) {
+                // Overwritten by an element published after it
+                lagged = true;
+                return null;
+            }
+            next++;
+            return slot.value;
+        }
+
+        /**
+         * @return the next element without moving past it, or null if none was published yet or the reader lagged
+         */
+        public T peek() {
+            T value = poll();
+            if (value != null) {
+                next--;
+            }
+            return value;
+        }
+
+        /**
+         * @return whether elements were overwritten before this reader got them
+         */
+        public boolean isLagged() {
+            return lagged;
+        }
+
+        /**
+         * @return whether an element is ready to be polled
+         */
+        public boolean hasNext() {
+            return !lagged && next <= published;
+        }
+    }
+
+    /**
+     * An element with its sequence, replaced as a whole so that a reader never
+     * sees the sequence of one element with the value of another.
+     */
+    private static class Slot<T> {
+        private final long sequence;
+        private final T value;
+
+        Slot(long sequence, T value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+}
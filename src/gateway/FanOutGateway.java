@@ -0,0 +1,409 @@
+package gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import controller.PresenceService;
+import model.Backend;
+import model.Message;
+import model.MessageInterface;
+import utilities.ChatException;
+import utilities.ConfigRegistry;
+import utilities.Counter;
+import utilities.MetricsRegistry;
+
+/**
+ * Server process hosting the chat sessions of many users, so that the database
+ * sees one reader per gateway instead of one poller per user.
+ * <p>
+ * A single poller thread reads the new messages of every room that has at least
+ * one session, once, encodes each of them once and publishes it to the room's
+ * {@link BroadcastRing}. Worker threads, each owning a share of the client
+ * connections, copy the frames from the rings to the sockets of the sessions
+ * subscribed to the room; a session that falls too far behind is disconnected
+ * and catches up when its client reconnects. Clients speak the binary
+ * {@link GatewayProtocol}, see {@link GatewayClient}.
+ * <p>
+ * Connecting, disconnecting, heartbeats and sends still go to the database
+ * per user, on a small pool of database threads, through a model pair created
+ * for each session.
+ */
+public class FanOutGateway {
+    public static final int DEFAULT_PORT = 5556;
+    private static final long DEFAULT_POLL_INTERVAL = 500; // milliseconds
+    private static final int DEFAULT_WORKERS = 2;
+    private static final int DB_THREADS = 4;
+    private static final int OUTBOX_THREADS = 2;
+    private static final int PAGE_SIZE = 100;
+    private static final int RING_CAPACITY = 1024;
+    private static final int HEARTBEATS_PER_LEASE = 3;
+    /** Number of recent messages replayed to a session joining a room with no cursor */
+    static final int JOIN_REPLAY = 100;
+
+    /**
+     * Creates the model pair of a new session.
+     */
+    @FunctionalInterface
+    public interface BackendFactory {
+        /**
+         * @return new models, not shared with any other session
+         * @throws ChatException If the models cannot be created
+         */
+        Backend create() throws ChatException;
+    }
+
+    private final BackendFactory backends;
+    private final MessageInterface source;
+    private final int port;
+    private final long pollInterval;
+    private final int workerCount;
+    private final long lease;
+
+    /** Rooms with at least one session, by name. Guarded by itself */
+    private final Map<String, RoomChannel> channels = new HashMap<>();
+    private int nextChannelId;
+    private final Set<GatewaySession> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean pollRequested = new AtomicBoolean();
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    private final Counter published;
+    private final Counter delivered;
+    private final Counter lagged;
+
+    private GatewayWorker[] workers;
+    private Thread[] workerThreads;
+    private ServerSocketChannel server;
+    private ScheduledExecutorService poller;
+    private ExecutorService dbExecutor;
+    private ScheduledExecutorService outboxExecutor;
+    private volatile boolean running;
+
+    /**
+     * Creates a gateway with the default poll interval, workers and presence lease.
+     *
+     * @param backends Creates the models of each session
+     * @param source The model the new messages are read from
+     * @param port The port to listen on, 0 for any free port
+     */
+    public FanOutGateway(BackendFactory backends, MessageInterface source, int port) {
+        this(backends, source, port, DEFAULT_POLL_INTERVAL, DEFAULT_WORKERS, PresenceService.DEFAULT_LEASE);
+    }
+
+    /**
+     * Creates a gateway.
+     *
+     * @param backends Creates the models of each session
+     * @param source The model the new messages are read from
+     * @param port The port to listen on, 0 for any free port
+     * @param pollInterval The interval between two polls of the source, in milliseconds
+     * @param workers The number of threads serving the client connections
+     * @param lease The presence lease of the users, renewed by the gateway, in milliseconds
+     */
+    public FanOutGateway(BackendFactory backends, MessageInterface source, int port, long pollInterval, int workers, long lease) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Invalid number of workers: " + workers);
+        }
+        this.backends = backends;
+        this.source = source;
+        this.port = port;
+        this.pollInterval = pollInterval;
+        this.workerCount = workers;
+        this.lease = lease;
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        this.published = metrics.counter("gateway.messages.published");
+        this.delivered = metrics.counter("gateway.frames.delivered");
+        this.lagged = metrics.counter("gateway.sessions.lagged");
+    }
+
+    /**
+     * Starts listening, polling and renewing the presence of connected users.
+     *
+     * @throws IOException If the server socket cannot be opened
+     */
+    public synchronized void start() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        running = true;
+
+        workers = new GatewayWorker[workerCount];
+        workerThreads = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new GatewayWorker(this);
+            workerThreads[i] = new Thread(workers[i], "gateway-worker-" + (i + 1));
+            workerThreads[i].start();
+        }
+        Thread acceptor = new Thread(this::acceptLoop, "gateway-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        dbExecutor = Executors.newFixedThreadPool(DB_THREADS, daemon("gateway-db"));
+        outboxExecutor = Executors.newScheduledThreadPool(OUTBOX_THREADS, daemon("gateway-outbox"));
+        poller = Executors.newSingleThreadScheduledExecutor(daemon("gateway-poller"));
+        poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        long heartbeatInterval = lease / HEARTBEATS_PER_LEASE;
+        poller.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes every session, disconnecting its user once its queued messages are sent.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            System.err.println("Error closing gateway: " + e.getMessage());
+        }
+        poller.shutdownNow();
+        for (GatewayWorker worker : workers) {
+            worker.stop();
+        }
+        try {
+            for (Thread thread : workerThreads) {
+                thread.join();
+            }
+            // The workers queued the disconnects, which need the outbox threads to flush
+            dbExecutor.shutdown();
+            dbExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        outboxExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the port the gateway listens on, once started
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of open sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (running) {
+                SocketChannel channel = server.accept();
+                workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)].adopt(channel);
+            }
+        } catch (AsynchronousCloseException e) {
+            // Stopped
+        } catch (IOException e) {
+            System.err.println("Gateway stopped accepting clients: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fetches the messages sent to every active room since the last poll and
+     * publishes them to the rooms' rings.
+     */
+    private void poll() {
+        pollRequested.set(false);
+        List<RoomChannel> active;
+        synchronized (channels) {
+            active = new ArrayList<>(channels.values());
+        }
+        long count = 0;
+        for (RoomChannel channel : active) {
+            if (!channel.isLoaded()) {
+                // The joining session still owns it
+                continue;
+            }
+            try {
+                List<Message> page;
+                do {
+                    page = source.getSince(channel.getRoom(), channel.getLastId(), PAGE_SIZE);
+                    for (Message msg : page) {
+                        channel.publish(msg.getId(), GatewayProtocol.encodeMessage(channel.getId(), msg));
+                    }
+                    count += page.size();
+                } while (page.size() == PAGE_SIZE);
+            } catch (ChatException e) {
+                System.err.println("Error polling messages of room " + channel.getRoom() + ": " + e.getMessage());
+            }
+        }
+        if (count > 0) {
+            published.add(count);
+            for (GatewayWorker worker : workers) {
+                worker.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Polls as soon as possible, typically because a session just sent a message.
+     * Requests made before the poll starts are served by the same poll.
+     */
+    void requestPoll() {
+        if (pollRequested.compareAndSet(false, true)) {
+            try {
+                poller.execute(this::poll);
+            } catch (RejectedExecutionException e) {
+                // Stopping
+            }
+        }
+    }
+
+    private void heartbeat() {
+        for (GatewaySession session : sessions) {
+            executeDb(session::heartbeat);
+        }
+    }
+
+    /**
+     * Returns the channel of a room, loading its recent messages if no session
+     * had joined it, and counts one more session in it. The query runs outside
+     * the channel map: only the other joins of the same room wait for it, and
+     * the poller skips the room until it is loaded.
+     *
+     * @param room The room
+     * @return The channel
+     * @throws ChatException If the recent messages cannot be read
+     */
+    RoomChannel acquireChannel(String room) throws ChatException {
+        RoomChannel channel;
+        boolean loading = false;
+        synchronized (channels) {
+            channel = channels.get(room);
+            if (channel == null) {
+                channel = new RoomChannel(++nextChannelId, room, RING_CAPACITY);
+                channels.put(room, channel);
+                loading = true;
+            }
+            channel.addSubscriber();
+        }
+        if (loading) {
+            load(channel);
+        } else {
+            awaitLoaded(channel);
+        }
+        return channel;
+    }
+
+    private void load(RoomChannel channel) throws ChatException {
+        try {
+            for (Message msg : source.getBefore(channel.getRoom(), Long.MAX_VALUE, JOIN_REPLAY)) {
+                channel.publish(msg.getId(), GatewayProtocol.encodeMessage(channel.getId(), msg));
+            }
+        } catch (ChatException | RuntimeException e) {
+            // The next join of the room tries again with a new channel
+            synchronized (channels) {
+                channels.remove(channel.getRoom(), channel);
+            }
+            channel.getLoaded().completeExceptionally(e);
+            throw e;
+        }
+        channel.getLoaded().complete(null);
+    }
+
+    private void awaitLoaded(RoomChannel channel) throws ChatException {
+        try {
+            channel.getLoaded().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseChannel(channel);
+            throw new ChatException("Interrupted while loading room " + channel.getRoom(), e);
+        } catch (ExecutionException e) {
+            // The channel was dropped by the session that loaded it
+            throw new ChatException("Error loading room " + channel.getRoom() + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Counts one less session in a channel, which stops being polled after the last one.
+     *
+     * @param channel The channel
+     */
+    void releaseChannel(RoomChannel channel) {
+        synchronized (channels) {
+            if (channel.removeSubscriber() == 0) {
+                channels.remove(channel.getRoom(), channel);
+            }
+        }
+    }
+
+    Backend createBackend() throws ChatException {
+        return backends.create();
+    }
+
+    void executeDb(Runnable task) {
+        try {
+            dbExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            System.err.println("Gateway stopped, dropping a database task");
+        }
+    }
+
+    ScheduledExecutorService getOutboxExecutor() {
+        return outboxExecutor;
+    }
+
+    void sessionOpened(GatewaySession session) {
+        sessions.add(session);
+    }
+
+    void sessionClosed(GatewaySession session) {
+        sessions.remove(session);
+    }
+
+    void sessionLagged() {
+        lagged.increment();
+    }
+
+    void framesDelivered(int count) {
+        delivered.add(count);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Runs a gateway in front of the backend configured in database-config.xml.
+     *
+     * @param args Optional port to listen on
+     * @throws Exception If the gateway cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        ConfigRegistry registry = ConfigRegistry.getDefault();
+        String configuredLease = registry.getConfig().getPresenceLease();
+        long lease = configuredLease != null ? Long.parseLong(configuredLease) * 1000 : PresenceService.DEFAULT_LEASE;
+        FanOutGateway gateway = new FanOutGateway(() -> Backend.fromConfig(registry),
+                Backend.fromConfig(registry).getMessageModel(), port, DEFAULT_POLL_INTERVAL, DEFAULT_WORKERS, lease);
+        gateway.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(gateway::stop, "gateway-shutdown"));
+        System.out.println("Fan-out gateway listening on port " + gateway.getPort());
+    }
+}
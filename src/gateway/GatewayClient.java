@@ -0,0 +1,241 @@
+package gateway;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import controller.ChatListener;
+import model.Message;
+import utilities.ChatException;
+
+/**
+ * Thin client of a {@link FanOutGateway}: one socket, no database access.
+ * <p>
+ * Messages of the joined rooms are pushed by the gateway and handed to the
+ * {@link ChatListener} by a reader thread, in batches of the frames that
+ * arrived together. Errors reported by the gateway, and the loss of the
+ * connection, are passed to {@link ChatListener#errorOccurred(String)}.
+ */
+public class GatewayClient implements Closeable {
+    private static final int CONNECT_TIMEOUT = 5000; // milliseconds
+    private static final long REPLY_TIMEOUT = 10000; // milliseconds
+    private static final int MAX_BATCH = 100;
+
+    private final InetSocketAddress address;
+    private final ChatListener listener;
+    private final Map<Integer, String> roomsByChannel = new ConcurrentHashMap<>();
+    private final Map<String, Integer> channelsByRoom = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Long>> pendingJoins = new ConcurrentHashMap<>();
+
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private volatile boolean closed;
+
+    /**
+     * Creates a client. Call {@link #connect(String)} to open the session.
+     *
+     * @param host The host of the gateway
+     * @param port The port of the gateway
+     * @param listener The listener receiving the messages and errors
+     */
+    public GatewayClient(String host, int port, ChatListener listener) {
+        this.address = new InetSocketAddress(host, port);
+        this.listener = listener;
+    }
+
+    /**
+     * Opens the session and connects the user.
+     *
+     * @param nick The nickname of the user
+     * @throws ChatException If the gateway cannot be reached or refuses the user
+     */
+    public void connect(String nick) throws ChatException {
+        try {
+            socket = new Socket();
+            socket.connect(address, CONNECT_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            write(GatewayProtocol.encodeHello(nick));
+
+            socket.setSoTimeout((int) REPLY_TIMEOUT);
+            in.readInt();
+            byte type = in.readByte();
+            if (type == GatewayProtocol.TYPE_ERROR) {
+                throw new ChatException(in.readUTF());
+            }
+            if (type != GatewayProtocol.TYPE_WELCOME) {
+                throw new ChatException("Unexpected gateway frame: " + type);
+            }
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            close();
+            throw new ChatException("Error connecting to gateway " + address + ": " + e.getMessage(), e);
+        } catch (ChatException e) {
+            close();
+            throw e;
+        }
+        Thread reader = new Thread(this::readLoop, "gateway-client-" + nick);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Joins a room and waits for the gateway to confirm it.
+     *
+     * @param room The room
+     * @param lastSeenId The id of the last message of the room already seen, or 0 for the recent ones
+     * @return The id after which every message of the room will be delivered;
+     *         messages between {@code lastSeenId} and it are no longer kept by the gateway
+     * @throws ChatException If the room cannot be joined
+     */
+    public long join(String room, long lastSeenId) throws ChatException {
+        CompletableFuture<Long> joined = pendingJoins.computeIfAbsent(room, r -> new CompletableFuture<>());
+        write(GatewayProtocol.encodeJoin(room, lastSeenId));
+        try {
+            return joined.get(REPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new ChatException(e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new ChatException("Timed out joining room " + room, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChatException("Interrupted while joining room " + room, e);
+        } finally {
+            pendingJoins.remove(room, joined);
+        }
+    }
+
+    /**
+     * Leaves a room.
+     *
+     * @param room The room
+     * @throws ChatException If the request cannot be sent
+     */
+    public void leave(String room) throws ChatException {
+        Integer channel = channelsByRoom.remove(room);
+        if (channel != null) {
+            roomsByChannel.remove(channel);
+            write(GatewayProtocol.encodeLeave(channel));
+        }
+    }
+
+    /**
+     * Sends a message to a joined room. A failure to store it is reported later
+     * through the listener.
+     *
+     * @param room The room
+     * @param message The content of the message
+     * @throws ChatException If the room was not joined or the request cannot be sent
+     */
+    public void send(String room, String message) throws ChatException {
+        Integer channel = channelsByRoom.get(room);
+        if (channel == null) {
+            throw new ChatException("Room not joined: " + room);
+        }
+        write(GatewayProtocol.encodeSend(channel, message));
+    }
+
+    /**
+     * Closes the session; the gateway disconnects the user.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing gateway connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void write(ByteBuffer frame) throws ChatException {
+        try {
+            synchronized (this) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new ChatException("Error writing to gateway: " + e.getMessage(), e);
+        }
+    }
+
+    private void readLoop() {
+        List<Message> batch = new ArrayList<>();
+        try {
+            while (true) {
+                in.readInt();
+                byte type = in.readByte();
+                switch (type) {
+                    case GatewayProtocol.TYPE_MESSAGE: {
+                        String room = roomsByChannel.get(in.readInt());
+                        Message msg = GatewayProtocol.readMessage(in, room);
+                        if (room != null) {
+                            batch.add(msg);
+                        }
+                        break;
+                    }
+                    case GatewayProtocol.TYPE_JOINED: {
+                        int channel = in.readInt();
+                        long coveredFrom = in.readLong();
+                        String room = in.readUTF();
+                        roomsByChannel.put(channel, room);
+                        channelsByRoom.put(room, channel);
+                        CompletableFuture<Long> joined = pendingJoins.get(room);
+                        if (joined != null) {
+                            joined.complete(coveredFrom);
+                        }
+                        break;
+                    }
+                    case GatewayProtocol.TYPE_ERROR:
+                        error(in.readUTF());
+                        break;
+                    default:
+                        throw new IOException("Unexpected gateway frame: " + type);
+                }
+                // Deliver what arrived together, but not more than a page at once
+                if (!batch.isEmpty() && (in.available() == 0 || batch.size() >= MAX_BATCH)) {
+                    listener.messagesReceived(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                error("Connection to the gateway lost: " + e.getMessage());
+            }
+        } finally {
+            close();
+            for (CompletableFuture<Long> joined : pendingJoins.values()) {
+                joined.completeExceptionally(new ChatException("Connection to the gateway lost"));
+            }
+        }
+    }
+
+    private void error(String description) {
+        for (Map.Entry<String, CompletableFuture<Long>> entry : pendingJoins.entrySet()) {
+            // Join failures name the room, see GatewaySession
+            if (description.startsWith("Error joining room " + entry.getKey() + ":")) {
+                entry.getValue().completeExceptionally(new ChatException(description));
+                return;
+            }
+        }
+        listener.errorOccurred(description);
+    }
+}
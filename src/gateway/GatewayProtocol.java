@@ -0,0 +1,131 @@
+package gateway;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+
+import model.Message;
+
+/**
+ * Wire format spoken between the {@link FanOutGateway} and its {@link GatewayClient}s.
+ * <p>
+ * Both directions are a sequence of frames {@code [int length][byte type][payload]},
+ * where {@code length} counts the type byte and the payload. Strings are
+ * modified UTF-8 as written by {@link DataOutputStream#writeUTF}. A client
+ * starts with a hello, then joins rooms; the gateway answers each join with a
+ * channel number that stands for the room in every later frame, so message
+ * frames stay small and are encoded once for all the sessions of the room.
+ */
+final class GatewayProtocol {
+    /** Largest frame accepted from a client, length prefix excluded */
+    static final int MAX_CLIENT_FRAME = 64 * 1024;
+
+    /** Client, payload: UTF nick */
+    static final byte TYPE_HELLO = 1;
+    /** Client, payload: UTF room, long id of the last message seen or 0 */
+    static final byte TYPE_JOIN = 2;
+    /** Client, payload: int channel */
+    static final byte TYPE_LEAVE = 3;
+    /** Client, payload: int channel, UTF message */
+    static final byte TYPE_SEND = 4;
+
+    /** Gateway, no payload: the user is connected */
+    static final byte TYPE_WELCOME = 1;
+    /** Gateway, payload: int channel, long id after which every message will be delivered, UTF room */
+    static final byte TYPE_JOINED = 2;
+    /** Gateway, payload: int channel, long id, long timestamp millis, UTF nick, UTF message */
+    static final byte TYPE_MESSAGE = 3;
+    /** Gateway, payload: UTF description */
+    static final byte TYPE_ERROR = 4;
+
+    private GatewayProtocol() {
+    }
+
+    static ByteBuffer encodeHello(String nick) {
+        return encode(TYPE_HELLO, out -> out.writeUTF(nick));
+    }
+
+    static ByteBuffer encodeJoin(String room, long lastSeenId) {
+        return encode(TYPE_JOIN, out -> {
+            out.writeUTF(room);
+            out.writeLong(lastSeenId);
+        });
+    }
+
+    static ByteBuffer encodeLeave(int channel) {
+        return encode(TYPE_LEAVE, out -> out.writeInt(channel));
+    }
+
+    static ByteBuffer encodeSend(int channel, String message) {
+        return encode(TYPE_SEND, out -> {
+            out.writeInt(channel);
+            out.writeUTF(message);
+        });
+    }
+
+    static ByteBuffer encodeWelcome() {
+        return encode(TYPE_WELCOME, out -> { });
+    }
+
+    static ByteBuffer encodeJoined(int channel, long coveredFrom, String room) {
+        return encode(TYPE_JOINED, out -> {
+            out.writeInt(channel);
+            out.writeLong(coveredFrom);
+            out.writeUTF(room);
+        });
+    }
+
+    static ByteBuffer encodeMessage(int channel, Message msg) {
+        return encode(TYPE_MESSAGE, out -> {
+            out.writeInt(channel);
+            out.writeLong(msg.getId());
+            out.writeLong(msg.getTimestamp() != null ? msg.getTimestamp().getTime() : -1);
+            out.writeUTF(msg.getNick() != null ? msg.getNick() : "");
+            out.writeUTF(msg.getMessage() != null ? msg.getMessage() : "");
+        });
+    }
+
+    static ByteBuffer encodeError(String description) {
+        return encode(TYPE_ERROR, out -> out.writeUTF(description != null ? description : ""));
+    }
+
+    /**
+     * Decodes the payload of a message frame, after its channel.
+     *
+     * @param in The stream positioned right after the channel
+     * @param room The room of the channel
+     * @return The decoded message
+     * @throws IOException If the stream ends or cannot be read
+     */
+    static Message readMessage(DataInputStream in, String room) throws IOException {
+        long id = in.readLong();
+        long millis = in.readLong();
+        String nick = in.readUTF();
+        String message = in.readUTF();
+        return new Message(id, room, nick, message, millis >= 0 ? new Timestamp(millis) : null);
+    }
+
+    private static ByteBuffer encode(byte type, Payload payload) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // length, patched below
+            out.writeByte(type);
+            payload.write(out);
+            ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+            frame.putInt(0, frame.remaining() - 4);
+            return frame;
+        } catch (IOException e) {
+            // Writing to memory never fails, only a string over 64 KiB does
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
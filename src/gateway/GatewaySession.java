@@ -0,0 +1,374 @@
+package gateway;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import controller.MessageOutbox;
+import controller.Outbox;
+import model.Backend;
+import utilities.ChatException;
+
+/**
+ * The session of one user connected to the gateway: what a ChatController
+ * does for a desktop client, without polling the database on its own.
+ * <p>
+ * The user is connected, kept alive with heartbeats and disconnected through
+ * a model pair of its own, and its messages are sent through its own outbox.
+ * Everything else runs on the worker thread owning the connection, apart from
+ * database calls, which go to the gateway's database threads.
+ */
+class GatewaySession {
+    /** Sessions with more than this many unsent bytes are disconnected */
+    private static final long MAX_PENDING_BYTES = 1 << 20;
+    /** Most buffers handed to one gathering write */
+    private static final int WRITE_BATCH = 64;
+
+    private enum State { NEW, CONNECTING, READY, CLOSED }
+
+    private final FanOutGateway gateway;
+    private final GatewayWorker worker;
+    private final SocketChannel channel;
+    private SelectionKey key;
+
+    private final ByteBuffer in = ByteBuffer.allocate(4 + GatewayProtocol.MAX_CLIENT_FRAME);
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH];
+    private long pendingBytes;
+    /** Joined rooms by channel id. Worker thread only */
+    private final Map<Integer, Subscription> subscriptions = new HashMap<>();
+    private State state = State.NEW;
+
+    /** Set by a database thread once the user is connected */
+    private volatile Backend backend;
+    private volatile Outbox outbox;
+    /** Whether the user was disconnected. Guarded by this */
+    private boolean disconnected;
+
+    GatewaySession(FanOutGateway gateway, GatewayWorker worker, SocketChannel channel) {
+        this.gateway = gateway;
+        this.worker = worker;
+        this.channel = channel;
+    }
+
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        gateway.sessionOpened(this);
+    }
+
+    boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Reads the available bytes and handles every complete frame.
+     */
+    void read() throws IOException {
+        if (channel.read(in) < 0) {
+            close(null);
+            return;
+        }
+        in.flip();
+        while (state != State.CLOSED && in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 1 || length > GatewayProtocol.MAX_CLIENT_FRAME) {
+                close("Invalid frame length: " + length);
+                return;
+            }
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            byte[] frame = new byte[length];
+            in.position(in.position() + 4);
+            in.get(frame);
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(frame, 1, length - 1));
+            handle(frame[0], data);
+        }
+        in.compact();
+    }
+
+    private void handle(byte type, DataInputStream data) throws IOException {
+        if (type == GatewayProtocol.TYPE_HELLO) {
+            if (state != State.NEW) {
+                close("Already connected");
+                return;
+            }
+            String nick = data.readUTF();
+            state = State.CONNECTING;
+            gateway.executeDb(() -> connect(nick));
+            return;
+        }
+        if (state != State.READY) {
+            enqueue(GatewayProtocol.encodeError("Not connected"));
+            flush();
+            return;
+        }
+        switch (type) {
+            case GatewayProtocol.TYPE_JOIN: {
+                String room = data.readUTF();
+                long lastSeenId = data.readLong();
+                gateway.executeDb(() -> {
+                    try {
+                        RoomChannel joined = gateway.acquireChannel(room);
+                        worker.execute(() -> subscribe(joined, lastSeenId));
+                    } catch (ChatException | RuntimeException e) {
+                        worker.execute(() -> fail("Error joining room " + room + ": " + e.getMessage()));
+                    }
+                });
+                break;
+            }
+            case GatewayProtocol.TYPE_LEAVE: {
+                Subscription subscription = subscriptions.remove(data.readInt());
+                if (subscription != null) {
+                    gateway.releaseChannel(subscription.channel);
+                }
+                break;
+            }
+            case GatewayProtocol.TYPE_SEND: {
+                Subscription subscription = subscriptions.get(data.readInt());
+                String message = data.readUTF();
+                if (subscription == null) {
+                    fail("Error sending message: room not joined");
+                    break;
+                }
+                outbox.submit(subscription.channel.getRoom(), message).whenComplete((sent, error) -> {
+                    if (error != null) {
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        worker.execute(() -> fail("Error sending message: " + cause.getMessage()));
+                    } else {
+                        gateway.requestPoll();
+                    }
+                });
+                break;
+            }
+            default:
+                close("Unknown frame type: " + type);
+        }
+    }
+
+    /**
+     * Connects the user. Runs on a database thread.
+     */
+    private void connect(String nick) {
+        try {
+            Backend created = gateway.createBackend();
+            created.getUserModel().connect(nick);
+            backend = created;
+            outbox = new MessageOutbox(created.getMessageModel(), MessageOutbox.DEFAULT_MAX_BATCH,
+                    MessageOutbox.DEFAULT_LINGER, gateway.getOutboxExecutor());
+            worker.execute(this::connected);
+        } catch (ChatException | RuntimeException e) {
+            worker.execute(() -> close("Error connecting user: " + e.getMessage()));
+        }
+    }
+
+    private void connected() {
+        if (state == State.CLOSED) {
+            // The client left while it was being connected
+            gateway.executeDb(this::disconnect);
+            return;
+        }
+        state = State.READY;
+        enqueue(GatewayProtocol.encodeWelcome());
+        flushQuietly();
+    }
+
+    private void subscribe(RoomChannel joined, long lastSeenId) {
+        if (state == State.CLOSED || subscriptions.containsKey(joined.getId())) {
+            gateway.releaseChannel(joined);
+            if (state != State.CLOSED) {
+                enqueue(GatewayProtocol.encodeJoined(joined.getId(), subscriptions.get(joined.getId()).lastDelivered, joined.getRoom()));
+                flushQuietly();
+            }
+            return;
+        }
+        BroadcastRing<RoomChannel.Frame> ring = joined.getRing();
+        // A client that has seen nothing gets the recent messages, one that has gets all it missed that is still kept
+        long start = lastSeenId > 0 ? ring.getOldest()
+                : Math.max(ring.getOldest(), ring.getPublished() - FanOutGateway.JOIN_REPLAY + 1);
+        BroadcastRing<RoomChannel.Frame>.Cursor cursor = ring.cursor(start);
+        RoomChannel.Frame first = cursor.peek();
+        long coveredFrom = first != null ? Math.max(lastSeenId, first.getId() - 1) : lastSeenId;
+        subscriptions.put(joined.getId(), new Subscription(joined, cursor, coveredFrom));
+        enqueue(GatewayProtocol.encodeJoined(joined.getId(), coveredFrom, joined.getRoom()));
+        fanOut();
+    }
+
+    /**
+     * Queues the messages published since the last pass and writes what the socket accepts.
+     */
+    void fanOut() {
+        if (state != State.READY) {
+            return;
+        }
+        int delivered = 0;
+        for (Subscription subscription : subscriptions.values()) {
+            RoomChannel.Frame frame;
+            while ((frame = subscription.cursor.poll()) != null) {
+                if (frame.getId() > subscription.lastDelivered) {
+                    enqueue(frame.newBuffer());
+                    subscription.lastDelivered = frame.getId();
+                    delivered++;
+                }
+            }
+            if (subscription.cursor.isLagged()) {
+                gateway.sessionLagged();
+                close("Too slow to keep up with room " + subscription.channel.getRoom() + ", reconnect to catch up");
+                return;
+            }
+        }
+        if (delivered > 0) {
+            gateway.framesDelivered(delivered);
+        }
+        if (!pending.isEmpty()) {
+            flushQuietly();
+        }
+    }
+
+    /**
+     * Writes the pending frames, as many as the socket accepts.
+     */
+    void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            int count = 0;
+            for (ByteBuffer buffer : pending) {
+                writeBatch[count++] = buffer;
+                if (count == WRITE_BATCH) {
+                    break;
+                }
+            }
+            long written = channel.write(writeBatch, 0, count);
+            pendingBytes -= written;
+            while (!pending.isEmpty() && !pending.peek().hasRemaining()) {
+                pending.poll();
+            }
+            if (written == 0 || !pending.isEmpty() && count < WRITE_BATCH) {
+                // The socket buffer is full
+                break;
+            }
+        }
+        Arrays.fill(writeBatch, null);
+        if (pendingBytes > MAX_PENDING_BYTES) {
+            gateway.sessionLagged();
+            close("Too slow to keep up, reconnect to catch up");
+            return;
+        }
+        if (state != State.CLOSED) {
+            key.interestOps(pending.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            close(null);
+        }
+    }
+
+    private void enqueue(ByteBuffer buffer) {
+        pending.add(buffer);
+        pendingBytes += buffer.remaining();
+    }
+
+    /**
+     * Reports an error to the client without closing the session.
+     */
+    private void fail(String description) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        enqueue(GatewayProtocol.encodeError(description));
+        flushQuietly();
+    }
+
+    /**
+     * Closes the connection, leaves every room and disconnects the user.
+     *
+     * @param reason The error reported to the client first, or null
+     */
+    void close(String reason) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        State previous = state;
+        state = State.CLOSED;
+        if (reason != null) {
+            try {
+                // Best effort, the client may not be reading anymore
+                channel.write(GatewayProtocol.encodeError(reason));
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing gateway client: " + e.getMessage());
+        }
+        for (Subscription subscription : subscriptions.values()) {
+            gateway.releaseChannel(subscription.channel);
+        }
+        subscriptions.clear();
+        pending.clear();
+        gateway.sessionClosed(this);
+        if (previous == State.READY) {
+            gateway.executeDb(this::disconnect);
+        }
+    }
+
+    /**
+     * Renews the lease of the user. Runs on a database thread.
+     */
+    synchronized void heartbeat() {
+        if (backend == null || disconnected) {
+            return;
+        }
+        try {
+            backend.getUserModel().heartbeat();
+        } catch (ChatException e) {
+            System.err.println("Error renewing presence: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delivers the queued messages and disconnects the user. Runs on a database thread.
+     */
+    private synchronized void disconnect() {
+        if (disconnected) {
+            return;
+        }
+        disconnected = true;
+        try {
+            outbox.close().join();
+            backend.getUserModel().disconnect();
+        } catch (ChatException | RuntimeException e) {
+            System.err.println("Error disconnecting user: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A joined room and the position of the session in its ring.
+     */
+    private static class Subscription {
+        private final RoomChannel channel;
+        private final BroadcastRing<RoomChannel.Frame>.Cursor cursor;
+        /** Id of the last message queued, so that a replay never sends one twice */
+        private long lastDelivered;
+
+        Subscription(RoomChannel channel, BroadcastRing<RoomChannel.Frame>.Cursor cursor, long lastDelivered) {
+            this.channel = channel;
+            this.cursor = cursor;
+            this.lastDelivered = lastDelivered;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package gateway;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread owning a share of the gateway's client connections.
+ * <p>
+ * Besides reading client frames and writing pending bytes, every pass of the
+ * loop moves the messages newly published to the rooms' rings to the sessions
+ * subscribed to them. Workers read the rings independently, so adding workers
+ * adds fan-out capacity without any lock between them.
+ */
+class GatewayWorker implements Runnable {
+    private final Selector selector;
+    private final FanOutGateway gateway;
+    /** Work handed over by other threads, run by the worker thread */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /** Sessions of this worker. Worker thread only */
+    private final List<GatewaySession> sessions = new ArrayList<>();
+    private volatile boolean running = true;
+
+    GatewayWorker(FanOutGateway gateway) throws IOException {
+        this.gateway = gateway;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Runs a task on the worker thread.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Hands a new client connection over to this worker.
+     */
+    void adopt(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                GatewaySession session = new GatewaySession(gateway, this, channel);
+                session.register(selector);
+                sessions.add(session);
+            } catch (IOException e) {
+                System.err.println("Error accepting gateway client: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Already failing
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the worker look for newly published messages.
+     */
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the worker, closing every connection it owns.
+     */
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    GatewaySession session = (GatewaySession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            session.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.flush();
+                        }
+                    } catch (IOException e) {
+                        session.close(null);
+                    }
+                }
+
+                for (GatewaySession session : sessions) {
+                    session.fanOut();
+                }
+                sessions.removeIf(GatewaySession::isClosed);
+            }
+        } catch (IOException e) {
+            System.err.println("Gateway worker failed: " + e.getMessage());
+        } finally {
+            for (GatewaySession session : sessions) {
+                session.close("Gateway shutting down");
+            }
+            sessions.clear();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing gateway worker: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package gateway;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The messages of one room, read from the database once by the gateway poller
+ * and published, already encoded, to a {@link BroadcastRing} that every
+ * session of the room reads from.
+ */
+class RoomChannel {
+    private final int id;
+    private final String room;
+    private final BroadcastRing<Frame> ring;
+    /** Id of the newest message published. Poller thread only, once published to it */
+    private long lastId;
+    /** Number of sessions that joined. Guarded by the gateway's channel map */
+    private int subscribers;
+    /** Completed once the recent messages are published, exceptionally if they could not be read */
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+    RoomChannel(int id, String room, int capacity) {
+        this.id = id;
+        this.room = room;
+        this.ring = new BroadcastRing<>(capacity);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    String getRoom() {
+        return room;
+    }
+
+    BroadcastRing<Frame> getRing() {
+        return ring;
+    }
+
+    long getLastId() {
+        return lastId;
+    }
+
+    CompletableFuture<Void> getLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return whether the recent messages were published, so that the poller may take over
+     */
+    boolean isLoaded() {
+        return loaded.isDone() && !loaded.isCompletedExceptionally();
+    }
+
+    /**
+     * Publishes a message. Only called by the thread that owns the channel:
+     * the one loading it, then the poller.
+     */
+    void publish(long messageId, ByteBuffer data) {
+        ring.publish(new Frame(messageId, data));
+        lastId = messageId;
+    }
+
+    int addSubscriber() {
+        return ++subscribers;
+    }
+
+    int removeSubscriber() {
+        return --subscribers;
+    }
+
+    /**
+     * An encoded message frame, shared read-only by every session of the room.
+     */
+    static class Frame {
+        private final long id;
+        private final ByteBuffer data;
+
+        Frame(long id, ByteBuffer data) {
+            this.id = id;
+            this.data = data.asReadOnlyBuffer();
+        }
+
+        long getId() {
+            return id;
+        }
+
+        /**
+         * @return a buffer of the frame with its own position, for one session
+         */
+        ByteBuffer newBuffer() {
+            return data.duplicate();
+        }
+    }
+}
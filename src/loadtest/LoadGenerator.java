@@ -0,0 +1,426 @@
+package loadtest;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import controller.ChatController;
+import controller.ChatListener;
+import controller.MessageOutbox;
+import model.Backend;
+import model.InMemoryStore;
+import model.Message;
+import model.MessageInterface;
+import model.OutgoingMessage;
+import model.User;
+import model.UserInterface;
+import utilities.ChatException;
+import utilities.ConfigRegistry;
+import utilities.DBConnection;
+import utilities.LatencyHistogram;
+
+/**
+ * Headless load generator simulating many chat clients in one JVM.
+ * <p>
+ * Every simulated client is a {@link ChatController} session with its own models
+ * and a headless listener. It sends messages at a fixed rate and polls for new
+ * messages at a fixed interval, in the room it was assigned. Each message carries its
+ * send time, so every client that receives it records the send-to-visible latency.
+ * Throughput, database calls, errors and latency percentiles are printed
+ * periodically and at the end of the run.
+ * <p>
+ * Usage: {@code LoadGenerator [--clients N] [--send-rate messages/minute/client]
+ * [--poll-interval ms] [--duration s] [--threads N] [--backend memory|config] [--rooms N]}.
+ * The {@code config} backend uses the one selected in database-config.xml.
+ * With several rooms, the clients are spread evenly over them.
+ */
+public class LoadGenerator {
+    private static final long REPORT_INTERVAL = 5000; // milliseconds
+    private static final String PREFIX = "lt:";
+
+    private final int clients;
+    private final double sendRate;
+    private final long pollInterval;
+    private final long duration;
+    private final int threads;
+    private final String backend;
+    private final int rooms;
+    /** Identifies the messages of this run among those already in the database */
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dbCalls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * @param clients The number of simulated clients
+     * @param sendRate The number of messages each client sends per minute
+     * @param pollInterval The interval between two polls of a client, in milliseconds
+     * @param duration The duration of the run, in seconds
+     * @param threads The number of threads running the clients
+     * @param backend {@code memory} or {@code config}
+     */
+    public LoadGenerator(int clients, double sendRate, long pollInterval, long duration, int threads, String backend) {
+        this(clients, sendRate, pollInterval, duration, threads, backend, 1);
+    }
+
+    /**
+     * @param clients The number of simulated clients
+     * @param sendRate The number of messages each client sends per minute
+     * @param pollInterval The interval between two polls of a client, in milliseconds
+     * @param duration The duration of the run, in seconds
+     * @param threads The number of threads running the clients
+     * @param backend {@code memory} or {@code config}
+     * @param rooms The number of rooms the clients are spread over
+     */
+    public LoadGenerator(int clients, double sendRate, long pollInterval, long duration, int threads, String backend, int rooms) {
+        this.clients = clients;
+        this.sendRate = sendRate;
+        this.pollInterval = pollInterval;
+        this.duration = duration;
+        this.threads = threads;
+        this.backend = backend;
+        this.rooms = rooms;
+    }
+
+    /**
+     * Runs the load and prints the results.
+     *
+     * @throws Exception If the backend cannot be initialized
+     */
+    public void run() throws Exception {
+        System.out.printf(Locale.ROOT, "Starting %d clients in %d room(s), %.1f msg/min each, polling every %d ms, for %d s on %s backend%n",
+                clients, rooms, sendRate, pollInterval, duration, backend);
+
+        ConfigRegistry registry = Backend.MEMORY.equals(backend) ? null : ConfigRegistry.getDefault();
+        InMemoryStore store = new InMemoryStore();
+
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "load-client");
+            t.setDaemon(true);
+            return t;
+        });
+
+        List<SimulatedClient> simulated = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            // Every simulated client is a separate application with its own connection pool
+            Backend models = registry == null ? Backend.inMemory(store)
+                    : Backend.MEMORY.equals(registry.getConfig().getBackend()) ? Backend.fromConfig(registry)
+                    : Backend.H2.equals(registry.getConfig().getBackend()) ? Backend.h2(new DBConnection(registry.getConfig()))
+                    : Backend.mysql(new DBConnection(registry.getConfig()));
+            SimulatedClient client = new SimulatedClient(i, models.getUserModel(), models.getMessageModel());
+            simulated.add(client);
+            executor.execute(() -> client.start(executor));
+        }
+
+        long start = System.currentTimeMillis();
+        long end = start + duration * 1000;
+        long lastReport = start;
+        long lastSent = 0;
+        long lastCalls = 0;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.min(REPORT_INTERVAL, Math.max(1, end - System.currentTimeMillis())));
+            long now = System.currentTimeMillis();
+            double seconds = (now - lastReport) / 1000.0;
+            long totalSent = sent.sum();
+            long totalCalls = dbCalls.sum();
+            System.out.printf(Locale.ROOT, "[%3ds] sends/s=%.1f dbCalls/s=%.1f errors=%d %s%n",
+                    (now - start) / 1000, (totalSent - lastSent) / seconds, (totalCalls - lastCalls) / seconds,
+                    errors.sum(), percentiles());
+            lastReport = now;
+            lastSent = totalSent;
+            lastCalls = totalCalls;
+        }
+
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        for (SimulatedClient client : simulated) {
+            client.stop();
+        }
+
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.println("=== Summary ===");
+        System.out.printf(Locale.ROOT, "clients=%d sent=%d received=%d errors=%d (%.3f%% of calls)%n", clients, sent.sum(),
+                received.sum(), errors.sum(), dbCalls.sum() == 0 ? 0 : 100.0 * errors.sum() / dbCalls.sum());
+        System.out.printf(Locale.ROOT, "sends/s=%.1f dbCalls/s=%.1f%n", sent.sum() / seconds, dbCalls.sum() / seconds);
+        System.out.println("send->visible " + percentiles());
+    }
+
+    private String percentiles() {
+        return String.format(Locale.ROOT, "latency p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms (n=%d)",
+                latency.getPercentile(0.5) / 1000.0, latency.getPercentile(0.9) / 1000.0,
+                latency.getPercentile(0.99) / 1000.0, latency.getPercentile(1.0) / 1000.0, latency.getCount());
+    }
+
+    /**
+     * One simulated client: a headless {@link ChatController} session.
+     * Its tasks never overlap, so its state needs no synchronization beyond
+     * the executor's happens-before guarantees.
+     */
+    private class SimulatedClient implements ChatListener {
+        private final int id;
+        private final UserInterface userModel;
+        private final MessageInterface messageModel;
+        private final String room;
+        private ChatController controller;
+
+        SimulatedClient(int id, UserInterface userModel, MessageInterface messageModel) {
+            this.id = id;
+            this.room = id % rooms == 0 ? Message.DEFAULT_ROOM : "room-" + (id % rooms);
+            this.userModel = new CountingUserModel(userModel);
+            this.messageModel = new CountingMessageModel(messageModel);
+        }
+
+        void start(ScheduledExecutorService executor) {
+            try {
+                controller = new ChatController(this, userModel, messageModel, new MessageOutbox(messageModel, executor),
+                        null, "load-" + runId + "-" + id);
+                if (!room.equals(Message.DEFAULT_ROOM)) {
+                    controller.leaveRoom(Message.DEFAULT_ROOM);
+                    controller.joinRoom(room);
+                }
+                // Move the controller's cursor past the messages sent before this client started
+                controller.poll();
+            } catch (ChatException e) {
+                errors.increment();
+                return;
+            }
+
+            // Spread the clients over the intervals so they do not act in lockstep
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            executor.scheduleWithFixedDelay(this::poll, random.nextLong(pollInterval), pollInterval, TimeUnit.MILLISECONDS);
+            if (sendRate > 0) {
+                long sendInterval = Math.max(1, Math.round(60000 / sendRate));
+                executor.scheduleAtFixedRate(this::send, random.nextLong(sendInterval), sendInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void send() {
+            controller.queueMessage(room, PREFIX + runId + ":" + System.nanoTime() + ": message from client " + id)
+                    .whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            errors.increment();
+                        } else {
+                            sent.increment();
+                        }
+                    });
+        }
+
+        void poll() {
+            try {
+                controller.poll();
+            } catch (ChatException e) {
+                errors.increment();
+            }
+        }
+
+        void stop() {
+            if (controller != null) {
+                try {
+                    controller.disconnect();
+                } catch (ChatException e) {
+                    errors.increment();
+                }
+            }
+        }
+
+        @Override
+        public void messagesReceived(List<Message> messages) {
+            long now = System.nanoTime();
+            for (Message msg : messages) {
+                long sentAt = sentAt(msg.getMessage());
+                if (sentAt > 0) {
+                    received.increment();
+                    latency.record((now - sentAt) / 1000);
+                }
+            }
+        }
+
+        @Override
+        public void presenceChanged(List<User> users) {
+        }
+
+        @Override
+        public void errorOccurred(String message) {
+            // Send failures are reported here rather than thrown
+            errors.increment();
+        }
+    }
+
+    /**
+     * Counts the calls made to a user model.
+     */
+    private class CountingUserModel implements UserInterface {
+        private final UserInterface delegate;
+
+        CountingUserModel(UserInterface delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void connect(String nick) throws ChatException {
+            dbCalls.increment();
+            delegate.connect(nick);
+        }
+
+        @Override
+        public void disconnect() throws ChatException {
+            dbCalls.increment();
+            delegate.disconnect();
+        }
+
+        @Override
+        public void heartbeat() throws ChatException {
+            dbCalls.increment();
+            delegate.heartbeat();
+        }
+
+        @Override
+        public List<User> getAll() throws ChatException {
+            dbCalls.increment();
+            return delegate.getAll();
+        }
+
+        @Override
+        public Stream<User> stream() throws ChatException {
+            dbCalls.increment();
+            return delegate.stream();
+        }
+
+        @Override
+        public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+            delegate.closeResources(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Counts the calls made to a message model.
+     */
+    private class CountingMessageModel implements MessageInterface {
+        private final MessageInterface delegate;
+
+        CountingMessageModel(MessageInterface delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void sendMessage(String room, String message) throws ChatException {
+            dbCalls.increment();
+            delegate.sendMessage(room, message);
+        }
+
+        @Override
+        public boolean[] sendMessages(String room, List<String> messages) throws ChatException {
+            dbCalls.increment();
+            return delegate.sendMessages(room, messages);
+        }
+
+        @Override
+        public boolean[] sendMessagesOnce(String room, List<OutgoingMessage> messages) throws ChatException {
+            dbCalls.increment();
+            return delegate.sendMessagesOnce(room, messages);
+        }
+
+        @Override
+        public List<Message> getAll() throws ChatException {
+            dbCalls.increment();
+            return delegate.getAll();
+        }
+
+        @Override
+        public Stream<Message> stream() throws ChatException {
+            dbCalls.increment();
+            return delegate.stream();
+        }
+
+        @Override
+        public List<Message> getSince(String room, long lastSeenId, int limit) throws ChatException {
+            dbCalls.increment();
+            return delegate.getSince(room, lastSeenId, limit);
+        }
+
+        @Override
+        public List<Message> getBefore(String room, long beforeId, int limit) throws ChatException {
+            dbCalls.increment();
+            return delegate.getBefore(room, beforeId, limit);
+        }
+
+        @Override
+        public List<String> getRooms() throws ChatException {
+            dbCalls.increment();
+            return delegate.getRooms();
+        }
+
+        @Override
+        public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+            delegate.closeResources(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * @return the send time carried by a message of this run, or 0 for any other message
+     */
+    private long sentAt(String text) {
+        String runPrefix = PREFIX + runId + ":";
+        if (text == null || !text.startsWith(runPrefix)) {
+            return 0;
+        }
+        int end = text.indexOf(':', runPrefix.length());
+        try {
+            return Long.parseLong(text.substring(runPrefix.length(), end));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = 100;
+        double sendRate = 6;
+        long pollInterval = 2000;
+        long duration = 60;
+        int threads = 32;
+        String backend = Backend.MEMORY;
+        int rooms = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--clients":
+                    clients = Integer.parseInt(value);
+                    break;
+                case "--send-rate":
+                    sendRate = Double.parseDouble(value);
+                    break;
+                case "--poll-interval":
+                    pollInterval = Long.parseLong(value);
+                    break;
+                case "--duration":
+                    duration = Long.parseLong(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--backend":
+                    backend = value;
+                    break;
+                case "--rooms":
+                    rooms = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        new LoadGenerator(clients, sendRate, pollInterval, duration, threads, backend, rooms).run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,136 @@
+package model;
+
+import java.sql.SQLException;
+
+import utilities.ChatException;
+import utilities.ConfigRegistry;
+import utilities.DBConfigParser;
+import utilities.DBConnection;
+import utilities.MetricsRegistry;
+import utilities.Resilience;
+
+/**
+ * The pair of user and message models of one client session, created for the
+ * backend selected by the {@code backend} element of database-config.xml:
+ * {@value #MYSQL} (the default), {@value #H2} or {@value #MEMORY}.
+ */
+public class Backend {
+    public static final String MYSQL = "mysql";
+    public static final String H2 = "h2";
+    public static final String MEMORY = "memory";
+
+    private final UserInterface userModel;
+    private final MessageInterface messageModel;
+
+    private Backend(UserInterface userModel, MessageInterface messageModel) {
+        this.userModel = userModel;
+        this.messageModel = messageModel;
+    }
+
+    /**
+     * Creates the models of the backend selected in the configuration.
+     * Database models share the registry's connection, every call is timed
+     * in the default {@link MetricsRegistry}, and calls are shed while the
+     * backend is failing or overloaded, through the registry's guard shared
+     * by every backend created from it.
+     *
+     * @param registry The configuration registry
+     * @return The backend
+     * @throws ChatException If the backend is unknown or cannot be initialized
+     */
+    public static Backend fromConfig(ConfigRegistry registry) throws ChatException {
+        DBConfigParser config = registry.getConfig();
+        String name = config.getBackend() != null ? config.getBackend() : MYSQL;
+        Backend backend;
+        switch (name) {
+            case MYSQL:
+                backend = mysql(registry.getDBConnection());
+                break;
+            case H2:
+                backend = h2(registry.getDBConnection());
+                break;
+            case MEMORY:
+                backend = inMemory(InMemoryStore.getDefault());
+                break;
+            default:
+                throw new ChatException("Unknown backend: " + name);
+        }
+        // Outermost, so that rejected calls are not timed as backend calls
+        return backend.instrumented(MetricsRegistry.getDefault()).resilient(registry.getResilience(name));
+    }
+
+    /**
+     * Creates models backed by the MySQL database, sharing a new session.
+     *
+     * @param dbconn The database connection shared by both models
+     * @return The backend
+     */
+    public static Backend mysql(DBConnection dbconn) {
+        DBSession session = new DBSession();
+        return new Backend(new UserModel(dbconn, session), new MessageModel(dbconn, session));
+    }
+
+    /**
+     * Creates the same models as {@link #mysql(DBConnection)}, backed by an H2
+     * database, embedded or not, whose tables and procedures are created first
+     * if missing.
+     *
+     * @param dbconn The connection to the H2 database shared by both models
+     * @return The backend
+     * @throws ChatException If the tables and procedures cannot be created
+     */
+    public static Backend h2(DBConnection dbconn) throws ChatException {
+        try {
+            H2Procedures.install(dbconn);
+        } catch (SQLException e) {
+            throw new ChatException("Error creating the H2 database: " + e.getMessage(), e);
+        }
+        return mysql(dbconn);
+    }
+
+    /**
+     * Creates models backed by an in-memory store, sharing a new session.
+     *
+     * @param store The store
+     * @return The backend
+     */
+    public static Backend inMemory(InMemoryStore store) {
+        InMemorySession session = new InMemorySession(store);
+        return new Backend(new InMemoryUserModel(store, session), new InMemoryMessageModel(store, session));
+    }
+
+    /**
+     * Wraps both models so that every call is timed and its errors counted.
+     *
+     * @param metrics The registry the metrics are recorded in
+     * @return The instrumented backend
+     */
+    public Backend instrumented(MetricsRegistry metrics) {
+        return new Backend(new InstrumentedUserModel(userModel, metrics), new InstrumentedMessageModel(messageModel, metrics));
+    }
+
+    /**
+     * Wraps both models so that their calls go through one circuit breaker and
+     * per-kind bulkheads, and honor the caller's deadline.
+     *
+     * @param resilience The guard shared by both models
+     * @return The guarded backend
+     */
+    public Backend resilient(Resilience resilience) {
+        return new Backend(new ResilientUserModel(userModel, resilience), new ResilientMessageModel(messageModel, resilience));
+    }
+
+    /**
+     * @return the user model
+     */
+    public UserInterface getUserModel() {
+        return userModel;
+    }
+
+    /**
+     * @return the message model
+     */
+    public MessageInterface getMessageModel() {
+        return messageModel;
+    }
+}
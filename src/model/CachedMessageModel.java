@@ -0,0 +1,254 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import utilities.ChatException;
+import utilities.FileNames;
+
+/**
+ * Message model that keeps a local copy of the history in a {@link HistoryStore}.
+ * <p>
+ * Reads covered by the store are answered from disk; everything else goes to
+ * the wrapped model, and the new messages it returns are added to the store.
+ * At startup the most recent history is therefore shown without a database
+ * round trip, and only the messages sent since the last run are fetched.
+ * If the store fails, reads fall back to the wrapped model.
+ * <p>
+ * Each room has its own store, since message ids are only ordered within a room.
+ */
+public class CachedMessageModel implements MessageInterface {
+    /** Subdirectory of the stores of the rooms other than the default one */
+    private static final String ROOMS_DIR = "rooms";
+    /** Most messages fetched at a time to bring a store up to date */
+    private static final int CATCH_UP_PAGE_SIZE = 100;
+    /** Most pages fetched by one catch-up; the next reads continue it */
+    private static final int CATCH_UP_PAGES = 10;
+
+    private final MessageInterface delegate;
+    /** Directory of the room stores, or null to only cache the default room */
+    private final Path directory;
+    /** Stores by room, null for a room whose store could not be opened */
+    private final Map<String, HistoryStore> stores = new HashMap<>();
+
+    /**
+     * Caches the default room only.
+     *
+     * @param delegate The model the messages come from
+     * @param history The local copy of the history of the default room
+     */
+    public CachedMessageModel(MessageInterface delegate, HistoryStore history) {
+        this.delegate = delegate;
+        this.directory = null;
+        stores.put(Message.DEFAULT_ROOM, history);
+    }
+
+    /**
+     * Caches every room read, each in its own store under the given directory.
+     * The default room is stored in the directory itself.
+     *
+     * @param delegate The model the messages come from
+     * @param directory The directory of the local copies of the history
+     * @throws IOException If the store of the default room cannot be opened
+     */
+    public CachedMessageModel(MessageInterface delegate, Path directory) throws IOException {
+        this.delegate = delegate;
+        this.directory = directory;
+        stores.put(Message.DEFAULT_ROOM, new HistoryStore(directory));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(String room, String message) throws ChatException {
+        delegate.sendMessage(room, message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessages(String room, List<String> messages) throws ChatException {
+        return delegate.sendMessages(room, messages);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessagesOnce(String room, List<OutgoingMessage> messages) throws ChatException {
+        return delegate.sendMessagesOnce(room, messages);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getAll() throws ChatException {
+        return delegate.getAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<Message> stream() throws ChatException {
+        return delegate.stream();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Served from the store when it holds the messages following {@code lastSeenId}.
+     */
+    @Override
+    public List<Message> getSince(String room, long lastSeenId, int limit) throws ChatException {
+        HistoryStore history = storeOf(room);
+        if (history == null) {
+            return delegate.getSince(room, lastSeenId, limit);
+        }
+        if (history.getLastId() > 0 && lastSeenId > history.getLastId()) {
+            // The caller is ahead of the store, which a previous catch-up could not fill in one go
+            catchUp(room, history);
+        }
+        try {
+            if (history.getFirstId() > 0 && lastSeenId >= history.getFirstId() && lastSeenId < history.getLastId()) {
+                return inRoom(history.getSince(lastSeenId, limit), room);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading local history: " + e.getMessage());
+        }
+
+        List<Message> messages = delegate.getSince(room, lastSeenId, limit);
+        // Only a page directly following the stored history keeps it gapless
+        if (history.getLastId() == 0 || lastSeenId == history.getLastId()) {
+            store(history, messages);
+        }
+        return messages;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Served from the store when it holds messages before {@code beforeId}, the
+     * older part of a page it only holds partly coming from the wrapped model.
+     * For the newest page, the messages sent since the store was last updated
+     * are fetched and stored first.
+     */
+    @Override
+    public List<Message> getBefore(String room, long beforeId, int limit) throws ChatException {
+        HistoryStore history = storeOf(room);
+        if (history == null) {
+            return delegate.getBefore(room, beforeId, limit);
+        }
+        if (beforeId == Long.MAX_VALUE && history.getLastId() > 0 && !catchUp(room, history)) {
+            // Too far behind to be served from the store this time
+            return delegate.getBefore(room, beforeId, limit);
+        }
+        try {
+            if (history.getFirstId() > 0 && beforeId > history.getFirstId()) {
+                List<Message> messages = history.getBefore(beforeId, limit);
+                if (messages.size() < limit) {
+                    // The rest of the page is older than the store
+                    List<Message> page = new ArrayList<>(delegate.getBefore(room, history.getFirstId(), limit - messages.size()));
+                    page.addAll(inRoom(messages, room));
+                    return page;
+                }
+                return inRoom(messages, room);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading local history: " + e.getMessage());
+        }
+
+        List<Message> messages = delegate.getBefore(room, beforeId, limit);
+        // The newest page seeds an empty store, the following ones are appended by getSince
+        if (history.getLastId() == 0 && beforeId == Long.MAX_VALUE) {
+            store(history, messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Appends the messages sent after the newest one stored, at most
+     * {@link #CATCH_UP_PAGES} pages at a time.
+     *
+     * @return whether the store now holds the newest message of the room
+     * @throws ChatException If the messages cannot be read
+     */
+    private boolean catchUp(String room, HistoryStore history) throws ChatException {
+        for (int i = 0; i < CATCH_UP_PAGES; i++) {
+            List<Message> messages = delegate.getSince(room, history.getLastId(), CATCH_UP_PAGE_SIZE);
+            long lastId = history.getLastId();
+            store(history, messages);
+            if (messages.size() < CATCH_UP_PAGE_SIZE) {
+                return true;
+            }
+            if (history.getLastId() == lastId) {
+                // The store could not be written
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getRooms() throws ChatException {
+        return delegate.getRooms();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+        delegate.closeResources(conn, stmt, rs);
+    }
+
+    /**
+     * Returns the store of a room, opening it on first use.
+     *
+     * @return The store, or null if the room is not cached
+     */
+    private synchronized HistoryStore storeOf(String room) {
+        if (stores.containsKey(room) || directory == null) {
+            return stores.get(room);
+        }
+        HistoryStore history = null;
+        try {
+            // Encoded so that any room name makes a single, valid directory name
+            history = new HistoryStore(directory.resolve(ROOMS_DIR).resolve(FileNames.encode(room)));
+        } catch (IOException e) {
+            System.err.println("Local history of " + room + " disabled: " + e.getMessage());
+        }
+        stores.put(room, history);
+        return history;
+    }
+
+    /**
+     * The store does not keep the room of its messages.
+     */
+    private static List<Message> inRoom(List<Message> messages, String room) {
+        for (Message msg : messages) {
+            msg.setRoom(room);
+        }
+        return messages;
+    }
+
+    private static void store(HistoryStore history, List<Message> messages) {
+        try {
+            history.append(messages);
+        } catch (IOException e) {
+            System.err.println("Error saving local history: " + e.getMessage());
+        }
+    }
+}
@@ -4,7 +4,11 @@ import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
 import utilities.ChatException;
+import utilities.UncheckedChatException;
 
 /**
  * Common interface for Data Access Objects.
@@ -22,6 +26,35 @@ public interface DAO<T> {
      */
     List<T> getAll() throws ChatException;
     
+    /**
+     * Passes every entity of type T to the given action, one at a time, without
+     * building a list of all of them first.
+     * 
+     * @param action The action to perform on each entity
+     * @throws ChatException If there is an error retrieving the entities
+     */
+    default void forEach(Consumer<? super T> action) throws ChatException {
+        try (Stream<T> entities = stream()) {
+            entities.forEach(action);
+        } catch (UncheckedChatException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Retrieves all entities of type T from the data source as a lazy stream.
+     * Database resources stay open until the stream is closed, so it must be
+     * used in a try-with-resources statement. An error while reading is thrown
+     * as an {@link UncheckedChatException}.
+     * The default implementation streams the result of {@link #getAll()}.
+     * 
+     * @return A stream of entities of type T
+     * @throws ChatException If there is an error starting the retrieval
+     */
+    default Stream<T> stream() throws ChatException {
+        return getAll().stream();
+    }
+    
     /**
      * Closes database resources.
      * 
@@ -0,0 +1,31 @@
+package model;
+
+import utilities.ChatException;
+
+/**
+ * State of one client of the MySQL database, shared by its user and message
+ * models. Every client of a process may log in with the same database account,
+ * as the sessions of a gateway or the clients of a load test do, so the models
+ * pass the nickname to the procedures rather than letting the database tell the
+ * user from its account.
+ */
+public class DBSession {
+    private volatile String nick;
+
+    /**
+     * @param action What needs a connected user, for the error message
+     * @return the nickname of the connected user
+     * @throws ChatException If no user is connected
+     */
+    public String requireNick(String action) throws ChatException {
+        String current = nick;
+        if (current == null) {
+            throw new ChatException("Error " + action + ": user is not connected");
+        }
+        return current;
+    }
+
+    // Getters and setters
+    public String getNick() { return nick; }
+    public void setNick(String nick) { this.nick = nick; }
+}
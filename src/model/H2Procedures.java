@@ -0,0 +1,387 @@
+package model;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.h2.tools.SimpleResultSet;
+
+import utilities.DBConnection;
+
+/**
+ * The procedures of sql/schema.sql for an embedded H2 database, as Java
+ * functions registered as aliases, so that {@link UserModel} and
+ * {@link MessageModel} issue the same {@code {call ...}} statements against
+ * either database. They follow the contract stated in sql/schema.sql, except
+ * that H2 has no events: {@code getConnectedUsers()} disconnects the users
+ * whose lease expired before reading them, and idempotency keys live as long
+ * as the database.
+ * <p>
+ * H2 first calls a function returning a result set to learn its columns, then
+ * again to run it; the first call only returns the columns. Rows are copied
+ * into the returned result set so that the query closes before returning.
+ */
+public final class H2Procedures {
+    /** URL of the connection passed when H2 only asks for the columns */
+    private static final String COLUMN_LIST_URL = "jdbc:columnlist:connection";
+    /** SQL state of a duplicate key */
+    private static final String DUPLICATE_KEY = "23505";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS users (nick VARCHAR(50) PRIMARY KEY, date_con TIMESTAMP NOT NULL,"
+                    + " last_heartbeat TIMESTAMP NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS users_last_heartbeat ON users (last_heartbeat)",
+            "CREATE TABLE IF NOT EXISTS messages (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                    + " nick VARCHAR(50) NOT NULL, message VARCHAR(65535) NOT NULL, ts TIMESTAMP NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS room_messages (room VARCHAR(100) NOT NULL, id BIGINT NOT NULL,"
+                    + " nick VARCHAR(50) NOT NULL, message VARCHAR(65535) NOT NULL, ts TIMESTAMP NOT NULL,"
+                    + " PRIMARY KEY (room, id))",
+            "CREATE TABLE IF NOT EXISTS room_sequences (room VARCHAR(100) PRIMARY KEY, last_id BIGINT NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS message_keys (idem_key VARCHAR(100) PRIMARY KEY, created TIMESTAMP NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS message_cursors (account VARCHAR(300) PRIMARY KEY, last_id BIGINT NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS chat_settings (id TINYINT DEFAULT 1 PRIMARY KEY, presence_lease INT NOT NULL DEFAULT 90,"
+                    + " key_retention INT NOT NULL DEFAULT 86400, CHECK (id = 1))",
+            "INSERT INTO chat_settings (id) SELECT 1 WHERE NOT EXISTS (SELECT 1 FROM chat_settings)" };
+    private static final String[] PROCEDURES = {
+            "connect", "disconnectUser", "heartbeat", "reapExpiredUsers", "getConnectedUsers",
+            "sendAs", "sendToRoomAs", "sendOnceAs", "sendOnceToRoomAs",
+            "getMessages", "getMessagesSince", "getMessagesBefore",
+            "getRoomMessagesSince", "getRoomMessagesBefore", "getRooms" };
+
+    private static final Column[] MESSAGE_COLUMNS = {
+            new Column("id", Types.BIGINT, 19), new Column("nick", Types.VARCHAR, 50),
+            new Column("message", Types.VARCHAR, 65535), new Column("ts", Types.TIMESTAMP, 0) };
+    private static final Column[] USER_COLUMNS = {
+            new Column("nick", Types.VARCHAR, 50), new Column("date_con", Types.TIMESTAMP, 0) };
+    private static final Column[] ROOM_COLUMNS = { new Column("room", Types.VARCHAR, 100) };
+
+    /** The connections whose database already has the schema */
+    private static final Set<DBConnection> installed = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private H2Procedures() {
+    }
+
+    /**
+     * Creates the tables and procedures in the database of a connection, once
+     * per connection. Whatever already exists is kept.
+     *
+     * @param dbconn The connection to the database
+     * @throws SQLException If the schema cannot be created
+     */
+    public static void install(DBConnection dbconn) throws SQLException {
+        if (installed.contains(dbconn)) {
+            return;
+        }
+        try (Connection conn = dbconn.getConnection()) {
+            install(conn);
+        }
+        installed.add(dbconn);
+    }
+
+    /**
+     * Creates the tables and procedures in the database of a connection.
+     * Whatever already exists is kept.
+     *
+     * @param conn The connection to the database
+     * @throws SQLException If the schema cannot be created
+     */
+    public static void install(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String ddl : SCHEMA) {
+                stmt.execute(ddl);
+            }
+            for (String procedure : PROCEDURES) {
+                stmt.execute("CREATE ALIAS IF NOT EXISTS " + procedure
+                        + " FOR \"" + H2Procedures.class.getName() + "." + procedure + "\"");
+            }
+        }
+    }
+
+    // Presence
+
+    /**
+     * {@code connect(nick)}: connects a user, failing with a duplicate key if the nickname is taken.
+     */
+    public static void connect(Connection conn, String nick) throws SQLException {
+        Timestamp now = now();
+        update(conn, "INSERT INTO users (nick, date_con, last_heartbeat) VALUES (?, ?, ?)", nick, now, now);
+    }
+
+    /**
+     * {@code disconnectUser(nick)}: disconnects a user.
+     */
+    public static void disconnectUser(Connection conn, String nick) throws SQLException {
+        update(conn, "DELETE FROM users WHERE nick = ?", nick);
+    }
+
+    /**
+     * {@code heartbeat(nick)}: renews the lease of a user, connecting it again if it was reaped.
+     */
+    public static void heartbeat(Connection conn, String nick) throws SQLException {
+        Timestamp now = now();
+        if (update(conn, "UPDATE users SET last_heartbeat = ? WHERE nick = ?", now, nick) == 0
+                && !insertIfAbsent(conn, "INSERT INTO users (nick, date_con, last_heartbeat) VALUES (?, ?, ?)", nick, now, now)) {
+            // Connected again in between
+            update(conn, "UPDATE users SET last_heartbeat = ? WHERE nick = ?", now, nick);
+        }
+    }
+
+    /**
+     * {@code reapExpiredUsers(seconds)}: disconnects the users whose last heartbeat is older than the lease.
+     *
+     * @return the number of users disconnected
+     */
+    public static int reapExpiredUsers(Connection conn, int seconds) throws SQLException {
+        return update(conn, "DELETE FROM users WHERE last_heartbeat < ?",
+                new Timestamp(System.currentTimeMillis() - seconds * 1000L));
+    }
+
+    /**
+     * {@code getConnectedUsers()}: every connected user, once those whose lease in
+     * {@code chat_settings.presence_lease} expired are disconnected.
+     */
+    public static ResultSet getConnectedUsers(Connection conn) throws SQLException {
+        if (!isColumnList(conn)) {
+            try (Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT presence_lease FROM chat_settings WHERE id = 1")) {
+                if (rs.next()) {
+                    reapExpiredUsers(conn, rs.getInt(1));
+                }
+            }
+        }
+        return query(conn, USER_COLUMNS, "SELECT nick, date_con FROM users ORDER BY nick");
+    }
+
+    // Sending
+
+    /**
+     * {@code sendAs(nick, message)}: stores a message of the default room.
+     */
+    public static void sendAs(Connection conn, String nick, String message) throws SQLException {
+        update(conn, "INSERT INTO messages (nick, message, ts) VALUES (?, ?, ?)", nick, message, now());
+    }
+
+    /**
+     * {@code sendToRoomAs(room, nick, message)}: stores a message of a room under the room's next id.
+     */
+    public static void sendToRoomAs(Connection conn, String room, String nick, String message) throws SQLException {
+        long id = nextRoomId(conn, room);
+        update(conn, "INSERT INTO room_messages (room, id, nick, message, ts) VALUES (?, ?, ?, ?, ?)",
+                room, id, nick, message, now());
+    }
+
+    /**
+     * {@code sendOnceAs(nick, key, message)}: stores a message of the default room unless its key was already stored.
+     */
+    public static void sendOnceAs(Connection conn, String nick, String key, String message) throws SQLException {
+        if (storeKey(conn, key)) {
+            sendAs(conn, nick, message);
+        }
+    }
+
+    /**
+     * {@code sendOnceToRoomAs(room, nick, key, message)}: stores a message of a room unless its key was already stored.
+     */
+    public static void sendOnceToRoomAs(Connection conn, String room, String nick, String key, String message) throws SQLException {
+        if (storeKey(conn, key)) {
+            sendToRoomAs(conn, room, nick, message);
+        }
+    }
+
+    private static boolean storeKey(Connection conn, String key) throws SQLException {
+        return insertIfAbsent(conn, "INSERT INTO message_keys (idem_key, created) VALUES (?, ?)", key, now());
+    }
+
+    private static long nextRoomId(Connection conn, String room) throws SQLException {
+        while (true) {
+            // One statement, so that the row stays locked between the increment and its read
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT last_id FROM FINAL TABLE (UPDATE room_sequences SET last_id = last_id + 1 WHERE room = ?)")) {
+                stmt.setString(1, room);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        return rs.getLong(1);
+                    }
+                }
+            }
+            if (insertIfAbsent(conn, "INSERT INTO room_sequences (room, last_id) VALUES (?, 1)", room)) {
+                return 1;
+            }
+            // Created by another sender in between
+        }
+    }
+
+    // Reading
+
+    /**
+     * {@code getMessages()}: the messages of the default room not yet returned to the database account.
+     */
+    public static ResultSet getMessages(Connection conn) throws SQLException {
+        SimpleResultSet result = columns(MESSAGE_COLUMNS);
+        if (isColumnList(conn)) {
+            return result;
+        }
+        String account = conn.getMetaData().getUserName();
+        long last = -1;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT last_id FROM message_cursors WHERE account = ?")) {
+            stmt.setString(1, account);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    last = rs.getLong(1);
+                }
+            }
+        }
+        if (last < 0) {
+            // A new account starts with the next message
+            try (Statement stmt = conn.createStatement();
+                    ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM messages")) {
+                rs.next();
+                last = rs.getLong(1);
+            }
+        }
+        Object[] newestRow = copy(conn, result, MESSAGE_COLUMNS.length,
+                "SELECT id, nick, message, ts FROM messages WHERE id > ? ORDER BY id", last);
+        long newest = newestRow != null ? ((Number) newestRow[0]).longValue() : last;
+        if (update(conn, "UPDATE message_cursors SET last_id = ? WHERE account = ?", newest, account) == 0) {
+            insertIfAbsent(conn, "INSERT INTO message_cursors (account, last_id) VALUES (?, ?)", account, newest);
+        }
+        return result;
+    }
+
+    /**
+     * {@code getMessagesSince(lastSeenId, limit)}: the messages of the default room after an id, oldest first.
+     */
+    public static ResultSet getMessagesSince(Connection conn, long lastSeenId, int limit) throws SQLException {
+        return query(conn, MESSAGE_COLUMNS, "SELECT id, nick, message, ts FROM messages WHERE id > ? ORDER BY id LIMIT ?",
+                lastSeenId, limit);
+    }
+
+    /**
+     * {@code getMessagesBefore(beforeId, limit)}: the messages of the default room before an id, newest first.
+     */
+    public static ResultSet getMessagesBefore(Connection conn, long beforeId, int limit) throws SQLException {
+        return query(conn, MESSAGE_COLUMNS, "SELECT id, nick, message, ts FROM messages WHERE id < ? ORDER BY id DESC LIMIT ?",
+                beforeId, limit);
+    }
+
+    /**
+     * {@code getRoomMessagesSince(room, lastSeenId, limit)}: the messages of a room after an id, oldest first.
+     */
+    public static ResultSet getRoomMessagesSince(Connection conn, String room, long lastSeenId, int limit) throws SQLException {
+        return query(conn, MESSAGE_COLUMNS, "SELECT id, nick, message, ts FROM room_messages"
+                + " WHERE room = ? AND id > ? ORDER BY id LIMIT ?", room, lastSeenId, limit);
+    }
+
+    /**
+     * {@code getRoomMessagesBefore(room, beforeId, limit)}: the messages of a room before an id, newest first.
+     */
+    public static ResultSet getRoomMessagesBefore(Connection conn, String room, long beforeId, int limit) throws SQLException {
+        return query(conn, MESSAGE_COLUMNS, "SELECT id, nick, message, ts FROM room_messages"
+                + " WHERE room = ? AND id < ? ORDER BY id DESC LIMIT ?", room, beforeId, limit);
+    }
+
+    /**
+     * {@code getRooms()}: every room other than the default one that has messages.
+     */
+    public static ResultSet getRooms(Connection conn) throws SQLException {
+        return query(conn, ROOM_COLUMNS, "SELECT room FROM room_sequences ORDER BY room");
+    }
+
+    private static ResultSet query(Connection conn, Column[] columns, String sql, Object... params) throws SQLException {
+        SimpleResultSet result = columns(columns);
+        if (!isColumnList(conn)) {
+            copy(conn, result, columns.length, sql, params);
+        }
+        return result;
+    }
+
+    private static SimpleResultSet columns(Column[] columns) {
+        SimpleResultSet result = new SimpleResultSet();
+        for (Column column : columns) {
+            result.addColumn(column.name, column.type, column.precision, 0);
+        }
+        return result;
+    }
+
+    private static boolean isColumnList(Connection conn) throws SQLException {
+        return COLUMN_LIST_URL.equals(conn.getMetaData().getURL());
+    }
+
+    /**
+     * @return the last row copied, null if none
+     */
+    private static Object[] copy(Connection conn, SimpleResultSet result, int width, String sql, Object... params) throws SQLException {
+        Object[] row = null;
+        try (PreparedStatement stmt = prepare(conn, sql, params); ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                row = new Object[width];
+                for (int i = 0; i < width; i++) {
+                    row[i] = rs.getObject(i + 1);
+                }
+                result.addRow(row);
+            }
+        }
+        return row;
+    }
+
+    private static int update(Connection conn, String sql, Object... params) throws SQLException {
+        try (PreparedStatement stmt = prepare(conn, sql, params)) {
+            return stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * @return whether the row was inserted, false if a row with the same key already exists
+     */
+    private static boolean insertIfAbsent(Connection conn, String sql, Object... params) throws SQLException {
+        try {
+            update(conn, sql, params);
+            return true;
+        } catch (SQLException e) {
+            if (DUPLICATE_KEY.equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static PreparedStatement prepare(Connection conn, String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        try {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
+    private static Timestamp now() {
+        return new Timestamp(System.currentTimeMillis());
+    }
+
+    /**
+     * A column of a procedure result.
+     */
+    private static class Column {
+        private final String name;
+        private final int type;
+        private final int precision;
+
+        Column(String name, int type, int precision) {
+            this.name = name;
+            this.type = type;
+            this.precision = precision;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Local on-disk copy of the most recent chat history, so that the chat can be
+ * shown immediately at startup and only the messages sent since the last run
+ * have to be fetched.
+ * <p>
+ * Messages are appended in id order to segment files named after the id of
+ * their first message. Every {@value #INDEX_INTERVAL}th record of a segment is
+ * listed in a sparse index file next to it, which is all that is read when the
+ * store is opened. Reads go through a memory mapping of the segment. Once there
+ * are more than {@code maxSegments} segments the oldest one is deleted.
+ * <p>
+ * The store holds every message from its first id to its last id: messages are
+ * only appended when they directly follow the last one stored.
+ * A record is stored as {@code [int length][int crc32][long id][long ts]
+ * [int nickLength][nick][int messageLength][message]}, with a ts of -1 for a
+ * message without a timestamp.
+ */
+public class HistoryStore implements Closeable {
+    private static final int INDEX_INTERVAL = 64;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final long DEFAULT_SEGMENT_SIZE = 4 << 20; // bytes
+    private static final int DEFAULT_MAX_SEGMENTS = 16;
+    /** Size of an index entry: [long id][int position] */
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    /** Segments by the id of their first message */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private long lastId;
+
+    /**
+     * Opens the store in the given directory with the default size limits.
+     *
+     * @param directory The directory holding the history
+     * @throws IOException If the store cannot be opened, or is used by another process
+     */
+    public HistoryStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if needed.
+     *
+     * @param directory The directory holding the history
+     * @param segmentSize The size after which a new segment is started, in bytes
+     * @param maxSegments The number of segments kept
+     * @throws IOException If the store cannot be opened, or is used by another process
+     */
+    public HistoryStore(Path directory, long segmentSize, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+
+        lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Already open in this process
+            acquired = null;
+        }
+        lock = acquired;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("History " + directory + " is used by another process");
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long firstId = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(firstId, new Segment(file, directory.resolve(name.replace(SEGMENT_SUFFIX, INDEX_SUFFIX))));
+            }
+        }
+        for (Segment segment : segments.values()) {
+            segment.loadIndex();
+        }
+        if (!segments.isEmpty()) {
+            // Only the last segment can have been cut short by a crash
+            lastId = segments.lastEntry().getValue().recover();
+            if (lastId == 0) {
+                segments.pollLastEntry().getValue().delete();
+                lastId = segments.isEmpty() ? 0 : segments.lastEntry().getValue().recover();
+            }
+        }
+    }
+
+    /**
+     * @return the id of the oldest message stored, or 0 if empty
+     */
+    public synchronized long getFirstId() {
+        return segments.isEmpty() ? 0 : segments.firstKey();
+    }
+
+    /**
+     * @return the id of the newest message stored, or 0 if empty
+     */
+    public synchronized long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Appends messages that directly follow the newest one stored. Messages
+     * already stored are skipped.
+     *
+     * @param messages The messages, oldest first
+     * @throws IOException If the messages cannot be written
+     */
+    public synchronized void append(List<Message> messages) throws IOException {
+        for (Message msg : messages) {
+            if (msg.getId() <= lastId) {
+                continue;
+            }
+            Segment active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            if (active == null || active.size >= segmentSize) {
+                active = roll(msg.getId());
+            }
+            active.write(msg);
+            lastId = msg.getId();
+        }
+        for (Segment segment : segments.values()) {
+            segment.flush();
+        }
+    }
+
+    /**
+     * Returns the stored messages with an id greater than the given one, oldest first.
+     *
+     * @param lastSeenId The id of the last message already seen
+     * @param limit The maximum number of messages to return
+     * @return The messages
+     * @throws IOException If the history cannot be read
+     */
+    public synchronized List<Message> getSince(long lastSeenId, int limit) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        Long first = segments.floorKey(lastSeenId + 1);
+        if (first == null) {
+            first = segments.isEmpty() ? null : segments.firstKey();
+        }
+        if (first == null) {
+            return messages;
+        }
+        for (Segment segment : segments.tailMap(first, true).values()) {
+            segment.read(segment.positionOf(lastSeenId + 1), Long.MAX_VALUE, msg -> {
+                if (msg.getId() > lastSeenId && messages.size() < limit) {
+                    messages.add(msg);
+                }
+                return messages.size() < limit;
+            });
+            if (messages.size() == limit) {
+                break;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the most recent stored messages with an id lower than the given one, oldest first.
+     *
+     * @param beforeId The id of the oldest message already loaded
+     * @param limit The maximum number of messages to return
+     * @return The messages, fewer than {@code limit} if the store does not hold enough of them
+     * @throws IOException If the history cannot be read
+     */
+    public synchronized List<Message> getBefore(long beforeId, int limit) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        for (Segment segment : segments.headMap(beforeId, false).descendingMap().values()) {
+            // Every index interval holds INDEX_INTERVAL messages, start far enough back to find the missing ones
+            int needed = limit - messages.size();
+            int entry = Math.max(0, segment.entryOf(beforeId) - (needed + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+            ArrayDeque<Message> window = new ArrayDeque<>(needed + 1);
+            segment.read(segment.index.get(entry * 2 + 1), beforeId, msg -> {
+                window.addLast(msg);
+                if (window.size() > needed) {
+                    window.pollFirst();
+                }
+                return true;
+            });
+            List<Message> older = new ArrayList<>(window);
+            older.addAll(messages);
+            messages = older;
+            if (messages.size() >= limit) {
+                break;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Releases the files of the store.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        lock.release();
+        lockChannel.close();
+    }
+
+    private Segment roll(long firstId) throws IOException {
+        String name = String.format("%020d", firstId);
+        Segment segment = new Segment(directory.resolve(name + SEGMENT_SUFFIX), directory.resolve(name + INDEX_SUFFIX));
+        segments.put(firstId, segment);
+        while (segments.size() > maxSegments) {
+            segments.pollFirstEntry().getValue().delete();
+        }
+        return segment;
+    }
+
+    /**
+     * Receives the records read from a segment.
+     */
+    private interface RecordVisitor {
+        /**
+         * @return whether to keep reading
+         */
+        boolean visit(Message msg);
+    }
+
+    /**
+     * A segment file and its sparse index.
+     */
+    private static class Segment {
+        private final Path file;
+        private final Path indexFile;
+        /** Pairs of (id, position) of every INDEX_INTERVAL-th record */
+        private List<Long> index = new ArrayList<>();
+        private long size;
+        private int records;
+        private FileChannel channel;
+        private FileChannel indexChannel;
+        private MappedByteBuffer mapped;
+        private final ByteBuffer pending = ByteBuffer.allocate(64 << 10);
+        private final ByteBuffer pendingIndex = ByteBuffer.allocate(4 << 10);
+
+        Segment(Path file, Path indexFile) {
+            this.file = file;
+            this.indexFile = indexFile;
+        }
+
+        void loadIndex() throws IOException {
+            size = Files.size(file);
+            if (Files.exists(indexFile)) {
+                ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+                while (content.remaining() >= INDEX_ENTRY_SIZE) {
+                    long id = content.getLong();
+                    long position = content.getInt();
+                    if (position < size) {
+                        index.add(id);
+                        index.add(position);
+                    }
+                }
+            }
+            records = index.size() / 2 * INDEX_INTERVAL;
+        }
+
+        /**
+         * Scans the records following the last index entry, dropping a torn record
+         * at the end and rebuilding the index entries that were not written.
+         *
+         * @return the id of the last valid record, or 0 if there is none
+         */
+        long recover() throws IOException {
+            long start = index.isEmpty() ? 0 : index.get(index.size() - 1);
+            records = Math.max(0, index.size() / 2 - 1) * INDEX_INTERVAL;
+            List<Long> rebuilt = new ArrayList<>(index.subList(0, Math.max(0, index.size() - 2)));
+            long lastValid = 0;
+            ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+            content.position((int) start);
+            while (true) {
+                int position = content.position();
+                Message msg = decode(content);
+                if (msg == null) {
+                    content.position(position);
+                    break;
+                }
+                if (records % INDEX_INTERVAL == 0) {
+                    rebuilt.add(msg.getId());
+                    rebuilt.add((long) position);
+                }
+                records++;
+                lastValid = msg.getId();
+            }
+            size = content.position();
+            index = rebuilt;
+            if (Files.size(file) > size) {
+                System.err.println("Discarding a torn record at the end of " + file);
+            }
+
+            // Rewrite the index, then cut the segment to its valid part
+            ByteBuffer indexContent = ByteBuffer.allocate(index.size() / 2 * INDEX_ENTRY_SIZE);
+            for (int i = 0; i < index.size(); i += 2) {
+                indexContent.putLong(index.get(i)).putInt(index.get(i + 1).intValue());
+            }
+            Files.write(indexFile, indexContent.array());
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                out.truncate(size);
+            }
+            return lastValid;
+        }
+
+        void write(Message msg) throws IOException {
+            byte[] nick = msg.getNick().getBytes(StandardCharsets.UTF_8);
+            byte[] text = msg.getMessage().getBytes(StandardCharsets.UTF_8);
+            int bodyLength = 8 + 8 + 4 + nick.length + 4 + text.length;
+            if (pending.remaining() < 8 + bodyLength) {
+                flush();
+            }
+            if (records % INDEX_INTERVAL == 0) {
+                index.add(msg.getId());
+                index.add(size);
+                if (pendingIndex.remaining() < INDEX_ENTRY_SIZE) {
+                    flush();
+                }
+                pendingIndex.putLong(msg.getId()).putInt((int) size);
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            body.putLong(msg.getId()).putLong(msg.getTimestamp() != null ? msg.getTimestamp().getTime() : -1)
+                    .putInt(nick.length).put(nick).putInt(text.length).put(text);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            ByteBuffer record = pending.remaining() >= 8 + bodyLength ? pending : ByteBuffer.allocate(8 + bodyLength);
+            record.putInt(bodyLength).putInt((int) crc.getValue()).put(body.array());
+            if (record != pending) {
+                record.flip();
+                writeFully(openChannel(), record);
+            }
+            size += 8 + bodyLength;
+            records++;
+        }
+
+        void flush() throws IOException {
+            if (pending.position() > 0) {
+                pending.flip();
+                writeFully(openChannel(), pending);
+                pending.clear();
+            }
+            if (pendingIndex.position() > 0) {
+                if (indexChannel == null) {
+                    indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+                }
+                pendingIndex.flip();
+                writeFully(indexChannel, pendingIndex);
+                pendingIndex.clear();
+            }
+        }
+
+        /**
+         * @return the number of the last index entry whose id is lower than the given one
+         */
+        int entryOf(long id) {
+            int low = 0;
+            int high = index.size() / 2 - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (index.get(mid * 2) < id) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the position to start reading from to find the given id
+         */
+        long positionOf(long id) {
+            return index.isEmpty() ? 0 : index.get(entryOf(id) * 2 + 1);
+        }
+
+        /**
+         * Reads the records from the given position until one with an id of at least {@code endId}.
+         */
+        void read(long position, long endId, RecordVisitor visitor) throws IOException {
+            if (size == 0) {
+                return;
+            }
+            if (mapped == null || mapped.capacity() < size) {
+                // Remap whenever the segment grew since the last read
+                mapped = openChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer content = mapped.duplicate();
+            content.position((int) position);
+            Message msg;
+            while ((msg = decode(content)) != null && msg.getId() < endId) {
+                if (!visitor.visit(msg)) {
+                    return;
+                }
+            }
+        }
+
+        void close() throws IOException {
+            flush();
+            mapped = null;
+            if (channel != null) {
+                channel.close();
+            }
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+        }
+
+        void delete() throws IOException {
+            close();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(indexFile);
+        }
+
+        private FileChannel openChannel() throws IOException {
+            if (channel == null) {
+                // Opened for reading too so it can be mapped; writes position at the end explicitly
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            channel.position(channel.size());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * @return the record at the buffer's position, or null at the end or on a torn record
+         */
+        private static Message decode(ByteBuffer content) {
+            if (content.remaining() < 8) {
+                return null;
+            }
+            int start = content.position();
+            int length = content.getInt();
+            int checksum = content.getInt();
+            if (length < 24 || length > content.remaining()) {
+                content.position(start);
+                return null;
+            }
+            byte[] body = new byte[length];
+            content.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                content.position(start);
+                return null;
+            }
+            ByteBuffer in = ByteBuffer.wrap(body);
+            long id = in.getLong();
+            long ts = in.getLong();
+            byte[] nick = new byte[in.getInt()];
+            in.get(nick);
+            byte[] text = new byte[in.getInt()];
+            in.get(text);
+            return new Message(id, new String(nick, StandardCharsets.UTF_8), new String(text, StandardCharsets.UTF_8),
+                    ts >= 0 ? new Timestamp(ts) : null);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package model;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import utilities.ChatException;
+
+/**
+ * Message model backed by an {@link InMemoryStore} instead of the database.
+ * Messages are sent under the nickname of the {@link InMemorySession}.
+ */
+public class InMemoryMessageModel implements MessageInterface {
+    private static final int PAGE_SIZE = 1000;
+
+    private final InMemoryStore store;
+    private final InMemorySession session;
+
+    /**
+     * @param store The store holding the messages
+     * @param session The session of the client using this model
+     */
+    public InMemoryMessageModel(InMemoryStore store, InMemorySession session) {
+        this.store = store;
+        this.session = session;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(String room, String message) throws ChatException {
+        String nick = session.getNick();
+        if (nick == null) {
+            throw new ChatException("Error sending message: user is not connected");
+        }
+        store.append(room, nick, message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessages(String room, List<String> messages) throws ChatException {
+        String nick = session.getNick();
+        if (nick == null) {
+            throw new ChatException("Error sending messages: user is not connected");
+        }
+        boolean[] sent = new boolean[messages.size()];
+        for (int i = 0; i < sent.length; i++) {
+            store.append(room, nick, messages.get(i));
+            sent[i] = true;
+        }
+        return sent;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessagesOnce(String room, List<OutgoingMessage> messages) throws ChatException {
+        String nick = session.getNick();
+        if (nick == null) {
+            throw new ChatException("Error sending messages: user is not connected");
+        }
+        boolean[] sent = new boolean[messages.size()];
+        for (int i = 0; i < sent.length; i++) {
+            store.appendOnce(room, nick, messages.get(i).getKey(), messages.get(i).getMessage());
+            sent[i] = true;
+        }
+        return sent;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Returns the messages sent to the default room since the previous call in
+     * this session, like the getMessages() procedure does.
+     */
+    @Override
+    public List<Message> getAll() throws ChatException {
+        List<Message> messages = new ArrayList<>();
+        List<Message> page;
+        do {
+            page = store.getSince(Message.DEFAULT_ROOM, session.getCursor(), PAGE_SIZE);
+            if (!page.isEmpty()) {
+                messages.addAll(page);
+                session.setCursor(page.get(page.size() - 1).getId());
+            }
+        } while (page.size() == PAGE_SIZE);
+        return messages;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getSince(String room, long lastSeenId, int limit) throws ChatException {
+        return store.getSince(room, lastSeenId, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getBefore(String room, long beforeId, int limit) throws ChatException {
+        return store.getBefore(room, beforeId, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getRooms() throws ChatException {
+        return store.getRooms();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Nothing to close, no database resources are used.
+     */
+    @Override
+    public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+    }
+}
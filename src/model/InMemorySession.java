@@ -0,0 +1,27 @@
+package model;
+
+/**
+ * State of one client of an {@link InMemoryStore}: the role played by the
+ * database session for the MySQL procedures.
+ */
+public class InMemorySession {
+    private volatile String nick;
+    private volatile long cursor;
+
+    /**
+     * Creates a session starting at the current end of the default room, so that
+     * {@link InMemoryMessageModel#getAll()} only returns messages sent from now on.
+     *
+     * @param store The store the session reads from
+     */
+    public InMemorySession(InMemoryStore store) {
+        this.cursor = store.getLastId(Message.DEFAULT_ROOM);
+    }
+
+    // Getters and setters
+    public String getNick() { return nick; }
+    public void setNick(String nick) { this.nick = nick; }
+
+    public long getCursor() { return cursor; }
+    public void setCursor(long cursor) { this.cursor = cursor; }
+}
@@ -0,0 +1,300 @@
+package model;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent in-memory replacement for the chat database, shared by the
+ * {@link InMemoryUserModel} and {@link InMemoryMessageModel} of every session
+ * in the JVM.
+ * <p>
+ * Each room has its own append-only log split in fixed-size chunks, so writers
+ * to different rooms never touch the same counters. Writers reserve a slot with
+ * an atomic counter and fill it, without waiting for each other. Readers never
+ * lock; they stop at the first slot still being written, so they never skip a message.
+ * Connected users are kept in a concurrent map keyed by nickname, with the
+ * time of their last heartbeat. As the database does, the store owns the
+ * presence lease: reading the connected users first disconnects those whose
+ * lease expired, at most a few times per lease.
+ */
+public class InMemoryStore {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 16;
+    /** Number of most recent idempotency keys remembered */
+    private static final int SENT_KEYS_WINDOW = 1 << 16;
+    /** Time after which a user that stopped sending heartbeats is disconnected, as chat_settings.presence_lease */
+    public static final long PRESENCE_LEASE = 90000; // milliseconds
+    private static final int REAPS_PER_LEASE = 3;
+
+    private static final InMemoryStore DEFAULT = new InMemoryStore();
+
+    private final ConcurrentMap<String, RoomLog> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, User> connected = new ConcurrentHashMap<>();
+    /** Time of the last heartbeat of each connected user, in milliseconds */
+    private final ConcurrentMap<String, Long> heartbeats = new ConcurrentHashMap<>();
+    /** Idempotency keys of the latest messages appended with {@link #appendOnce} */
+    private final Set<String> sentKeys = ConcurrentHashMap.newKeySet();
+    /** The same keys, oldest first, so that the oldest are forgotten */
+    private final ConcurrentLinkedQueue<String> sentKeyOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sentKeyCount = new AtomicInteger();
+    /** Time before which the expired users are not looked for again, in milliseconds */
+    private final AtomicLong nextReap = new AtomicLong();
+
+    /**
+     * @return the store shared by the in-memory models created from the configuration
+     */
+    public static InMemoryStore getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Appends a message to the log of the default room.
+     *
+     * @param nick The nickname of the sender
+     * @param text The content of the message
+     * @return The stored message
+     */
+    public Message append(String nick, String text) {
+        return append(Message.DEFAULT_ROOM, nick, text);
+    }
+
+    /**
+     * Appends a message to the log of a room. The message id is its position in the log plus one.
+     *
+     * @param room The room of the message
+     * @param nick The nickname of the sender
+     * @param text The content of the message
+     * @return The stored message
+     */
+    public Message append(String room, String nick, String text) {
+        return log(room).append(room, nick, text);
+    }
+
+    /**
+     * Appends a message unless one was already appended with the same idempotency key.
+     * Only the last {@value #SENT_KEYS_WINDOW} keys are remembered: outboxes retry
+     * a message long before that many newer ones were sent.
+     *
+     * @param room The room of the message
+     * @param nick The nickname of the sender
+     * @param key The idempotency key of the message
+     * @param text The content of the message
+     * @return The stored message, or null if the key was already used
+     */
+    public Message appendOnce(String room, String nick, String key, String text) {
+        if (!sentKeys.add(key)) {
+            return null;
+        }
+        sentKeyOrder.add(key);
+        if (sentKeyCount.incrementAndGet() > SENT_KEYS_WINDOW) {
+            String oldest = sentKeyOrder.poll();
+            if (oldest != null) {
+                sentKeys.remove(oldest);
+                sentKeyCount.decrementAndGet();
+            }
+        }
+        return append(room, nick, text);
+    }
+
+    /**
+     * Returns the messages of a room with an id greater than the given one, oldest first.
+     *
+     * @param room The room
+     * @param lastSeenId The id of the last message already seen
+     * @param limit The maximum number of messages to return
+     * @return The messages
+     */
+    public List<Message> getSince(String room, long lastSeenId, int limit) {
+        RoomLog log = rooms.get(room);
+        return log == null ? new ArrayList<>() : log.getSince(lastSeenId, limit);
+    }
+
+    /**
+     * Returns the most recent messages of a room with an id lower than the given one, oldest first.
+     *
+     * @param room The room
+     * @param beforeId The id of the oldest message already loaded
+     * @param limit The maximum number of messages to return
+     * @return The messages
+     */
+    public List<Message> getBefore(String room, long beforeId, int limit) {
+        RoomLog log = rooms.get(room);
+        return log == null ? new ArrayList<>() : log.getBefore(beforeId, limit);
+    }
+
+    /**
+     * @param room The room
+     * @return the id of the newest message of the room, 0 if there is none
+     */
+    public long getLastId(String room) {
+        RoomLog log = rooms.get(room);
+        return log == null ? 0 : log.publishedCount();
+    }
+
+    /**
+     * @return the names of the rooms holding messages, and of the default room, sorted
+     */
+    public List<String> getRooms() {
+        List<String> names = new ArrayList<>(rooms.keySet());
+        if (!rooms.containsKey(Message.DEFAULT_ROOM)) {
+            names.add(Message.DEFAULT_ROOM);
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Marks a user as connected.
+     *
+     * @param nick The nickname of the user
+     * @return false if a user with that nickname is already connected
+     */
+    public boolean connect(String nick) {
+        long now = System.currentTimeMillis();
+        if (connected.putIfAbsent(nick, new User(nick, new Timestamp(now))) != null) {
+            return false;
+        }
+        heartbeats.put(nick, now);
+        return true;
+    }
+
+    /**
+     * Renews the lease of a user, connecting it again if it was reaped.
+     *
+     * @param nick The nickname of the user
+     */
+    public void heartbeat(String nick) {
+        long now = System.currentTimeMillis();
+        heartbeats.put(nick, now);
+        connected.putIfAbsent(nick, new User(nick, new Timestamp(now)));
+    }
+
+    /**
+     * Disconnects the users whose last heartbeat is older than the lease,
+     * unless it was done less than a fraction of the lease ago.
+     */
+    private void reapExpired() {
+        long now = System.currentTimeMillis();
+        long next = nextReap.get();
+        if (now < next || !nextReap.compareAndSet(next, now + PRESENCE_LEASE / REAPS_PER_LEASE)) {
+            return;
+        }
+        long expiry = now - PRESENCE_LEASE;
+        for (Map.Entry<String, Long> entry : heartbeats.entrySet()) {
+            // Only removed if no heartbeat arrived since it was read
+            if (entry.getValue() < expiry && heartbeats.remove(entry.getKey(), entry.getValue())) {
+                connected.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Marks a user as disconnected.
+     *
+     * @param nick The nickname of the user
+     */
+    public void disconnect(String nick) {
+        heartbeats.remove(nick);
+        connected.remove(nick);
+    }
+
+    /**
+     * @return the connected users whose lease has not expired, by connection date
+     */
+    public List<User> getConnectedUsers() {
+        reapExpired();
+        List<User> users = new ArrayList<>(connected.values());
+        Collections.sort(users, Comparator.comparing(User::getDateCon).thenComparing(User::getNick));
+        return users;
+    }
+
+    private RoomLog log(String room) {
+        RoomLog log = rooms.get(room);
+        return log != null ? log : rooms.computeIfAbsent(room, r -> new RoomLog());
+    }
+
+    /**
+     * Message log of one room.
+     */
+    private static class RoomLog {
+        private final AtomicReferenceArray<AtomicReferenceArray<Message>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        /** Number of slots handed out to writers */
+        private final AtomicLong reserved = new AtomicLong();
+        /** Number of slots known to be filled, all of them below this count */
+        private final AtomicLong published = new AtomicLong();
+
+        Message append(String room, String nick, String text) {
+            long index = reserved.getAndIncrement();
+            if (index >= (long) MAX_CHUNKS * CHUNK_SIZE) {
+                throw new IllegalStateException("In-memory message log of " + room + " is full");
+            }
+            Message msg = new Message(index + 1, room, nick, text, new Timestamp(System.currentTimeMillis()));
+            chunk(index).set((int) (index & (CHUNK_SIZE - 1)), msg);
+            return msg;
+        }
+
+        List<Message> getSince(long lastSeenId, int limit) {
+            long end = Math.min(publishedCount(), Math.max(0, lastSeenId) + limit);
+            List<Message> messages = new ArrayList<>((int) Math.max(0, end - lastSeenId));
+            for (long index = Math.max(0, lastSeenId); index < end; index++) {
+                messages.add(get(index));
+            }
+            return messages;
+        }
+
+        List<Message> getBefore(long beforeId, int limit) {
+            long end = Math.min(publishedCount(), beforeId - 1);
+            long start = Math.max(0, end - limit);
+            List<Message> messages = new ArrayList<>((int) Math.max(0, end - start));
+            for (long index = start; index < end; index++) {
+                messages.add(get(index));
+            }
+            return messages;
+        }
+
+        /**
+         * Counts the slots filled without a gap from the start of the log.
+         *
+         * @return The number of readable messages
+         */
+        long publishedCount() {
+            long count = published.get();
+            long limit = reserved.get();
+            while (count < limit && get(count) != null) {
+                count++;
+            }
+            published.accumulateAndGet(count, Math::max);
+            return count;
+        }
+
+        /**
+         * @return the message in the slot, or null while it is being written
+         */
+        private Message get(long index) {
+            AtomicReferenceArray<Message> chunk = chunks.get((int) (index >>> CHUNK_BITS));
+            return chunk == null ? null : chunk.get((int) (index & (CHUNK_SIZE - 1)));
+        }
+
+        private AtomicReferenceArray<Message> chunk(long index) {
+            int chunkIndex = (int) (index >>> CHUNK_BITS);
+            AtomicReferenceArray<Message> chunk = chunks.get(chunkIndex);
+            if (chunk == null) {
+                chunks.compareAndSet(chunkIndex, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+                chunk = chunks.get(chunkIndex);
+            }
+            return chunk;
+        }
+    }
+}
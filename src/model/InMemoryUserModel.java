@@ -0,0 +1,77 @@
+package model;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.List;
+
+import utilities.ChatException;
+
+/**
+ * User model backed by an {@link InMemoryStore} instead of the database.
+ * Shares its {@link InMemorySession} with the message model of the same client.
+ */
+public class InMemoryUserModel implements UserInterface {
+    private final InMemoryStore store;
+    private final InMemorySession session;
+
+    /**
+     * @param store The store holding the connected users
+     * @param session The session of the client using this model
+     */
+    public InMemoryUserModel(InMemoryStore store, InMemorySession session) {
+        this.store = store;
+        this.session = session;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void connect(String nick) throws ChatException {
+        if (!store.connect(nick)) {
+            throw new ChatException("Error connecting user: nickname " + nick + " is already in use");
+        }
+        session.setNick(nick);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disconnect() throws ChatException {
+        String nick = session.getNick();
+        if (nick != null) {
+            store.disconnect(nick);
+            session.setNick(null);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void heartbeat() throws ChatException {
+        String nick = session.getNick();
+        if (nick == null) {
+            throw new ChatException("Error renewing presence: user is not connected");
+        }
+        store.heartbeat(nick);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<User> getAll() throws ChatException {
+        return store.getConnectedUsers();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Nothing to close, no database resources are used.
+     */
+    @Override
+    public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+    }
+}
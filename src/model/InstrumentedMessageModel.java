@@ -0,0 +1,201 @@
+package model;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import utilities.ChatException;
+import utilities.Counter;
+import utilities.LatencyTimer;
+import utilities.MetricsRegistry;
+
+/**
+ * Message model that times every call to the wrapped model and counts its
+ * errors in a {@link MetricsRegistry}, under {@code model.message.<method>}.
+ */
+public class InstrumentedMessageModel implements MessageInterface {
+    private static final String PREFIX = "model.message.";
+
+    private final MessageInterface delegate;
+    private final LatencyTimer sendMessageTimer;
+    private final Counter sendMessageErrors;
+    private final LatencyTimer sendMessagesTimer;
+    private final Counter sendMessagesErrors;
+    private final LatencyTimer sendMessagesOnceTimer;
+    private final Counter sendMessagesOnceErrors;
+    private final LatencyTimer getAllTimer;
+    private final Counter getAllErrors;
+    private final LatencyTimer streamTimer;
+    private final Counter streamErrors;
+    private final LatencyTimer getSinceTimer;
+    private final Counter getSinceErrors;
+    private final LatencyTimer getBeforeTimer;
+    private final Counter getBeforeErrors;
+    private final LatencyTimer getRoomsTimer;
+    private final Counter getRoomsErrors;
+
+    /**
+     * Wraps a message model.
+     *
+     * @param delegate The model to instrument
+     * @param metrics The registry the metrics are recorded in
+     */
+    public InstrumentedMessageModel(MessageInterface delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.sendMessageTimer = metrics.timer(PREFIX + "sendMessage");
+        this.sendMessageErrors = metrics.counter(PREFIX + "sendMessage.errors");
+        this.sendMessagesTimer = metrics.timer(PREFIX + "sendMessages");
+        this.sendMessagesErrors = metrics.counter(PREFIX + "sendMessages.errors");
+        this.sendMessagesOnceTimer = metrics.timer(PREFIX + "sendMessagesOnce");
+        this.sendMessagesOnceErrors = metrics.counter(PREFIX + "sendMessagesOnce.errors");
+        this.getAllTimer = metrics.timer(PREFIX + "getAll");
+        this.getAllErrors = metrics.counter(PREFIX + "getAll.errors");
+        this.streamTimer = metrics.timer(PREFIX + "stream");
+        this.streamErrors = metrics.counter(PREFIX + "stream.errors");
+        this.getSinceTimer = metrics.timer(PREFIX + "getSince");
+        this.getSinceErrors = metrics.counter(PREFIX + "getSince.errors");
+        this.getBeforeTimer = metrics.timer(PREFIX + "getBefore");
+        this.getBeforeErrors = metrics.counter(PREFIX + "getBefore.errors");
+        this.getRoomsTimer = metrics.timer(PREFIX + "getRooms");
+        this.getRoomsErrors = metrics.counter(PREFIX + "getRooms.errors");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(String room, String message) throws ChatException {
+        long start = sendMessageTimer.start();
+        try {
+            delegate.sendMessage(room, message);
+        } catch (ChatException | RuntimeException e) {
+            sendMessageErrors.increment();
+            throw e;
+        } finally {
+            sendMessageTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessages(String room, List<String> messages) throws ChatException {
+        long start = sendMessagesTimer.start();
+        try {
+            return delegate.sendMessages(room, messages);
+        } catch (ChatException | RuntimeException e) {
+            sendMessagesErrors.increment();
+            throw e;
+        } finally {
+            sendMessagesTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessagesOnce(String room, List<OutgoingMessage> messages) throws ChatException {
+        long start = sendMessagesOnceTimer.start();
+        try {
+            return delegate.sendMessagesOnce(room, messages);
+        } catch (ChatException | RuntimeException e) {
+            sendMessagesOnceErrors.increment();
+            throw e;
+        } finally {
+            sendMessagesOnceTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getAll() throws ChatException {
+        long start = getAllTimer.start();
+        try {
+            return delegate.getAll();
+        } catch (ChatException | RuntimeException e) {
+            getAllErrors.increment();
+            throw e;
+        } finally {
+            getAllTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the time to open the stream is recorded, not the time spent consuming it.
+     */
+    @Override
+    public Stream<Message> stream() throws ChatException {
+        long start = streamTimer.start();
+        try {
+            return delegate.stream();
+        } catch (ChatException | RuntimeException e) {
+            streamErrors.increment();
+            throw e;
+        } finally {
+            streamTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getSince(String room, long lastSeenId, int limit) throws ChatException {
+        long start = getSinceTimer.start();
+        try {
+            return delegate.getSince(room, lastSeenId, limit);
+        } catch (ChatException | RuntimeException e) {
+            getSinceErrors.increment();
+            throw e;
+        } finally {
+            getSinceTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getBefore(String room, long beforeId, int limit) throws ChatException {
+        long start = getBeforeTimer.start();
+        try {
+            return delegate.getBefore(room, beforeId, limit);
+        } catch (ChatException | RuntimeException e) {
+            getBeforeErrors.increment();
+            throw e;
+        } finally {
+            getBeforeTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getRooms() throws ChatException {
+        long start = getRoomsTimer.start();
+        try {
+            return delegate.getRooms();
+        } catch (ChatException | RuntimeException e) {
+            getRoomsErrors.increment();
+            throw e;
+        } finally {
+            getRoomsTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+        delegate.closeResources(conn, stmt, rs);
+    }
+}
@@ -0,0 +1,141 @@
+package model;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import utilities.ChatException;
+import utilities.Counter;
+import utilities.LatencyTimer;
+import utilities.MetricsRegistry;
+
+/**
+ * User model that times every call to the wrapped model and counts its errors
+ * in a {@link MetricsRegistry}, under {@code model.user.<method>}.
+ */
+public class InstrumentedUserModel implements UserInterface {
+    private static final String PREFIX = "model.user.";
+
+    private final UserInterface delegate;
+    private final LatencyTimer connectTimer;
+    private final Counter connectErrors;
+    private final LatencyTimer disconnectTimer;
+    private final Counter disconnectErrors;
+    private final LatencyTimer heartbeatTimer;
+    private final Counter heartbeatErrors;
+    private final LatencyTimer getAllTimer;
+    private final Counter getAllErrors;
+    private final LatencyTimer streamTimer;
+    private final Counter streamErrors;
+
+    /**
+     * Wraps a user model.
+     *
+     * @param delegate The model to instrument
+     * @param metrics The registry the metrics are recorded in
+     */
+    public InstrumentedUserModel(UserInterface delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.connectTimer = metrics.timer(PREFIX + "connect");
+        this.connectErrors = metrics.counter(PREFIX + "connect.errors");
+        this.disconnectTimer = metrics.timer(PREFIX + "disconnect");
+        this.disconnectErrors = metrics.counter(PREFIX + "disconnect.errors");
+        this.heartbeatTimer = metrics.timer(PREFIX + "heartbeat");
+        this.heartbeatErrors = metrics.counter(PREFIX + "heartbeat.errors");
+        this.getAllTimer = metrics.timer(PREFIX + "getAll");
+        this.getAllErrors = metrics.counter(PREFIX + "getAll.errors");
+        this.streamTimer = metrics.timer(PREFIX + "stream");
+        this.streamErrors = metrics.counter(PREFIX + "stream.errors");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void connect(String nick) throws ChatException {
+        long start = connectTimer.start();
+        try {
+            delegate.connect(nick);
+        } catch (ChatException | RuntimeException e) {
+            connectErrors.increment();
+            throw e;
+        } finally {
+            connectTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disconnect() throws ChatException {
+        long start = disconnectTimer.start();
+        try {
+            delegate.disconnect();
+        } catch (ChatException | RuntimeException e) {
+            disconnectErrors.increment();
+            throw e;
+        } finally {
+            disconnectTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void heartbeat() throws ChatException {
+        long start = heartbeatTimer.start();
+        try {
+            delegate.heartbeat();
+        } catch (ChatException | RuntimeException e) {
+            heartbeatErrors.increment();
+            throw e;
+        } finally {
+            heartbeatTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<User> getAll() throws ChatException {
+        long start = getAllTimer.start();
+        try {
+            return delegate.getAll();
+        } catch (ChatException | RuntimeException e) {
+            getAllErrors.increment();
+            throw e;
+        } finally {
+            getAllTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only the time to open the stream is recorded, not the time spent consuming it.
+     */
+    @Override
+    public Stream<User> stream() throws ChatException {
+        long start = streamTimer.start();
+        try {
+            return delegate.stream();
+        } catch (ChatException | RuntimeException e) {
+            streamErrors.increment();
+            throw e;
+        } finally {
+            streamTimer.stop(start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+        delegate.closeResources(conn, stmt, rs);
+    }
+}
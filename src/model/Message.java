@@ -1,9 +1,15 @@
 package model;
 
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
+
+import utilities.TimestampFormatter;
 
 public class Message {
+    /** Room of the messages sent without naming one, and of the chat before rooms existed */
+    public static final String DEFAULT_ROOM = "general";
+
+    private long id;
+    private String room = DEFAULT_ROOM;
     private String nick;
     private String message;
     private Timestamp timestamp;
@@ -21,7 +27,40 @@ public class Message {
         this.timestamp = timestamp;
     }
 
+    /**
+     * Constructs a Message with the specified id, sender, content, and timestamp.
+     *
+     * @param id The id assigned to the message by the database
+     * @param nick The nickname of the sender
+     * @param message The content of the message
+     * @param timestamp The timestamp when the message was sent
+     */
+    public Message(long id, String nick, String message, Timestamp timestamp) {
+        this(nick, message, timestamp);
+        this.id = id;
+    }
+
+    /**
+     * Constructs a Message of the given room.
+     *
+     * @param id The id assigned to the message by the database, unique within its room
+     * @param room The room the message was sent to
+     * @param nick The nickname of the sender
+     * @param message The content of the message
+     * @param timestamp The timestamp when the message was sent
+     */
+    public Message(long id, String room, String nick, String message, Timestamp timestamp) {
+        this(id, nick, message, timestamp);
+        this.room = room;
+    }
+
     // Getters and setters
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
+
+    public String getRoom() { return room; }
+    public void setRoom(String room) { this.room = room; }
+
     public String getNick() { return nick; }
     public void setNick(String nick) { this.nick = nick; }
 
@@ -39,8 +78,7 @@ public class Message {
      */
     @Override
     public String toString() {
-    	String sTimestamp = new SimpleDateFormat("dd/MM/yyyy HH:mm").format(timestamp);
-    	return "[" + sTimestamp + "] " + nick + ": " + message;
+    	return "[" + TimestampFormatter.format(timestamp) + "] " + nick + ": " + message;
     }
 }
 
@@ -1,21 +1,107 @@
 package model;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import utilities.ChatException;
 
 /**
  * Interface for Message Data Access Object.
  * Defines operations for message management in the chat application.
+ * <p>
+ * Messages belong to a room, and each room is a separate stream with its own
+ * ids: a message id is only unique, and only ordered, within its room. The
+ * operations that name no room work on {@link Message#DEFAULT_ROOM}.
  */
 public interface MessageInterface extends DAO<Message> {
     
     /**
-     * Sends a message to the chat.
+     * Sends a message to the default room.
      * 
      * @param message The content of the message to send
      * @throws ChatException If there is an error sending the message
      */
-    void sendMessage(String message) throws ChatException;
+    default void sendMessage(String message) throws ChatException {
+        sendMessage(Message.DEFAULT_ROOM, message);
+    }
+    
+    /**
+     * Sends a message to a room.
+     * 
+     * @param room The room to send the message to
+     * @param message The content of the message to send
+     * @throws ChatException If there is an error sending the message
+     */
+    void sendMessage(String room, String message) throws ChatException;
+    
+    /**
+     * Sends several messages to the default room, see {@link #sendMessages(String, List)}.
+     * 
+     * @param messages The contents of the messages to send, in sending order
+     * @return Whether each message was sent, in the same order as {@code messages}
+     * @throws ChatException If the batch could not be sent at all
+     */
+    default boolean[] sendMessages(List<String> messages) throws ChatException {
+        return sendMessages(Message.DEFAULT_ROOM, messages);
+    }
+    
+    /**
+     * Sends several messages to a room in order, in as few round trips as the implementation allows.
+     * The default implementation sends them one by one.
+     * 
+     * The returned array is shorter than {@code messages} when the batch stopped at
+     * a rejected message: the messages after it were not attempted and may be sent again.
+     * 
+     * @param room The room to send the messages to
+     * @param messages The contents of the messages to send, in sending order
+     * @return Whether each message was sent, in the same order as {@code messages}
+     * @throws ChatException If the batch could not be sent at all
+     */
+    default boolean[] sendMessages(String room, List<String> messages) throws ChatException {
+        boolean[] sent = new boolean[messages.size()];
+        for (int i = 0; i < sent.length; i++) {
+            try {
+                sendMessage(room, messages.get(i));
+                sent[i] = true;
+            } catch (ChatException e) {
+                System.err.println("Error sending message: " + e.getMessage());
+            }
+        }
+        return sent;
+    }
+    
+    /**
+     * Sends several messages to the default room, each at most once, see
+     * {@link #sendMessagesOnce(String, List)}.
+     * 
+     * @param messages The messages to send, in sending order
+     * @return Whether each message is now stored, in the same order as {@code messages}
+     * @throws ChatException If the batch could not be sent at all; it may then be retried
+     */
+    default boolean[] sendMessagesOnce(List<OutgoingMessage> messages) throws ChatException {
+        return sendMessagesOnce(Message.DEFAULT_ROOM, messages);
+    }
+    
+    /**
+     * Sends several messages to a room in order, each at most once: a message whose
+     * key was already stored is reported as sent without being stored again, so a
+     * batch whose outcome is unknown can be retried.
+     * The default implementation ignores the keys and offers no such guarantee.
+     * As with {@link #sendMessages(String, List)}, the messages beyond the length of
+     * the returned array were not attempted, and may be sent again under their keys.
+     * 
+     * @param room The room to send the messages to
+     * @param messages The messages to send, in sending order
+     * @return Whether each message is now stored, in the same order as {@code messages}
+     * @throws ChatException If the batch could not be sent at all; it may then be retried
+     */
+    default boolean[] sendMessagesOnce(String room, List<OutgoingMessage> messages) throws ChatException {
+        List<String> contents = new ArrayList<>(messages.size());
+        for (OutgoingMessage msg : messages) {
+            contents.add(msg.getMessage());
+        }
+        return sendMessages(room, contents);
+    }
     
     /**
      * Retrieves messages from the chat system.
@@ -26,4 +112,66 @@ public interface MessageInterface extends DAO<Message> {
      */
     @Override
     List<Message> getAll() throws ChatException;
+    
+    /**
+     * Retrieves the messages of the default room with an id greater than the given one,
+     * see {@link #getSince(String, long, int)}.
+     * 
+     * @param lastSeenId The id of the last message already seen, or 0 to start from the beginning
+     * @param limit The maximum number of messages to return
+     * @return List of at most {@code limit} Message objects ordered by id
+     * @throws ChatException If there is an error retrieving messages
+     */
+    default List<Message> getSince(long lastSeenId, int limit) throws ChatException {
+        return getSince(Message.DEFAULT_ROOM, lastSeenId, limit);
+    }
+    
+    /**
+     * Retrieves the messages of a room with an id greater than the given one, oldest first.
+     * The caller owns the cursor: passing the id of the last message it has seen
+     * makes the call idempotent and lets it page through a long backlog.
+     * 
+     * @param room The room to read
+     * @param lastSeenId The id of the last message already seen, or 0 to start from the beginning
+     * @param limit The maximum number of messages to return
+     * @return List of at most {@code limit} Message objects ordered by id
+     * @throws ChatException If there is an error retrieving messages
+     */
+    List<Message> getSince(String room, long lastSeenId, int limit) throws ChatException;
+    
+    /**
+     * Retrieves the most recent messages of the default room with an id lower than
+     * the given one, see {@link #getBefore(String, long, int)}.
+     * 
+     * @param beforeId The id of the oldest message already loaded
+     * @param limit The maximum number of messages to return
+     * @return List of at most {@code limit} Message objects ordered by id
+     * @throws ChatException If there is an error retrieving messages
+     */
+    default List<Message> getBefore(long beforeId, int limit) throws ChatException {
+        return getBefore(Message.DEFAULT_ROOM, beforeId, limit);
+    }
+    
+    /**
+     * Retrieves the most recent messages of a room with an id lower than the given one,
+     * oldest first. Used to page backwards through the history.
+     * 
+     * @param room The room to read
+     * @param beforeId The id of the oldest message already loaded
+     * @param limit The maximum number of messages to return
+     * @return List of at most {@code limit} Message objects ordered by id
+     * @throws ChatException If there is an error retrieving messages
+     */
+    List<Message> getBefore(String room, long beforeId, int limit) throws ChatException;
+    
+    /**
+     * Retrieves the names of the rooms that hold messages.
+     * The default implementation only knows the default room.
+     * 
+     * @return The room names, sorted
+     * @throws ChatException If there is an error retrieving the rooms
+     */
+    default List<String> getRooms() throws ChatException {
+        return Collections.singletonList(Message.DEFAULT_ROOM);
+    }
 }
\ No newline at end of file
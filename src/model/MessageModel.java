@@ -2,17 +2,36 @@ package model;
 
 import java.sql.*;
 import java.util.*;
+import java.util.stream.Stream;
 
 import utilities.ChatException;
+import utilities.ConfigRegistry;
 import utilities.DBConnection;
+import utilities.DBErrors;
 
 /**
  * Data Access Object implementation for Message entities.
  * Handles database operations related to messages in the chat application.
+ * <p>
+ * The default room is the original messages table, read and written with the
+ * original procedures. Every other room is a partition of its own, keyed by the
+ * room name, with its own id sequence, read and written with the procedures
+ * taking the room as their first parameter.
+ * Messages are sent as the user connected in the {@link DBSession} shared with
+ * the user model, passed to the procedures before the message, so that clients
+ * sharing a database account stay distinct senders.
+ * Queries borrow with {@link DBConnection#getReadConnection(long)}, so they are
+ * served by a read replica when one is configured, unless this model sent a
+ * message within the read-your-writes window.
+ * The procedures are defined in sql/schema.sql.
  */
 public class MessageModel implements MessageInterface {
     /** Database connection utility */
 	DBConnection dbconn;
+	/** The connected user, the sender of the messages */
+	private final DBSession session;
+	/** Time of the last message sent through this model, so that its sender reads it back at once */
+	private volatile long lastWrite;
 
    /**
      * Constructs a new MessageDAO.
@@ -20,22 +39,51 @@ public class MessageModel implements MessageInterface {
      * @throws ChatException If there is an error initializing the database connection
      */
     public MessageModel() throws ChatException {
-    	dbconn = new DBConnection();
+    	this(ConfigRegistry.getDefault().getDBConnection());
+	}
+
+    /**
+     * Constructs a new MessageDAO on the given database connection.
+     * 
+     * @param dbconn The database connection, usually shared by every model
+     */
+    public MessageModel(DBConnection dbconn) {
+    	this(dbconn, new DBSession());
+	}
+
+    /**
+     * Constructs a new MessageDAO on the given database connection and session.
+     * 
+     * @param dbconn The database connection, usually shared by every model
+     * @param session The session shared with the user model of the same client
+     */
+    public MessageModel(DBConnection dbconn, DBSession session) {
+    	this.dbconn = dbconn;
+    	this.session = session;
 	}
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public void sendMessage(String message) throws ChatException {
+    public void sendMessage(String room, String message) throws ChatException {
+    	String nick = session.requireNick("sending message");
     	Connection conn = null;
         CallableStatement cstmt = null;
         
         try {
         	conn = dbconn.getConnection();
-        	cstmt = conn.prepareCall("{call send(?)}");
+        	lastWrite = System.currentTimeMillis();
+        	int param = 1;
+        	if (isDefault(room)) {
+        		cstmt = conn.prepareCall("{call sendAs(?, ?)}");
+        	} else {
+        		cstmt = conn.prepareCall("{call sendToRoomAs(?, ?, ?)}");
+        		cstmt.setString(param++, room);
+        	}
 
-        	cstmt.setString(1, message);
+        	cstmt.setString(param++, nick);
+        	cstmt.setString(param, message);
         	cstmt.execute();
         } catch (SQLException e) {
             throw new ChatException("Error sending message: " + e.getMessage(), e);
@@ -45,6 +93,118 @@ public class MessageModel implements MessageInterface {
 
     }
 
+    /**
+     * {@inheritDoc}
+     * All the messages are sent as one JDBC batch and committed together.
+     */
+    @Override
+    public boolean[] sendMessages(String room, List<String> messages) throws ChatException {
+        return isDefault(room) ? sendBatch("{call sendAs(?, ?)}", null, null, messages)
+                : sendBatch("{call sendToRoomAs(?, ?, ?)}", room, null, messages);
+    }
+
+    /**
+     * {@inheritDoc}
+     * All the messages are sent as one JDBC batch of {@code sendOnceAs(nick, key, message)}
+     * calls, or {@code sendOnceToRoomAs(room, nick, key, message)} calls, and committed together.
+     */
+    @Override
+    public boolean[] sendMessagesOnce(String room, List<OutgoingMessage> messages) throws ChatException {
+        List<String> keys = new ArrayList<>(messages.size());
+        List<String> contents = new ArrayList<>(messages.size());
+        for (OutgoingMessage msg : messages) {
+            keys.add(msg.getKey());
+            contents.add(msg.getMessage());
+        }
+        return isDefault(room) ? sendBatch("{call sendOnceAs(?, ?, ?)}", null, keys, contents)
+                : sendBatch("{call sendOnceToRoomAs(?, ?, ?, ?)}", room, keys, contents);
+    }
+
+    /**
+     * Executes one call per message as a single batch and transaction.
+     *
+     * @param call The procedure call, taking the room first if {@code room} is not null,
+     *             then the sender, then the key if {@code keys} is not null
+     * @param room The room, or null for the default room
+     * @param keys The idempotency keys, or null
+     * @param messages The contents of the messages
+     * @return Whether each message was sent
+     * @throws ChatException If the batch failed as a whole
+     */
+    private boolean[] sendBatch(String call, String room, List<String> keys, List<String> messages) throws ChatException {
+        boolean[] sent = new boolean[messages.size()];
+        if (messages.isEmpty()) {
+            return sent;
+        }
+        String nick = session.requireNick("sending messages");
+    	Connection conn = null;
+        CallableStatement cstmt = null;
+        
+        try {
+        	conn = dbconn.getConnection();
+        	lastWrite = System.currentTimeMillis();
+        	conn.setAutoCommit(false);
+        	cstmt = conn.prepareCall(call);
+        	for (int i = 0; i < messages.size(); i++) {
+        		int param = 1;
+        		if (room != null) {
+        			cstmt.setString(param++, room);
+        		}
+        		cstmt.setString(param++, nick);
+        		if (keys != null) {
+        			cstmt.setString(param++, keys.get(i));
+        		}
+        		cstmt.setString(param, messages.get(i));
+        		cstmt.addBatch();
+        	}
+
+        	int[] counts;
+        	try {
+        		counts = cstmt.executeBatch();
+        	} catch (BatchUpdateException e) {
+        		if (isTransient(e)) {
+        			// Lost connection, deadlock, timeout or read-only server: the whole batch is retried
+        			throw e;
+        		}
+        		// Drivers either stop at the first failure or report each failed statement
+        		counts = e.getUpdateCounts();
+        		System.err.println("Error sending messages: " + e.getMessage());
+        	}
+        	conn.commit();
+        	conn.setAutoCommit(true);
+
+        	for (int i = 0; i < counts.length && i < sent.length; i++) {
+        		sent[i] = counts[i] != Statement.EXECUTE_FAILED;
+        	}
+        	if (counts.length < sent.length) {
+        		// The driver stopped at the failed statement: the one after the last count,
+        		// unless the driver counted it as failed. The later ones were not attempted
+        		boolean failedCounted = counts.length > 0 && counts[counts.length - 1] == Statement.EXECUTE_FAILED;
+        		sent = Arrays.copyOf(sent, failedCounted ? counts.length : counts.length + 1);
+        	}
+        } catch (SQLException e) {
+            // Nothing was committed, the pool rolls the connection back
+            throw new ChatException("Error sending messages: " + e.getMessage(), e);
+        } finally {
+            closeResources(conn, cstmt, null);
+        }
+        return sent;
+    }
+
+    /**
+     * Whether a batch failed for a reason that may not happen again, rather than
+     * because of the messages themselves. Drivers report the error of the failed
+     * statement as the batch exception, its cause or a chained exception.
+     */
+    private static boolean isTransient(BatchUpdateException e) {
+        for (SQLException next = e; next != null; next = next.getNextException()) {
+            if (DBErrors.isTransient(next)) {
+                return true;
+            }
+        }
+        return e.getCause() instanceof SQLException && DBErrors.isTransient((SQLException) e.getCause());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -56,7 +216,7 @@ public class MessageModel implements MessageInterface {
         List<Message> messages = new ArrayList<>();
 
         try {
-        	conn = dbconn.getConnection();
+        	conn = dbconn.getReadConnection(lastWrite);
         	cstmt = conn.prepareCall("{call getMessages()}");
             boolean hasResults = cstmt.execute();
 
@@ -76,18 +236,163 @@ public class MessageModel implements MessageInterface {
         return messages;
     }
     
+    /**
+     * {@inheritDoc}
+     * Rows are read with the fetch size configured for the connection.
+     */
+    @Override
+    public Stream<Message> stream() throws ChatException {
+    	Connection conn = null;
+        CallableStatement cstmt = null;
+        ResultSet rs = null;
+
+        try {
+        	conn = dbconn.getReadConnection(lastWrite);
+        	cstmt = conn.prepareCall("{call getMessages()}");
+        	cstmt.setFetchSize(dbconn.getFetchSize());
+            if (cstmt.execute()) {
+            	rs = cstmt.getResultSet();
+            	return ResultSetStream.of(this, conn, cstmt, rs,
+            			row -> new Message(row.getString("nick"), row.getString("message"), row.getTimestamp("ts")),
+            			"Database error while retrieving new messages");
+            }
+        } catch (SQLException e) {
+            closeResources(conn, cstmt, rs);
+            throw new ChatException("Database error while retrieving new messages: " + e.getMessage(), e);
+        }
+        closeResources(conn, cstmt, rs);
+        return Stream.empty();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getSince(String room, long lastSeenId, int limit) throws ChatException {
+    	Connection conn = null;
+        CallableStatement cstmt = null;
+        ResultSet rs = null;
+        List<Message> messages = new ArrayList<>();
+
+        try {
+        	conn = dbconn.getReadConnection(lastWrite);
+        	int param = 1;
+        	if (isDefault(room)) {
+        		cstmt = conn.prepareCall("{call getMessagesSince(?, ?)}");
+        	} else {
+        		cstmt = conn.prepareCall("{call getRoomMessagesSince(?, ?, ?)}");
+        		cstmt.setString(param++, room);
+        	}
+        	cstmt.setLong(param++, lastSeenId);
+        	cstmt.setInt(param, limit);
+            rs = cstmt.executeQuery();
+            while (rs.next()) {
+                Message msg = new Message(rs.getLong("id"), room, rs.getString("nick"), rs.getString("message"), rs.getTimestamp("ts"));
+                messages.add(msg);
+            }
+        } catch (SQLException e) {
+            throw new ChatException("Database error while retrieving messages since " + lastSeenId + ": " + e.getMessage(), e);
+        } finally {
+            closeResources(conn, cstmt, rs);
+        }
+        
+        return messages;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getBefore(String room, long beforeId, int limit) throws ChatException {
+    	Connection conn = null;
+        CallableStatement cstmt = null;
+        ResultSet rs = null;
+        List<Message> messages = new ArrayList<>();
+
+        try {
+        	conn = dbconn.getReadConnection(lastWrite);
+        	int param = 1;
+        	if (isDefault(room)) {
+        		cstmt = conn.prepareCall("{call getMessagesBefore(?, ?)}");
+        	} else {
+        		cstmt = conn.prepareCall("{call getRoomMessagesBefore(?, ?, ?)}");
+        		cstmt.setString(param++, room);
+        	}
+        	cstmt.setLong(param++, beforeId);
+        	cstmt.setInt(param, limit);
+            rs = cstmt.executeQuery();
+            while (rs.next()) {
+                Message msg = new Message(rs.getLong("id"), room, rs.getString("nick"), rs.getString("message"), rs.getTimestamp("ts"));
+                messages.add(msg);
+            }
+        } catch (SQLException e) {
+            throw new ChatException("Database error while retrieving messages before " + beforeId + ": " + e.getMessage(), e);
+        } finally {
+            closeResources(conn, cstmt, rs);
+        }
+        
+        // The procedure returns the newest first so that the limit keeps the closest ones
+        Collections.reverse(messages);
+        return messages;
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getRooms() throws ChatException {
+    	Connection conn = null;
+        CallableStatement cstmt = null;
+        ResultSet rs = null;
+        List<String> rooms = new ArrayList<>();
+        rooms.add(Message.DEFAULT_ROOM);
+
+        try {
+        	conn = dbconn.getReadConnection(lastWrite);
+        	cstmt = conn.prepareCall("{call getRooms()}");
+            rs = cstmt.executeQuery();
+            while (rs.next()) {
+            	String room = rs.getString("room");
+            	if (!isDefault(room)) {
+            		rooms.add(room);
+            	}
+            }
+        } catch (SQLException e) {
+            throw new ChatException("Database error while retrieving rooms: " + e.getMessage(), e);
+        } finally {
+            closeResources(conn, cstmt, rs);
+        }
+        
+        Collections.sort(rooms);
+        return rooms;
+    }
+    
+    private static boolean isDefault(String room) {
+        return Message.DEFAULT_ROOM.equals(room);
+    }
+    
     /**
      * {@inheritDoc}
      */
     @Override
 	public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+        // Close in reverse order of creation so the connection goes back to the pool clean,
+        // each on its own so that the connection goes back to the pool even if the others fail
         try {
-            if (conn != null) conn.close();
-            if (stmt != null) stmt.close();
             if (rs != null) rs.close();
-        } catch (SQLException e) {
+        } catch (SQLException | RuntimeException e) {
             // Just log the error and continue
-            System.err.println("Error closing resources: " + e.getMessage());
+            System.err.println("Error closing result set: " + e.getMessage());
+        }
+        try {
+            if (stmt != null) stmt.close();
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Error closing statement: " + e.getMessage());
+        }
+        try {
+            if (conn != null) conn.close();
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
         }
     }
 }
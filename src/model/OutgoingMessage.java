@@ -0,0 +1,33 @@
+package model;
+
+/**
+ * A message waiting to be sent, with the idempotency key that lets it be sent
+ * again safely after a failure: the chat stores at most one message per key.
+ */
+public class OutgoingMessage {
+    private final String key;
+    private final String message;
+
+    /**
+     * @param key The idempotency key, unique for every message of every client
+     * @param message The content of the message
+     */
+    public OutgoingMessage(String key, String message) {
+        this.key = key;
+        this.message = message;
+    }
+
+    /**
+     * @return the idempotency key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the content of the message
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,108 @@
+package model;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import utilities.ChatException;
+import utilities.Resilience;
+import utilities.Resilience.Kind;
+
+/**
+ * Message model that runs every call to the wrapped model through a
+ * {@link Resilience} guard, so that calls are rejected at once, without
+ * reaching the database, while it is failing or overloaded.
+ */
+public class ResilientMessageModel implements MessageInterface {
+    private final MessageInterface delegate;
+    private final Resilience resilience;
+
+    /**
+     * Wraps a message model.
+     *
+     * @param delegate The model to guard
+     * @param resilience The guard, usually shared with the user model of the same backend
+     */
+    public ResilientMessageModel(MessageInterface delegate, Resilience resilience) {
+        this.delegate = delegate;
+        this.resilience = resilience;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(String room, String message) throws ChatException {
+        resilience.call(Kind.WRITE, () -> {
+            delegate.sendMessage(room, message);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessages(String room, List<String> messages) throws ChatException {
+        return resilience.call(Kind.WRITE, () -> delegate.sendMessages(room, messages));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessagesOnce(String room, List<OutgoingMessage> messages) throws ChatException {
+        return resilience.call(Kind.WRITE, () -> delegate.sendMessagesOnce(room, messages));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getAll() throws ChatException {
+        return resilience.call(Kind.READ, delegate::getAll);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only opening the stream is guarded, not reading it.
+     */
+    @Override
+    public Stream<Message> stream() throws ChatException {
+        return resilience.call(Kind.READ, delegate::stream);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getSince(String room, long lastSeenId, int limit) throws ChatException {
+        return resilience.call(Kind.READ, () -> delegate.getSince(room, lastSeenId, limit));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getBefore(String room, long beforeId, int limit) throws ChatException {
+        return resilience.call(Kind.READ, () -> delegate.getBefore(room, beforeId, limit));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getRooms() throws ChatException {
+        return resilience.call(Kind.READ, delegate::getRooms);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+        delegate.closeResources(conn, stmt, rs);
+    }
+}
@@ -0,0 +1,90 @@
+package model;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import utilities.ChatException;
+import utilities.Resilience;
+import utilities.Resilience.Kind;
+
+/**
+ * User model that runs every call to the wrapped model through a
+ * {@link Resilience} guard, so that calls are rejected at once, without
+ * reaching the database, while it is failing or overloaded.
+ */
+public class ResilientUserModel implements UserInterface {
+    private final UserInterface delegate;
+    private final Resilience resilience;
+
+    /**
+     * Wraps a user model.
+     *
+     * @param delegate The model to guard
+     * @param resilience The guard, usually shared with the message model of the same backend
+     */
+    public ResilientUserModel(UserInterface delegate, Resilience resilience) {
+        this.delegate = delegate;
+        this.resilience = resilience;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void connect(String nick) throws ChatException {
+        resilience.call(Kind.WRITE, () -> {
+            delegate.connect(nick);
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disconnect() throws ChatException {
+        resilience.call(Kind.WRITE, () -> {
+            delegate.disconnect();
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void heartbeat() throws ChatException {
+        resilience.call(Kind.WRITE, () -> {
+            delegate.heartbeat();
+            return null;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<User> getAll() throws ChatException {
+        return resilience.call(Kind.READ, delegate::getAll);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Only opening the stream is guarded, not reading it.
+     */
+    @Override
+    public Stream<User> stream() throws ChatException {
+        return resilience.call(Kind.READ, delegate::stream);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+        delegate.closeResources(conn, stmt, rs);
+    }
+}
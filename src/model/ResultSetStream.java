@@ -0,0 +1,62 @@
+package model;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import utilities.ChatException;
+import utilities.UncheckedChatException;
+
+/**
+ * Turns an open result set into a lazy {@link Stream} of entities, so that rows
+ * are mapped one at a time as the stream is consumed. Closing the stream closes
+ * the result set, its statement and its connection through the DAO.
+ */
+final class ResultSetStream {
+
+    /**
+     * Maps the current row of a result set to an entity.
+     *
+     * @param <T> The type of the entity
+     */
+    interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    private ResultSetStream() {
+    }
+
+    /**
+     * @param dao The DAO whose {@code closeResources} releases the resources
+     * @param conn The connection the query runs on
+     * @param stmt The executed statement
+     * @param rs The result set, positioned before its first row
+     * @param mapper Maps each row
+     * @param error Describes a failure, for the error message
+     * @return A sequential stream of the rows, to be closed once consumed
+     */
+    static <T> Stream<T> of(DAO<?> dao, Connection conn, CallableStatement stmt, ResultSet rs,
+            RowMapper<T> mapper, String error) {
+        Spliterator<T> rows = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    action.accept(mapper.map(rs));
+                    return true;
+                } catch (SQLException e) {
+                    throw new UncheckedChatException(new ChatException(error + ": " + e.getMessage(), e));
+                }
+            }
+        };
+        return StreamSupport.stream(rows, false).onClose(() -> dao.closeResources(conn, stmt, rs));
+    }
+}
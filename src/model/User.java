@@ -1,7 +1,9 @@
 package model;
 
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
+import java.util.Objects;
+
+import utilities.TimestampFormatter;
 
 public class User {
     private String nick;
@@ -25,6 +27,22 @@ public class User {
     public Timestamp getDateCon() { return dateCon; }
     public void setDateCon(Timestamp dateCon) { this.dateCon = dateCon; }
     
+    /**
+     * Two users are equal if they have the same nickname and connection date.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof User)) return false;
+        User other = (User) obj;
+        return Objects.equals(nick, other.nick) && Objects.equals(dateCon, other.dateCon);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(nick, dateCon);
+    }
+    
     /**
      * Returns a string representation of the User.
      * Format: [nickname] connection_date
@@ -33,7 +51,6 @@ public class User {
      */
     @Override
     public String toString() {
-    	String sTimestamp = new SimpleDateFormat("dd/MM/yyyy HH:mm").format(dateCon);
-    	return "[" + nick + "] " + sTimestamp;
+    	return "[" + nick + "] " + TimestampFormatter.format(dateCon);
     }
 }
@@ -6,6 +6,10 @@ import utilities.ChatException;
 /**
  * Interface for User Data Access Object.
  * Defines operations for user management in the chat application.
+ * <p>
+ * A connected user holds a lease renewed by {@link #heartbeat()}. Users whose
+ * lease expired, such as clients that crashed without disconnecting, are
+ * removed by the backend itself, with a lease it owns, never by a client.
  */
 public interface UserInterface extends DAO<User> {
     
@@ -24,6 +28,15 @@ public interface UserInterface extends DAO<User> {
      */
     void disconnect() throws ChatException;
     
+    /**
+     * Renews the lease of the connected user, connecting it again if it had expired.
+     * The default implementation does nothing, for models without leases.
+     * 
+     * @throws ChatException If the lease cannot be renewed
+     */
+    default void heartbeat() throws ChatException {
+    }
+    
     /**
      * Retrieves a list of all currently connected users.
      * Implementation of the getAll method from DAO interface.
@@ -2,13 +2,27 @@ package model;
 
 import java.sql.*;
 import java.util.*;
+import java.util.stream.Stream;
 
 import utilities.ChatException;
+import utilities.ConfigRegistry;
 import utilities.DBConnection;
 
+/**
+ * Data Access Object implementation for User entities.
+ * <p>
+ * The connected user is kept in a {@link DBSession} shared with the message
+ * model, and passed to the {@code disconnectUser(nick)} and {@code heartbeat(nick)}
+ * procedures, so that clients sharing a database account stay distinct users.
+ * The procedures are defined in sql/schema.sql.
+ */
 public class UserModel implements UserInterface {
 	/** Database connection utility */
 	DBConnection dbconn;
+	/** Nickname of the connected user, whose lease the heartbeats renew */
+	private final DBSession session;
+	/** Time of the last connect or disconnect through this model, so that it is read back at once */
+	private volatile long lastWrite;
 
 	/**
      * Constructs a new UserDAO.
@@ -16,7 +30,27 @@ public class UserModel implements UserInterface {
      * @throws ChatException If there is an error initializing the database connection
      */
     public UserModel() throws ChatException {
-    	dbconn = new DBConnection();
+    	this(ConfigRegistry.getDefault().getDBConnection());
+	}
+
+    /**
+     * Constructs a new UserDAO on the given database connection.
+     * 
+     * @param dbconn The database connection, usually shared by every model
+     */
+    public UserModel(DBConnection dbconn) {
+    	this(dbconn, new DBSession());
+	}
+
+    /**
+     * Constructs a new UserDAO on the given database connection and session.
+     * 
+     * @param dbconn The database connection, usually shared by every model
+     * @param session The session shared with the message model of the same client
+     */
+    public UserModel(DBConnection dbconn, DBSession session) {
+    	this.dbconn = dbconn;
+    	this.session = session;
 	}
 
     /**
@@ -29,10 +63,12 @@ public class UserModel implements UserInterface {
         
     	try {
         	conn = dbconn.getConnection();
+        	lastWrite = System.currentTimeMillis();
         	cstmt = conn.prepareCall("{call connect(?)}");
 
         	cstmt.setString(1, nick);
         	cstmt.execute();
+        	session.setNick(nick);
         } catch (SQLException e) {
             throw new ChatException("Error connecting user: " + e.getMessage(), e);
         } finally {
@@ -45,14 +81,21 @@ public class UserModel implements UserInterface {
      */
     @Override
     public void disconnect() throws ChatException {
+    	String current = session.getNick();
+    	if (current == null) {
+    		return;
+    	}
     	Connection conn = null;
         CallableStatement cstmt = null;
         
     	try {
         	conn = dbconn.getConnection();
-        	cstmt = conn.prepareCall("{call disconnect()}");
-            
+        	lastWrite = System.currentTimeMillis();
+        	cstmt = conn.prepareCall("{call disconnectUser(?)}");
+
+        	cstmt.setString(1, current);
         	cstmt.execute();
+        	session.setNick(null);
         } catch (SQLException e) {
             throw new ChatException("Error disconnecting user: " + e.getMessage(), e);
         } finally {
@@ -60,6 +103,29 @@ public class UserModel implements UserInterface {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * The {@code heartbeat(nick)} procedure renews the lease, inserting the user again if it was reaped.
+     */
+    @Override
+    public void heartbeat() throws ChatException {
+    	String current = session.requireNick("renewing presence");
+    	Connection conn = null;
+        CallableStatement cstmt = null;
+        
+    	try {
+        	conn = dbconn.getConnection();
+        	cstmt = conn.prepareCall("{call heartbeat(?)}");
+
+        	cstmt.setString(1, current);
+        	cstmt.execute();
+        } catch (SQLException e) {
+            throw new ChatException("Error renewing presence: " + e.getMessage(), e);
+        } finally {
+            closeResources(conn, cstmt, null);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -71,7 +137,7 @@ public class UserModel implements UserInterface {
         List<User> users = new ArrayList<>();
 
         try {
-        	conn = dbconn.getConnection();
+        	conn = dbconn.getReadConnection(lastWrite);
         	cstmt = conn.prepareCall("{call getConnectedUsers()}");
             rs = cstmt.executeQuery();
             while (rs.next()) {
@@ -87,18 +153,52 @@ public class UserModel implements UserInterface {
         return users;
     }
     
+    /**
+     * {@inheritDoc}
+     * Rows are read with the fetch size configured for the connection.
+     */
+    @Override
+    public Stream<User> stream() throws ChatException {
+    	Connection conn = null;
+        CallableStatement cstmt = null;
+        ResultSet rs = null;
+
+        try {
+        	conn = dbconn.getReadConnection(lastWrite);
+        	cstmt = conn.prepareCall("{call getConnectedUsers()}");
+        	cstmt.setFetchSize(dbconn.getFetchSize());
+            rs = cstmt.executeQuery();
+            return ResultSetStream.of(this, conn, cstmt, rs,
+            		row -> new User(row.getString("nick"), row.getTimestamp("date_con")),
+            		"Error retrieving connected users");
+        } catch (SQLException e) {
+            closeResources(conn, cstmt, rs);
+            throw new ChatException("Error retrieving connected users: " + e.getMessage(), e);
+        }
+    }
+    
     /**
      * {@inheritDoc}
      */
     @Override
 	public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+        // Close in reverse order of creation so the connection goes back to the pool clean,
+        // each on its own so that the connection goes back to the pool even if the others fail
         try {
-            if (conn != null) conn.close();
-            if (stmt != null) stmt.close();
             if (rs != null) rs.close();
-        } catch (SQLException e) {
+        } catch (SQLException | RuntimeException e) {
             // Just log the error and continue
-            System.err.println("Error closing resources: " + e.getMessage());
+            System.err.println("Error closing result set: " + e.getMessage());
+        }
+        try {
+            if (stmt != null) stmt.close();
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Error closing statement: " + e.getMessage());
+        }
+        try {
+            if (conn != null) conn.close();
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
         }
     }
 }
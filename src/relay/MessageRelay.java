@@ -0,0 +1,359 @@
+package relay;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import model.Message;
+import model.MessageInterface;
+import model.MessageModel;
+import utilities.ChatException;
+
+/**
+ * Relay process that is the only reader of the messages of one room and pushes
+ * every new message to the clients connected to it over persistent sockets.
+ * Busy rooms each get their own relay.
+ * <p>
+ * A single poller thread fetches new messages with {@link MessageInterface#getSince}
+ * and hands the encoded frames to a selector thread that owns every client
+ * connection. The most recent messages are retained so that a client connecting
+ * or reconnecting is replayed what it missed.
+ */
+public class MessageRelay {
+    public static final int DEFAULT_PORT = 5555;
+    private static final long DEFAULT_POLL_INTERVAL = 500; // milliseconds
+    private static final int PAGE_SIZE = 100;
+    private static final int RETAINED_MESSAGES = 1000;
+    /** Clients with more than this many unsent bytes are disconnected */
+    private static final long MAX_PENDING_BYTES = 1 << 20;
+
+    private final MessageInterface source;
+    private final String room;
+    private final int port;
+    private final long pollInterval;
+
+    /** Frames published by the poller, consumed by the selector thread */
+    private final ConcurrentLinkedQueue<Frame> published = new ConcurrentLinkedQueue<>();
+    /** Most recent frames, oldest first. Selector thread only */
+    private final ArrayDeque<Frame> retained = new ArrayDeque<>();
+    /** Id of the newest frame handed to the selector thread. Selector thread only */
+    private long headId;
+    /** Id of the newest message fetched. Poller thread only */
+    private long lastId;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private ScheduledExecutorService poller;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    /**
+     * Creates a relay of the default room.
+     *
+     * @param source The model the relay reads new messages from
+     * @param port The port to listen on
+     * @param pollInterval The interval between two polls of the source, in milliseconds
+     */
+    public MessageRelay(MessageInterface source, int port, long pollInterval) {
+        this(source, Message.DEFAULT_ROOM, port, pollInterval);
+    }
+
+    /**
+     * Creates a relay.
+     *
+     * @param source The model the relay reads new messages from
+     * @param room The room whose messages are relayed
+     * @param port The port to listen on
+     * @param pollInterval The interval between two polls of the source, in milliseconds
+     */
+    public MessageRelay(MessageInterface source, String room, int port, long pollInterval) {
+        this.source = source;
+        this.room = room;
+        this.port = port;
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Catches up with the existing messages, then starts listening and polling.
+     *
+     * @throws ChatException If the initial catch-up fails
+     * @throws IOException If the server socket cannot be opened
+     */
+    public void start() throws ChatException, IOException {
+        catchUp();
+        headId = lastId;
+
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+
+        selectorThread = new Thread(this::selectLoop, "message-relay");
+        selectorThread.start();
+
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "message-relay-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling and closes every client connection.
+     */
+    public void stop() {
+        running = false;
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Fetches the newest messages to retain, so that polling starts from the current head.
+     */
+    private void catchUp() throws ChatException {
+        for (Message msg : source.getBefore(room, Long.MAX_VALUE, RETAINED_MESSAGES)) {
+            lastId = msg.getId();
+            Frame frame = encode(msg);
+            if (frame != null) {
+                retain(frame);
+            }
+        }
+    }
+
+    /**
+     * @return the frame of a message, null if it cannot be encoded and is skipped
+     */
+    private static Frame encode(Message msg) {
+        try {
+            return new Frame(msg.getId(), RelayProtocol.encodeMessage(msg));
+        } catch (RuntimeException e) {
+            System.err.println("Skipping message " + msg.getId() + " that cannot be relayed: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the messages sent since the last poll and publishes them.
+     */
+    private void poll() {
+        try {
+            List<Message> page;
+            do {
+                page = source.getSince(room, lastId, PAGE_SIZE);
+                for (Message msg : page) {
+                    lastId = msg.getId();
+                    Frame frame = encode(msg);
+                    if (frame != null) {
+                        published.add(frame);
+                    }
+                }
+            } while (page.size() == PAGE_SIZE);
+            if (!published.isEmpty()) {
+                selector.wakeup();
+            }
+        } catch (ChatException e) {
+            System.err.println("Error polling messages: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // Thrown out of a scheduled task, it would cancel every later poll
+            System.err.println("Error polling messages: " + e);
+        }
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+                broadcastPublished();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Relay selector failed: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                System.err.println("Error closing relay: " + e.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Subscriber());
+    }
+
+    /**
+     * Reads the client's hello, then replays the retained messages it has not seen.
+     * Anything the client sends after its hello is ignored.
+     */
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Subscriber subscriber = (Subscriber) key.attachment();
+        ByteBuffer in = subscriber.ready ? ByteBuffer.allocate(64) : subscriber.hello;
+        if (channel.read(in) < 0) {
+            close(key);
+            return;
+        }
+        if (subscriber.ready || in.hasRemaining()) {
+            return;
+        }
+
+        in.flip();
+        long cursor = in.getLong();
+        long coveredFrom = retained.isEmpty() ? Math.max(cursor, headId)
+                : Math.max(cursor, retained.peekFirst().id - 1);
+        subscriber.ready = true;
+        enqueue(key, RelayProtocol.encodeWelcome(coveredFrom));
+        for (Frame frame : retained) {
+            if (frame.id > coveredFrom) {
+                enqueue(key, frame.data.duplicate());
+            }
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Subscriber subscriber = (Subscriber) key.attachment();
+        ByteBuffer buffer;
+        while ((buffer = subscriber.pending.peek()) != null) {
+            int written = channel.write(buffer);
+            subscriber.pendingBytes -= written;
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            subscriber.pending.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Moves the frames published by the poller to the retained window and to every ready client.
+     */
+    private void broadcastPublished() {
+        Frame frame;
+        while ((frame = published.poll()) != null) {
+            retain(frame);
+            headId = frame.id;
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (key.isValid() && attachment instanceof Subscriber && ((Subscriber) attachment).ready) {
+                    enqueue(key, frame.data.duplicate());
+                }
+            }
+        }
+    }
+
+    private void retain(Frame frame) {
+        retained.addLast(frame);
+        if (retained.size() > RETAINED_MESSAGES) {
+            retained.pollFirst();
+        }
+    }
+
+    private void enqueue(SelectionKey key, ByteBuffer buffer) {
+        Subscriber subscriber = (Subscriber) key.attachment();
+        subscriber.pending.add(buffer);
+        subscriber.pendingBytes += buffer.remaining();
+        if (subscriber.pendingBytes > MAX_PENDING_BYTES) {
+            // Too slow to keep up, it will reconnect and be replayed what it missed
+            close(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            System.err.println("Error closing relay client: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An encoded message frame, shared read-only by every client.
+     */
+    private static class Frame {
+        private final long id;
+        private final ByteBuffer data;
+
+        Frame(long id, ByteBuffer data) {
+            this.id = id;
+            this.data = data.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Connection state of a client. Selector thread only.
+     */
+    private static class Subscriber {
+        private final ByteBuffer hello = ByteBuffer.allocate(RelayProtocol.HELLO_SIZE);
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        private long pendingBytes;
+        private boolean ready;
+    }
+
+    /**
+     * Runs a relay reading from the database configured in database-config.xml.
+     *
+     * @param args Optional port to listen on, then optional room to relay
+     * @throws Exception If the relay cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String room = args.length > 1 ? args[1] : Message.DEFAULT_ROOM;
+        MessageRelay relay = new MessageRelay(new MessageModel(), room, port, DEFAULT_POLL_INTERVAL);
+        relay.start();
+        System.out.println("Message relay of room " + room + " listening on port " + port);
+    }
+}
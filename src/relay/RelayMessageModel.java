@@ -0,0 +1,294 @@
+package relay;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import model.Message;
+import model.MessageInterface;
+import model.OutgoingMessage;
+import utilities.ChatException;
+
+/**
+ * Message model fed by a {@link MessageRelay}.
+ * <p>
+ * While connected to the relay, {@link #getSince} is answered from the messages
+ * pushed by the relay without touching the database. Sending, and fetching
+ * anything the relay cannot vouch for (before connecting, after a disconnect,
+ * older than what it replayed, or of another room than the one it relays),
+ * falls back to the wrapped model.
+ */
+public class RelayMessageModel implements MessageInterface {
+    private static final int CONNECT_TIMEOUT = 2000; // milliseconds
+    private static final long RECONNECT_DELAY = 5000; // milliseconds
+    private static final int MAX_BUFFERED = 1000;
+
+    private final MessageInterface delegate;
+    private final InetSocketAddress relayAddress;
+    private final String room;
+
+    /** Messages pushed by the relay and not yet consumed, by id */
+    private final TreeMap<Long, Message> buffer = new TreeMap<>();
+    /** Id after which every message is in the buffer, or -1 while not connected */
+    private long coveredFrom = -1;
+    /** Highest id the caller has seen in the relayed room, sent to the relay when connecting */
+    private long lastSeen;
+    /** Told when pushed messages are ready to be read, or null */
+    private volatile Runnable pushListener;
+
+    private volatile boolean running;
+    private volatile Socket socket;
+
+    /**
+     * Creates a model fed by a relay of the default room. Call {@link #start()} to connect to the relay.
+     *
+     * @param delegate The model used to send messages and as a fallback for reads
+     * @param host The relay host
+     * @param port The relay port
+     */
+    public RelayMessageModel(MessageInterface delegate, String host, int port) {
+        this(delegate, host, port, Message.DEFAULT_ROOM);
+    }
+
+    /**
+     * Creates a relay-fed model. Call {@link #start()} to connect to the relay.
+     *
+     * @param delegate The model used to send messages and as a fallback for reads
+     * @param host The relay host
+     * @param port The relay port
+     * @param room The room relayed by the relay
+     */
+    public RelayMessageModel(MessageInterface delegate, String host, int port, String room) {
+        this.delegate = delegate;
+        this.relayAddress = new InetSocketAddress(host, port);
+        this.room = room;
+    }
+
+    /**
+     * Starts the background thread that connects, and reconnects, to the relay.
+     */
+    public void start() {
+        running = true;
+        Thread reader = new Thread(this::readLoop, "relay-client");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Disconnects from the relay. Reads go to the wrapped model from then on.
+     */
+    public void stop() {
+        running = false;
+        closeSocket();
+    }
+
+    /**
+     * Sets the callback run, on the relay thread, when pushed messages are ready
+     * to be read with {@link #getSince}, so that the caller does not have to wait
+     * for its next poll.
+     *
+     * @param pushListener The callback, or null
+     */
+    public void setPushListener(Runnable pushListener) {
+        this.pushListener = pushListener;
+    }
+
+    /**
+     * @return whether messages are currently being received from the relay
+     */
+    public synchronized boolean isConnected() {
+        return coveredFrom >= 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sendMessage(String room, String message) throws ChatException {
+        delegate.sendMessage(room, message);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessages(String room, List<String> messages) throws ChatException {
+        return delegate.sendMessages(room, messages);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean[] sendMessagesOnce(String room, List<OutgoingMessage> messages) throws ChatException {
+        return delegate.sendMessagesOnce(room, messages);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Message> getAll() throws ChatException {
+        return delegate.getAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<Message> stream() throws ChatException {
+        return delegate.stream();
+    }
+
+    /**
+     * {@inheritDoc}
+     * Served from the relay when it relays the room and has pushed every message
+     * after {@code lastSeenId}.
+     */
+    @Override
+    public List<Message> getSince(String room, long lastSeenId, int limit) throws ChatException {
+        synchronized (this) {
+            if (this.room.equals(room)) {
+                lastSeen = Math.max(lastSeen, lastSeenId);
+            }
+            if (this.room.equals(room) && coveredFrom >= 0 && lastSeenId >= coveredFrom) {
+                // The caller has seen everything up to lastSeenId, drop it
+                buffer.headMap(lastSeenId, true).clear();
+                coveredFrom = lastSeenId;
+
+                List<Message> messages = new ArrayList<>(Math.min(limit, buffer.size()));
+                for (Message msg : buffer.values()) {
+                    if (messages.size() == limit) {
+                        break;
+                    }
+                    messages.add(msg);
+                }
+                return messages;
+            }
+        }
+        return delegate.getSince(room, lastSeenId, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     * History is not pushed by the relay and is always read from the wrapped model.
+     */
+    @Override
+    public List<Message> getBefore(String room, long beforeId, int limit) throws ChatException {
+        return delegate.getBefore(room, beforeId, limit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<String> getRooms() throws ChatException {
+        return delegate.getRooms();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeResources(Connection conn, CallableStatement stmt, ResultSet rs) {
+        delegate.closeResources(conn, stmt, rs);
+    }
+
+    private void readLoop() {
+        while (running) {
+            try (Socket s = new Socket()) {
+                s.connect(relayAddress, CONNECT_TIMEOUT);
+                s.setTcpNoDelay(true);
+                socket = s;
+
+                // Only the messages the caller has not seen are replayed
+                DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                out.writeLong(getLastSeen());
+                out.flush();
+
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                while (running) {
+                    int length = in.readInt();
+                    byte type = in.readByte();
+                    if (type == RelayProtocol.TYPE_WELCOME) {
+                        welcome(in.readLong());
+                    } else if (type == RelayProtocol.TYPE_MESSAGE) {
+                        received(RelayProtocol.readMessage(in, room));
+                        Runnable listener = pushListener;
+                        if (listener != null && in.available() == 0) {
+                            // Once per burst of frames
+                            listener.run();
+                        }
+                    } else {
+                        in.skipBytes(length - 1);
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Relay unreachable, falling back to polling: "
+                            + (e.getMessage() != null ? e.getMessage() : "connection closed"));
+                }
+            } finally {
+                disconnected();
+            }
+
+            if (running) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized long getLastSeen() {
+        return lastSeen;
+    }
+
+    private synchronized void welcome(long from) {
+        buffer.clear();
+        coveredFrom = from;
+    }
+
+    private synchronized void received(Message msg) {
+        if (msg.getId() <= coveredFrom) {
+            return;
+        }
+        buffer.put(msg.getId(), msg);
+        if (buffer.size() > MAX_BUFFERED) {
+            // Nobody is consuming, forget the oldest messages; they will be fetched from the database
+            Map.Entry<Long, Message> oldest = buffer.pollFirstEntry();
+            coveredFrom = oldest.getKey();
+        }
+    }
+
+    private synchronized void disconnected() {
+        buffer.clear();
+        coveredFrom = -1;
+        socket = null;
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                System.err.println("Error closing relay connection: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+
+import model.Message;
+
+/**
+ * Wire format spoken between the {@link MessageRelay} and its clients.
+ * A relay serves a single room, so frames do not carry it.
+ * <p>
+ * On connect the client sends an 8 byte hello holding the id of the last message
+ * it has seen. After that the relay only writes frames, each one being
+ * {@code [int length][byte type][payload]} where {@code length} counts the type byte
+ * and the payload. Strings are {@code [int length][UTF-8 bytes]}, so that a message
+ * of any size fits.
+ */
+final class RelayProtocol {
+    /** Size in bytes of the hello sent by the client */
+    static final int HELLO_SIZE = 8;
+    /** Payload: long id after which every message will be delivered */
+    static final byte TYPE_WELCOME = 1;
+    /** Payload: long id, long timestamp millis, string nick, string message */
+    static final byte TYPE_MESSAGE = 2;
+    /** Longest string accepted, in bytes, so that a corrupt length fails instead of allocating */
+    private static final int MAX_STRING = 16 * 1024 * 1024;
+
+    private RelayProtocol() {
+    }
+
+    /**
+     * Encodes the frame sent right after a client's hello.
+     *
+     * @param coveredFrom The id after which the relay will deliver every message
+     * @return A buffer ready to be written
+     */
+    static ByteBuffer encodeWelcome(long coveredFrom) {
+        ByteBuffer frame = ByteBuffer.allocate(4 + 1 + 8);
+        frame.putInt(1 + 8).put(TYPE_WELCOME).putLong(coveredFrom);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Encodes a message frame.
+     *
+     * @param msg The message to encode
+     * @return A buffer ready to be written
+     */
+    static ByteBuffer encodeMessage(Message msg) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // length, patched below
+            out.writeByte(TYPE_MESSAGE);
+            out.writeLong(msg.getId());
+            out.writeLong(msg.getTimestamp() != null ? msg.getTimestamp().getTime() : -1);
+            writeString(out, msg.getNick() != null ? msg.getNick() : "");
+            writeString(out, msg.getMessage() != null ? msg.getMessage() : "");
+            ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+            frame.putInt(0, frame.remaining() - 4);
+            return frame;
+        } catch (IOException e) {
+            // Writing to memory never fails
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes the payload of a message frame.
+     *
+     * @param in The stream positioned right after the frame type
+     * @param room The room served by the relay
+     * @return The decoded message
+     * @throws IOException If the stream ends or cannot be read
+     */
+    static Message readMessage(DataInputStream in, String room) throws IOException {
+        long id = in.readLong();
+        long millis = in.readLong();
+        String nick = readString(in);
+        String message = readString(in);
+        return new Message(id, room, nick, message, millis >= 0 ? new Timestamp(millis) : null);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING) {
+            throw new IOException("Invalid string length in relay frame: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package utilities;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Refresh scheduler that adapts the polling interval to the activity of the room.
+ * <p>
+ * The interval drops to its minimum as soon as a poll returns new items, doubles
+ * after every empty or failed poll up to its maximum, and is multiplied while the
+ * view is in the background. Each delay is randomly spread by up to
+ * {@value #JITTER} of the interval so that clients do not poll in lockstep.
+ */
+public class AdaptiveRefreshScheduler implements RefreshScheduler {
+    private static final double JITTER = 0.2;
+    private static final int BACKGROUND_FACTOR = 4;
+
+    private final long minInterval;
+    private final long maxInterval;
+    private long interval;
+    private boolean foreground = true;
+    private long polls;
+    private long hits;
+
+    /**
+     * @param minInterval The interval used while messages are arriving, in milliseconds
+     * @param initialInterval The interval used until the first poll completes, in milliseconds
+     * @param maxInterval The longest interval reached when backing off, in milliseconds
+     */
+    public AdaptiveRefreshScheduler(long minInterval, long initialInterval, long maxInterval) {
+        if (minInterval <= 0 || minInterval > initialInterval || initialInterval > maxInterval) {
+            throw new IllegalArgumentException("Invalid intervals: " + minInterval + ", " + initialInterval + ", " + maxInterval);
+        }
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.interval = initialInterval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long nextDelay() {
+        long delay = foreground ? interval : Math.min(maxInterval, interval * BACKGROUND_FACTOR);
+        double spread = ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return Math.max(minInterval, Math.round(delay * (1 + spread)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onResult(int newItems) {
+        polls++;
+        if (newItems > 0) {
+            hits++;
+            interval = minInterval;
+        } else {
+            backOff();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onError(ChatException e) {
+        polls++;
+        backOff();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void setForeground(boolean foreground) {
+        this.foreground = foreground;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getCurrentInterval() {
+        return interval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized double getHitRatio() {
+        return polls == 0 ? 0 : (double) hits / polls;
+    }
+
+    private void backOff() {
+        interval = Math.min(maxInterval, interval * 2);
+    }
+}
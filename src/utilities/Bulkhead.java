@@ -0,0 +1,60 @@
+package utilities;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of calls of one kind in flight at the same time, so that
+ * slow calls of that kind cannot take every connection and thread.
+ * A call that finds no free slot within the wait time, or before the current
+ * {@link Deadline}, is rejected instead of queued.
+ */
+public class Bulkhead {
+    private final String name;
+    private final Semaphore permits;
+    private final long maxWaitMillis;
+
+    /**
+     * @param name The name used in error messages
+     * @param maxConcurrent The maximum number of calls in flight
+     * @param maxWaitMillis The longest time a call waits for a free slot, in milliseconds
+     */
+    public Bulkhead(String name, int maxConcurrent, long maxWaitMillis) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Invalid bulkhead size: " + maxConcurrent);
+        }
+        this.name = name;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Takes a slot, which must be given back with {@link #release()}.
+     *
+     * @throws CircuitOpenException If no slot became free in time
+     */
+    public void acquire() throws CircuitOpenException {
+        try {
+            if (!permits.tryAcquire(Deadline.cap(maxWaitMillis), TimeUnit.MILLISECONDS)) {
+                throw new CircuitOpenException("Too many " + name + " calls in flight", maxWaitMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CircuitOpenException("Interrupted while waiting for a " + name + " slot", 0);
+        }
+    }
+
+    /**
+     * Gives back a slot taken with {@link #acquire()}.
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * @return the number of free slots
+     */
+    public int getAvailable() {
+        return permits.availablePermits();
+    }
+}
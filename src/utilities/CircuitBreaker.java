@@ -0,0 +1,190 @@
+package utilities;
+
+/**
+ * Stops calling a failing dependency for a while instead of piling more calls onto it.
+ * <p>
+ * While CLOSED, the outcome of the last calls is kept in a sliding window. Once
+ * the window holds enough calls and the share of failed calls, or of calls
+ * slower than the slow-call threshold, reaches its limit, the breaker goes
+ * OPEN and rejects every call at once. After the open period it goes HALF_OPEN
+ * and lets a few probe calls through: if they all succeed in time it closes
+ * again, otherwise it opens for another period.
+ * <p>
+ * A call takes a permit with {@link #acquire()} and reports its outcome with
+ * {@link #onSuccess(long, long)} or {@link #onError(long, long)}. Outcomes of
+ * calls started before the last state change are ignored.
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final double DEFAULT_FAILURE_RATE = 0.5;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 2000;
+    public static final double DEFAULT_SLOW_CALL_RATE = 0.8;
+    public static final long DEFAULT_OPEN_MILLIS = 10000;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 2;
+
+    /**
+     * State of the breaker.
+     */
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int minimumCalls;
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final double slowCallRate;
+    private final long openMillis;
+    private final int halfOpenCalls;
+
+    /** Outcome of the last calls: bit 0 failed, bit 1 slow */
+    private final byte[] window;
+    private int next;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    /** Incremented on every state change, so that late outcomes can be told apart */
+    private long generation;
+    private long openUntil;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    /**
+     * Creates a breaker with the default thresholds.
+     *
+     * @param name The name used in log messages
+     */
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE,
+                DEFAULT_SLOW_CALL_MILLIS, DEFAULT_SLOW_CALL_RATE, DEFAULT_OPEN_MILLIS, DEFAULT_HALF_OPEN_CALLS);
+    }
+
+    /**
+     * Creates a breaker.
+     *
+     * @param name The name used in log messages
+     * @param windowSize Number of recent calls whose outcome is kept
+     * @param minimumCalls Number of calls needed in the window before the breaker may open
+     * @param failureRate Share of failed calls in the window, from 0 to 1, that opens the breaker
+     * @param slowCallMillis Duration above which a call counts as slow, in milliseconds
+     * @param slowCallRate Share of slow calls in the window, from 0 to 1, that opens the breaker
+     * @param openMillis Time during which every call is rejected once open, in milliseconds
+     * @param halfOpenCalls Number of probe calls that must succeed to close the breaker again
+     */
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRate,
+            long slowCallMillis, double slowCallRate, long openMillis, int halfOpenCalls) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || halfOpenCalls < 1) {
+            throw new IllegalArgumentException("Invalid circuit breaker sizes: window=" + windowSize
+                    + ", minimum=" + minimumCalls + ", half-open=" + halfOpenCalls);
+        }
+        this.name = name;
+        this.window = new byte[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRate = failureRate;
+        this.slowCallNanos = slowCallMillis * 1_000_000;
+        this.slowCallRate = slowCallRate;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * Takes a permit for a call.
+     *
+     * @return The permit, to pass back with the outcome of the call
+     * @throws CircuitOpenException If the breaker is open, or half open with all its probes in flight
+     */
+    public synchronized long acquire() throws CircuitOpenException {
+        if (state == State.OPEN) {
+            long wait = openUntil - System.currentTimeMillis();
+            if (wait > 0) {
+                throw new CircuitOpenException("Circuit breaker " + name + " is open, retry in " + wait + " ms", wait);
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= halfOpenCalls) {
+                throw new CircuitOpenException("Circuit breaker " + name + " is probing, retry later", openMillis);
+            }
+            probesStarted++;
+        }
+        return generation;
+    }
+
+    /**
+     * Records a successful call.
+     *
+     * @param permit The permit returned by {@link #acquire()}
+     * @param durationNanos The duration of the call, in nanoseconds
+     */
+    public void onSuccess(long permit, long durationNanos) {
+        record(permit, false, durationNanos >= slowCallNanos);
+    }
+
+    /**
+     * Records a failed call.
+     *
+     * @param permit The permit returned by {@link #acquire()}
+     * @param durationNanos The duration of the call, in nanoseconds
+     */
+    public void onError(long permit, long durationNanos) {
+        record(permit, true, durationNanos >= slowCallNanos);
+    }
+
+    /**
+     * @return the current state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    private synchronized void record(long permit, boolean failed, boolean slow) {
+        if (permit != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            if (failed || slow) {
+                transition(State.OPEN);
+            } else if (++probesSucceeded >= halfOpenCalls) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        if (state != State.CLOSED) {
+            return;
+        }
+        if (recorded == window.length) {
+            byte oldest = window[next];
+            failures -= oldest & 1;
+            slowCalls -= (oldest >> 1) & 1;
+        } else {
+            recorded++;
+        }
+        window[next] = (byte) ((failed ? 1 : 0) | (slow ? 2 : 0));
+        next = (next + 1) % window.length;
+        failures += failed ? 1 : 0;
+        slowCalls += slow ? 1 : 0;
+        if (recorded >= minimumCalls
+                && (failures >= failureRate * recorded || slowCalls >= slowCallRate * recorded)) {
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State to) {
+        if (to == State.OPEN) {
+            openUntil = System.currentTimeMillis() + openMillis;
+            System.err.println("Circuit breaker " + name + " opened for " + openMillis + " ms"
+                    + (state == State.CLOSED ? " (" + failures + " failed and " + slowCalls + " slow of the last " + recorded + " calls)" : ""));
+        } else if (to == State.CLOSED) {
+            System.err.println("Circuit breaker " + name + " closed");
+        }
+        state = to;
+        generation++;
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        slowCalls = 0;
+        probesStarted = 0;
+        probesSucceeded = 0;
+    }
+}
@@ -0,0 +1,27 @@
+package utilities;
+
+/**
+ * Thrown instead of making a call that the {@link CircuitBreaker} or a
+ * {@link Bulkhead} refused, so that the caller sheds load rather than adding to it.
+ */
+public class CircuitOpenException extends ChatException {
+    private static final long serialVersionUID = 7431906542893370461L;
+
+    private final long retryAfterMillis;
+
+    /**
+     * @param message the detail message
+     * @param retryAfterMillis the time after which a call may be accepted again, in milliseconds
+     */
+    public CircuitOpenException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return the time after which a call may be accepted again, in milliseconds
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,219 @@
+package utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Single owner of the parsed configuration, of the {@link DBConnection} and of
+ * the {@link Resilience} guard shared by every model, so that database-config.xml
+ * is parsed once, all the models borrow from one connection pool and the
+ * breaker and bulkheads see every call to the backend.
+ * <p>
+ * With {@link #watch()}, the file is parsed again whenever it changes: the
+ * connection settings are applied to the shared connection at once, and
+ * listeners are told about the new configuration. A file that fails to parse
+ * is ignored and the previous configuration stays in effect.
+ */
+public class ConfigRegistry implements Closeable {
+    public static final String DEFAULT_FILE = "database-config.xml";
+    /** Lets an editor finish writing before the file is parsed again */
+    private static final long RELOAD_DELAY = 200; // milliseconds
+
+    private static ConfigRegistry defaultRegistry;
+
+    private final Path file;
+    private final List<Consumer<DBConfigParser>> listeners = new CopyOnWriteArrayList<>();
+    private volatile DBConfigParser config;
+    private volatile long parseNanos;
+    private DBConnection connection;
+    private Resilience resilience;
+    private WatchService watcher;
+
+    /**
+     * Parses the configuration file.
+     *
+     * @param file The configuration file
+     * @throws ChatException If the file cannot be parsed
+     */
+    public ConfigRegistry(String file) throws ChatException {
+        this.file = Paths.get(file).toAbsolutePath();
+        this.config = parse();
+    }
+
+    /**
+     * @return the registry of database-config.xml in the working directory, parsed on first use
+     * @throws ChatException If the file cannot be parsed
+     */
+    public static synchronized ConfigRegistry getDefault() throws ChatException {
+        if (defaultRegistry == null) {
+            defaultRegistry = new ConfigRegistry(DEFAULT_FILE);
+        }
+        return defaultRegistry;
+    }
+
+    /**
+     * @return the current configuration
+     */
+    public DBConfigParser getConfig() {
+        return config;
+    }
+
+    /**
+     * @return how long the last parse of the file took, in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Returns the database connection shared by every model, creating it on first use.
+     *
+     * @return The shared connection
+     * @throws ChatException If the connection pool cannot be initialized
+     */
+    public synchronized DBConnection getDBConnection() throws ChatException {
+        if (connection == null) {
+            connection = new DBConnection(config);
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the guard shared by every model of the backend, creating it on first use.
+     *
+     * @param name The name of the backend, used in log messages when the guard is created
+     * @return The shared guard
+     */
+    public synchronized Resilience getResilience(String name) {
+        if (resilience == null) {
+            resilience = new Resilience(name, MetricsRegistry.getDefault());
+        }
+        return resilience;
+    }
+
+    /**
+     * Registers a listener told about every configuration reloaded after a change of the file.
+     *
+     * @param listener The listener
+     */
+    public void addListener(Consumer<DBConfigParser> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Starts watching the file for changes. Does nothing if already watching.
+     *
+     * @throws ChatException If the file system cannot be watched
+     */
+    public synchronized void watch() throws ChatException {
+        if (watcher != null) {
+            return;
+        }
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new ChatException("Error watching configuration " + file + ": " + e.getMessage(), e);
+        }
+        Thread thread = new Thread(this::watchLoop, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the file and closes the shared connection.
+     */
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                System.err.println("Error closing configuration watcher: " + e.getMessage());
+            }
+            watcher = null;
+        }
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    private DBConfigParser parse() throws ChatException {
+        long start = System.nanoTime();
+        DBConfigParser parsed = new DBConfigParser();
+        try {
+            parsed.parseConfig(file.toString());
+        } catch (Exception e) {
+            throw new ChatException("Error reading configuration " + file + ": " + e.getMessage(), e);
+        }
+        parseNanos = System.nanoTime() - start;
+        return parsed;
+    }
+
+    private void watchLoop() {
+        WatchService service = watcher;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path && file.getFileName().equals(context)) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    Thread.sleep(RELOAD_DELAY);
+                    // Several events for the same save collapse into one reload
+                    WatchKey pending;
+                    while ((pending = service.poll()) != null) {
+                        pending.pollEvents();
+                        pending.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Stopped by close()
+        }
+    }
+
+    private void reload() {
+        DBConfigParser reloaded;
+        try {
+            reloaded = parse();
+        } catch (ChatException e) {
+            System.err.println("Keeping the previous configuration: " + e.getMessage());
+            return;
+        }
+        config = reloaded;
+        synchronized (this) {
+            if (connection != null) {
+                try {
+                    connection.reconfigure(reloaded);
+                } catch (ChatException e) {
+                    System.err.println("Keeping the previous connection settings: " + e.getMessage());
+                }
+            }
+        }
+        System.err.println("Configuration reloaded from " + file);
+        for (Consumer<DBConfigParser> listener : listeners) {
+            listener.accept(reloaded);
+        }
+    }
+}
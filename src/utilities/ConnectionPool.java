@@ -0,0 +1,592 @@
+package utilities;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of JDBC connections.
+ * Connections handed out by {@link #borrow()} are proxies whose {@code close()}
+ * returns the physical connection to the pool instead of closing it.
+ * <p>
+ * Each physical connection also keeps the statements prepared on it, keyed by
+ * their SQL text, in a small LRU cache: preparing the same call again returns
+ * the cached statement, whose {@code close()} clears its parameters and puts it
+ * back in the cache.
+ */
+public class ConnectionPool {
+    /** Time allowed to open a connection when none is given, in milliseconds */
+    public static final long DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+    private final long connectTimeoutMillis;
+
+    /** Idle connections, most recently returned first */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    /** One permit per connection that may be handed out */
+    private final Semaphore permits;
+    private final ScheduledExecutorService maintenance;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new pool. No connection is opened until the first borrow or
+     * until the maintenance task fills the pool up to its minimum size.
+     *
+     * @param url The JDBC URL
+     * @param user The database user
+     * @param password The database password
+     * @param minSize Number of idle connections kept open
+     * @param maxSize Maximum number of open connections
+     * @param idleTimeoutMillis Time after which an idle connection above the minimum is closed
+     * @param borrowTimeoutMillis Maximum time to wait for a free connection
+     * @param validationTimeoutSeconds Timeout of the validation done on every borrow
+     */
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+            long idleTimeoutMillis, long borrowTimeoutMillis, int validationTimeoutSeconds) {
+        this(url, user, password, minSize, maxSize, idleTimeoutMillis, borrowTimeoutMillis, validationTimeoutSeconds, 0);
+    }
+
+    /**
+     * Creates a new pool. No connection is opened until the first borrow or
+     * until the maintenance task fills the pool up to its minimum size.
+     *
+     * @param url The JDBC URL
+     * @param user The database user
+     * @param password The database password
+     * @param minSize Number of idle connections kept open
+     * @param maxSize Maximum number of open connections
+     * @param idleTimeoutMillis Time after which an idle connection above the minimum is closed
+     * @param borrowTimeoutMillis Maximum time to wait for a free connection
+     * @param validationTimeoutSeconds Timeout of the validation done on every borrow
+     * @param statementCacheSize Number of statements cached per connection, 0 to disable the cache
+     */
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+            long idleTimeoutMillis, long borrowTimeoutMillis, int validationTimeoutSeconds, int statementCacheSize) {
+        this(url, user, password, minSize, maxSize, idleTimeoutMillis, borrowTimeoutMillis, validationTimeoutSeconds,
+                statementCacheSize, DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Creates a new pool. No connection is opened until the first borrow or
+     * until the maintenance task fills the pool up to its minimum size.
+     *
+     * @param url The JDBC URL
+     * @param user The database user
+     * @param password The database password
+     * @param minSize Number of idle connections kept open
+     * @param maxSize Maximum number of open connections
+     * @param idleTimeoutMillis Time after which an idle connection above the minimum is closed
+     * @param borrowTimeoutMillis Maximum time to wait for a free connection
+     * @param validationTimeoutSeconds Timeout of the validation done on every borrow
+     * @param statementCacheSize Number of statements cached per connection, 0 to disable the cache
+     * @param connectTimeoutMillis Maximum time to open a connection, so that an unreachable server fails fast
+     */
+    public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+            long idleTimeoutMillis, long borrowTimeoutMillis, int validationTimeoutSeconds, int statementCacheSize,
+            long connectTimeoutMillis) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        maintenance.scheduleWithFixedDelay(this::maintain, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if none is idle.
+     * The returned connection must be closed to give it back.
+     *
+     * Waits no longer than the current {@link Deadline} of the thread, and the
+     * statements prepared on the connection get the time left as query timeout.
+     *
+     * @return A validated connection
+     * @throws SQLException If no connection becomes available in time or it cannot be opened
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLNonTransientConnectionException("Connection pool is closed", "08003");
+        }
+        try {
+            long timeout = Deadline.cap(borrowTimeoutMillis);
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + timeout + " ms waiting for a pooled connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a pooled connection", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isValid(pooled.physical)) {
+                    break;
+                }
+                validationFailures.incrementAndGet();
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = open();
+            }
+            borrowed.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the pool counters.
+     *
+     * @return The current pool statistics
+     */
+    public Stats getStats() {
+        int idleCount = idle.size();
+        return new Stats(total.get(), idleCount, maxSize - permits.availablePermits(), permits.getQueueLength(),
+                created.get(), destroyed.get(), borrowed.get(), timeouts.get(), validationFailures.get(),
+                statementHits.get(), statementMisses.get(), statementEvictions.get());
+    }
+
+    /**
+     * Closes every idle connection and stops the maintenance task.
+     * Connections currently borrowed are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        maintenance.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Properties info = new Properties();
+        if (user != null) {
+            info.setProperty("user", user);
+        }
+        if (password != null) {
+            info.setProperty("password", password);
+        }
+        // Understood by MySQL Connector/J, in milliseconds; drivers ignore properties they do not know
+        info.setProperty("connectTimeout", Long.toString(Math.max(1, Deadline.cap(connectTimeoutMillis))));
+        Connection physical = DriverManager.getConnection(url, info);
+        total.incrementAndGet();
+        created.incrementAndGet();
+        return new PooledConnection(physical);
+    }
+
+    private void destroy(PooledConnection pooled) {
+        total.decrementAndGet();
+        destroyed.incrementAndGet();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+
+    private boolean isValid(Connection physical) {
+        try {
+            return physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled, boolean broken) {
+        boolean discard = broken || closed;
+        if (!discard) {
+            try {
+                discard = pooled.physical.isClosed();
+                if (!discard && !pooled.physical.getAutoCommit()) {
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                discard = true;
+            }
+        }
+        if (discard) {
+            destroy(pooled);
+        } else {
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        }
+        permits.release();
+    }
+
+    /**
+     * Evicts connections idle for longer than the idle timeout and tops the pool
+     * back up to its minimum size.
+     */
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && total.get() > minSize) {
+            PooledConnection pooled = oldestFirst.next();
+            if (now - pooled.lastUsed > idleTimeoutMillis && idle.remove(pooled)) {
+                destroy(pooled);
+            }
+        }
+
+        while (!closed && total.get() < minSize) {
+            try {
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                System.err.println("Error filling connection pool: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    private class PooledConnection {
+        private final Connection physical;
+        private volatile long lastUsed = System.currentTimeMillis();
+        /** Statements prepared on this connection by SQL text, least recently used first */
+        private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Lease(this));
+        }
+
+        /**
+         * Returns the cached statement for the given SQL if it is free, or prepares and caches a new one.
+         */
+        synchronized Statement prepareCached(Method method, Object[] args) throws Throwable {
+            String key = method.getName() + ":" + args[0];
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse) {
+                if (!cached.physical.isClosed()) {
+                    statementHits.incrementAndGet();
+                    return cached.checkOut(method.getReturnType());
+                }
+                statements.remove(key);
+                cached = null;
+            }
+            statementMisses.incrementAndGet();
+            Statement physicalStatement = (Statement) method.invoke(physical, args);
+            if (cached != null) {
+                // The same call is already open on this lease, hand out a throwaway one
+                return physicalStatement;
+            }
+
+            cached = new CachedStatement(this, physicalStatement);
+            statements.put(key, cached);
+            Iterator<CachedStatement> leastRecent = statements.values().iterator();
+            while (statements.size() > statementCacheSize && leastRecent.hasNext()) {
+                CachedStatement eldest = leastRecent.next();
+                leastRecent.remove();
+                statementEvictions.incrementAndGet();
+                eldest.evicted = true;
+                if (!eldest.inUse) {
+                    eldest.closePhysical();
+                }
+            }
+            return cached.checkOut(method.getReturnType());
+        }
+    }
+
+    /**
+     * A statement kept open on its connection between uses.
+     */
+    private static class CachedStatement {
+        private final PooledConnection owner;
+        private final Statement physical;
+        /** Whether it has been handed out and not closed yet. Guarded by the owner */
+        private boolean inUse;
+        /** Whether it was dropped from the cache while in use. Guarded by the owner */
+        private boolean evicted;
+
+        CachedStatement(PooledConnection owner, Statement physical) {
+            this.owner = owner;
+            this.physical = physical;
+        }
+
+        /**
+         * @return a proxy of the statement whose close() gives it back to the cache
+         */
+        Statement checkOut(Class<?> type) {
+            inUse = true;
+            boolean[] closed = { false };
+            return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] { type },
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if (!closed[0]) {
+                                    closed[0] = true;
+                                    checkIn();
+                                }
+                                return null;
+                            case "isClosed":
+                                return closed[0] || physical.isClosed();
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                break;
+                        }
+                        if (closed[0]) {
+                            throw new SQLException("Statement is closed");
+                        }
+                        try {
+                            return method.invoke(physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        private void checkIn() {
+            synchronized (owner) {
+                inUse = false;
+                if (evicted) {
+                    closePhysical();
+                    return;
+                }
+                try {
+                    // Ready for the next caller, as if freshly prepared
+                    if (physical instanceof PreparedStatement) {
+                        ((PreparedStatement) physical).clearParameters();
+                    }
+                    physical.clearBatch();
+                } catch (SQLException e) {
+                    owner.statements.values().remove(this);
+                    closePhysical();
+                }
+            }
+        }
+
+        private void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing cached statement: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handler behind the connection proxy given to callers. Tracks whether the
+     * lease was closed and whether the physical connection failed while in use.
+     */
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+        private boolean broken;
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                Object result;
+                if (statementCacheSize > 0 && isCacheable(method, args)) {
+                    result = pooled.prepareCached(method, args);
+                } else {
+                    result = method.invoke(pooled.physical, args);
+                }
+                if (result instanceof Statement) {
+                    applyDeadline((Statement) result);
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    String state = ((SQLException) cause).getSQLState();
+                    // SQLState class 08 means the connection itself is unusable
+                    if (state != null && state.startsWith("08")) {
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+
+    /**
+     * Sets the time left before the current deadline as query timeout, rounded
+     * up to whole seconds. Cached statements are reset to no timeout when the
+     * thread has no deadline.
+     */
+    private static void applyDeadline(Statement statement) throws SQLException {
+        Deadline deadline = Deadline.current();
+        int seconds = deadline == null ? 0 : (int) Math.max(1, (deadline.remainingMillis() + 999) / 1000);
+        statement.setQueryTimeout(seconds);
+    }
+
+    /**
+     * @return whether the call prepares a statement from its SQL text alone
+     */
+    private static boolean isCacheable(Method method, Object[] args) {
+        String name = method.getName();
+        return (name.equals("prepareCall") || name.equals("prepareStatement"))
+                && args != null && args.length == 1 && args[0] instanceof String;
+    }
+
+    /**
+     * Immutable snapshot of the pool counters.
+     */
+    public static class Stats {
+        private final int total;
+        private final int idle;
+        private final int active;
+        private final int waiting;
+        private final long created;
+        private final long destroyed;
+        private final long borrowed;
+        private final long timeouts;
+        private final long validationFailures;
+        private final long statementHits;
+        private final long statementMisses;
+        private final long statementEvictions;
+
+        Stats(int total, int idle, int active, int waiting, long created, long destroyed,
+                long borrowed, long timeouts, long validationFailures,
+                long statementHits, long statementMisses, long statementEvictions) {
+            this.total = total;
+            this.idle = idle;
+            this.active = active;
+            this.waiting = waiting;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.borrowed = borrowed;
+            this.timeouts = timeouts;
+            this.validationFailures = validationFailures;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+            this.statementEvictions = statementEvictions;
+        }
+
+        /** @return the number of open physical connections */
+        public int getTotal() { return total; }
+
+        /** @return the number of idle connections */
+        public int getIdle() { return idle; }
+
+        /** @return the number of connections currently borrowed */
+        public int getActive() { return active; }
+
+        /** @return the number of threads waiting for a connection */
+        public int getWaiting() { return waiting; }
+
+        /** @return the number of physical connections opened so far */
+        public long getCreated() { return created; }
+
+        /** @return the number of physical connections closed so far */
+        public long getDestroyed() { return destroyed; }
+
+        /** @return the number of successful borrows */
+        public long getBorrowed() { return borrowed; }
+
+        /** @return the number of borrows that timed out */
+        public long getTimeouts() { return timeouts; }
+
+        /** @return the number of idle connections that failed validation */
+        public long getValidationFailures() { return validationFailures; }
+
+        /** @return the number of statements served from the statement cache */
+        public long getStatementHits() { return statementHits; }
+
+        /** @return the number of statements that had to be prepared */
+        public long getStatementMisses() { return statementMisses; }
+
+        /** @return the number of statements dropped from a full statement cache */
+        public long getStatementEvictions() { return statementEvictions; }
+
+        @Override
+        public String toString() {
+            return "total=" + total + ", idle=" + idle + ", active=" + active + ", waiting=" + waiting
+                    + ", created=" + created + ", destroyed=" + destroyed + ", borrowed=" + borrowed
+                    + ", timeouts=" + timeouts + ", validationFailures=" + validationFailures
+                    + ", statementHits=" + statementHits + ", statementMisses=" + statementMisses
+                    + ", statementEvictions=" + statementEvictions;
+        }
+    }
+}
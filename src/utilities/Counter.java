@@ -0,0 +1,34 @@
+package utilities;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events, such as errors. Cheap enough to be incremented on every call.
+ */
+public class Counter implements CounterMXBean {
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Counts one event.
+     */
+    public void increment() {
+        count.increment();
+    }
+
+    /**
+     * Counts several events at once.
+     *
+     * @param events The number of events
+     */
+    public void add(long events) {
+        count.add(events);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+}
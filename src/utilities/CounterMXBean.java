@@ -0,0 +1,12 @@
+package utilities;
+
+/**
+ * JMX view of a {@link Counter}.
+ */
+public interface CounterMXBean {
+
+    /**
+     * @return the number of events counted since startup
+     */
+    long getCount();
+}
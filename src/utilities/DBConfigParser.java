@@ -6,14 +6,35 @@ import org.xml.sax.helpers.DefaultHandler;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 public class DBConfigParser {
 	private String host;
     private String port;
+    private String url;
     private String database;
     private String username;
     private String password;
+    private String poolMinSize;
+    private String poolMaxSize;
+    private String poolIdleTimeout;
+    private String poolBorrowTimeout;
+    private String poolConnectTimeout;
+    private String poolValidationTimeout;
+    private String relayHost;
+    private String backend;
+    private String relayPort;
+    private String outboxDir;
+    private String historyDir;
+    private String fetchSize;
+    private String statementCacheSize;
+    private String metricsInterval;
+    private String presenceLease;
+    private String readYourWritesWindow;
+    private final List<Replica> replicas = new ArrayList<>();
     
     
     /**
@@ -28,17 +49,49 @@ public class DBConfigParser {
 
         DefaultHandler handler = new DefaultHandler() {
             private String currentElement = "";
+            /** The replica being read, null outside of a replica element */
+            private Replica replica;
 
             @Override
             public void startElement(String uri, String localName, 
                                      String qName, Attributes attributes) {
                 currentElement = qName;
+                if (qName.equals("replica")) {
+                    replica = new Replica();
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                currentElement = "";
+                if (qName.equals("replica")) {
+                    replicas.add(replica);
+                    replica = null;
+                }
             }
 
             @Override
             public void characters(char[] ch, int start, int length) {
                 String value = new String(ch, start, length).trim();
-                if (!value.isEmpty()) {
+                if (!value.isEmpty() && replica != null) {
+                    switch (currentElement) {
+                        case "host":
+                            replica.host = value;
+                            break;
+                        case "port":
+                            replica.port = value;
+                            break;
+                        case "database":
+                            replica.database = value;
+                            break;
+                        case "username":
+                            replica.username = value;
+                            break;
+                        case "password":
+                            replica.password = value;
+                            break;
+                    }
+                } else if (!value.isEmpty()) {
                     switch (currentElement) {
                         case "host":
                         	host = value;
@@ -46,6 +99,9 @@ public class DBConfigParser {
                         case "port":
                         	port = value;
                             break;
+                        case "url":
+                            url = value;
+                            break;
                         case "database":
                         	database = value;
                             break;
@@ -55,6 +111,54 @@ public class DBConfigParser {
                         case "password":
                             password = value;
                             break;
+                        case "min-size":
+                            poolMinSize = value;
+                            break;
+                        case "max-size":
+                            poolMaxSize = value;
+                            break;
+                        case "idle-timeout":
+                            poolIdleTimeout = value;
+                            break;
+                        case "borrow-timeout":
+                            poolBorrowTimeout = value;
+                            break;
+                        case "connect-timeout":
+                            poolConnectTimeout = value;
+                            break;
+                        case "validation-timeout":
+                            poolValidationTimeout = value;
+                            break;
+                        case "backend":
+                            backend = value;
+                            break;
+                        case "relay-host":
+                            relayHost = value;
+                            break;
+                        case "relay-port":
+                            relayPort = value;
+                            break;
+                        case "outbox-dir":
+                            outboxDir = value;
+                            break;
+                        case "history-dir":
+                            historyDir = value;
+                            break;
+                        case "fetch-size":
+                            fetchSize = value;
+                            break;
+                        case "statement-cache-size":
+                            statementCacheSize = value;
+                            break;
+                        case "metrics-interval":
+                            metricsInterval = value;
+                            break;
+                        case "presence-lease":
+                            presenceLease = value;
+                            break;
+                        case "read-your-writes-window":
+                            readYourWritesWindow = value;
+                            break;
                     }
                 }
             }
@@ -78,6 +182,13 @@ public class DBConfigParser {
 		return port;
 	}
 
+	/**
+	 * @return the JDBC URL of the primary database overriding the host, port and database, or null to use them
+	 */
+	public String getUrl() {
+		return url;
+	}
+
 	/**
 	 * @return the database
 	 */
@@ -98,4 +209,170 @@ public class DBConfigParser {
 	public String getPassword() {
 		return password;
 	}
+
+	/**
+	 * @return the minimum pool size, or null if not configured
+	 */
+	public String getPoolMinSize() {
+		return poolMinSize;
+	}
+
+	/**
+	 * @return the maximum pool size, or null if not configured
+	 */
+	public String getPoolMaxSize() {
+		return poolMaxSize;
+	}
+
+	/**
+	 * @return the pool idle timeout in milliseconds, or null if not configured
+	 */
+	public String getPoolIdleTimeout() {
+		return poolIdleTimeout;
+	}
+
+	/**
+	 * @return the pool borrow timeout in milliseconds, or null if not configured
+	 */
+	public String getPoolBorrowTimeout() {
+		return poolBorrowTimeout;
+	}
+
+	/**
+	 * @return the timeout of opening a pooled connection in milliseconds, or null if not configured
+	 */
+	public String getPoolConnectTimeout() {
+		return poolConnectTimeout;
+	}
+
+	/**
+	 * @return the pool validation timeout in seconds, or null if not configured
+	 */
+	public String getPoolValidationTimeout() {
+		return poolValidationTimeout;
+	}
+
+	/**
+	 * @return the message relay host, or null if push mode is not configured
+	 */
+	public String getRelayHost() {
+		return relayHost;
+	}
+
+	/**
+	 * @return the message relay port, or null if not configured
+	 */
+	public String getRelayPort() {
+		return relayPort;
+	}
+
+	/**
+	 * @return the backend name, or null for the default MySQL backend
+	 */
+	public String getBackend() {
+		return backend;
+	}
+
+	/**
+	 * @return the directory of the durable outboxes, or null to keep unsent messages in memory only
+	 */
+	public String getOutboxDir() {
+		return outboxDir;
+	}
+
+	/**
+	 * @return the directory of the local history cache, or null to always read the history from the database
+	 */
+	public String getHistoryDir() {
+		return historyDir;
+	}
+
+	/**
+	 * @return the JDBC fetch size of streamed queries, or null for the driver default
+	 */
+	public String getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * @return the number of statements cached per pooled connection, or null for the default
+	 */
+	public String getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * @return the period of the metrics summary in seconds, or null to not print it
+	 */
+	public String getMetricsInterval() {
+		return metricsInterval;
+	}
+
+	/**
+	 * @return the presence lease of the backend in seconds, which the heartbeats are paced by, or null for the default
+	 */
+	public String getPresenceLease() {
+		return presenceLease;
+	}
+
+	/**
+	 * @return the read replicas, in configuration order; empty when every query goes to the primary
+	 */
+	public List<Replica> getReplicas() {
+		return Collections.unmodifiableList(replicas);
+	}
+
+	/**
+	 * @return the time in milliseconds after a write during which reads still go to the primary, or null for the default
+	 */
+	public String getReadYourWritesWindow() {
+		return readYourWritesWindow;
+	}
+
+	/**
+	 * A read replica of the primary database.
+	 * Each setting left out of the replica element is the one of the primary.
+	 */
+	public class Replica {
+		private String host;
+		private String port;
+		private String database;
+		private String username;
+		private String password;
+
+		/**
+		 * @return the host
+		 */
+		public String getHost() {
+			return host != null ? host : DBConfigParser.this.host;
+		}
+
+		/**
+		 * @return the port
+		 */
+		public String getPort() {
+			return port != null ? port : DBConfigParser.this.port;
+		}
+
+		/**
+		 * @return the database
+		 */
+		public String getDatabase() {
+			return database != null ? database : DBConfigParser.this.database;
+		}
+
+		/**
+		 * @return the username
+		 */
+		public String getUsername() {
+			return username != null ? username : DBConfigParser.this.username;
+		}
+
+		/**
+		 * @return the password
+		 */
+		public String getPassword() {
+			return password != null ? password : DBConfigParser.this.password;
+		}
+	}
 }
@@ -1,37 +1,313 @@
 package utilities;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Pooled connections to the primary database and, if configured, to its read replicas.
+ * <p>
+ * Writes borrow from the primary with {@link #getConnection()}. Reads borrow with
+ * {@link #getReadConnection(long)}, which spreads them over the replicas in turn. Since
+ * a replica lags behind the primary, a caller's reads keep going to the primary
+ * for a short window after its own writes, so that it sees its messages at once.
+ */
 public class DBConnection {
-    private final String URL;
-    private final String USER;
-    private final String PASSWORD;
+    private static final int DEFAULT_POOL_MIN_SIZE = 1;
+    private static final int DEFAULT_POOL_MAX_SIZE = 8;
+    private static final long DEFAULT_POOL_IDLE_TIMEOUT = 60000; // milliseconds
+    private static final long DEFAULT_POOL_BORROW_TIMEOUT = 5000; // milliseconds
+    private static final int DEFAULT_POOL_VALIDATION_TIMEOUT = 2; // seconds
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 16;
+    /** Let the driver decide */
+    private static final int DEFAULT_FETCH_SIZE = 0;
+    private static final long DEFAULT_READ_YOUR_WRITES_WINDOW = 5000; // milliseconds
+    /** Database of the h2 backend without a url: a file in the working directory, shared by the local clients */
+    private static final String DEFAULT_H2_URL = "jdbc:h2:./chat;AUTO_SERVER=TRUE";
+
+    private static final long MIN_REPLICA_BACKOFF = 1000; // milliseconds
+    private static final long MAX_REPLICA_BACKOFF = 30000; // milliseconds
+
+    private volatile ConnectionPool pool;
+    private volatile List<Replica> replicas = Collections.emptyList();
+    private volatile int fetchSize;
+    private volatile long readYourWritesWindow;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LatencyTimer acquireTimer = MetricsRegistry.getDefault().timer("db.connection.acquire");
+    private final Counter acquireErrors = MetricsRegistry.getDefault().counter("db.connection.acquire.errors");
+    private final Counter replicaReads = MetricsRegistry.getDefault().counter("db.read.replica");
+    private final Counter primaryReads = MetricsRegistry.getDefault().counter("db.read.primary");
+    private final Counter replicaFailures = MetricsRegistry.getDefault().counter("db.read.replica.errors");
 
     /**
-     * Constructs a new ChatDAO and establishes a database connection.
+     * Creates the connection pools from database-config.xml in the working directory.
+     * No connection is opened until the first borrow. Prefer the connection shared through {@link ConfigRegistry#getDBConnection()}.
      *
-     * @throws ChatAppException if there's an error connecting to the database
+     * @throws ChatException if the configuration cannot be read or is invalid
      */
     public DBConnection() throws ChatException {
-        // Parse database configuration
-    	try {
-        	DBConfigParser configParser = new DBConfigParser();
-			configParser.parseConfig("database-config.xml");
-	    	this.URL = "jdbc:mysql://" + configParser.getHost() + ":" + configParser.getPort() + "/" + configParser.getDatabase() + "?noAccessToProcedureBodies=true";
-	        this.USER = configParser.getUsername();
-	        this.PASSWORD = configParser.getPassword();
-		} catch (Exception e) {
-			throw new ChatException("Error sending message: " + e.getMessage(), e);
-		}
-    }
-
-    
+        this(ConfigRegistry.getDefault().getConfig());
+    }
+
+    /**
+     * Creates the connection pools from an already parsed configuration.
+     * No connection is opened until the first borrow.
+     *
+     * @param configParser The configuration
+     * @throws ChatException if the settings are invalid
+     */
+    public DBConnection(DBConfigParser configParser) throws ChatException {
+        configure(configParser);
+    }
+
+    /**
+     * Applies new connection settings. Later borrows use new pools; connections
+     * borrowed from the previous ones are closed when they are returned.
+     * Nothing changes if the new settings are invalid.
+     *
+     * @param configParser The new configuration
+     * @throws ChatException if the new settings are invalid
+     */
+    public synchronized void reconfigure(DBConfigParser configParser) throws ChatException {
+        configure(configParser);
+    }
+
+    /**
+     * Creates the pools and reads the settings, then replaces the current ones
+     * only once everything was created.
+     */
+    private void configure(DBConfigParser configParser) throws ChatException {
+        String url;
+        int newFetchSize;
+        long newWindow;
+        ConnectionPool newPool;
+        try {
+            url = configParser.getUrl() != null ? configParser.getUrl()
+                    : "h2".equals(configParser.getBackend()) ? DEFAULT_H2_URL
+                    : url(configParser.getHost(), configParser.getPort(), configParser.getDatabase());
+            newFetchSize = parseInt(configParser.getFetchSize(), DEFAULT_FETCH_SIZE);
+            newWindow = parseLong(configParser.getReadYourWritesWindow(), DEFAULT_READ_YOUR_WRITES_WINDOW);
+            newPool = createPool(configParser, url, configParser.getUsername(), configParser.getPassword());
+        } catch (RuntimeException e) {
+            throw new ChatException("Error configuring the database connection: " + e.getMessage(), e);
+        }
+        List<Replica> newReplicas;
+        try {
+            newReplicas = createReplicas(configParser);
+        } catch (ChatException e) {
+            newPool.close();
+            throw e;
+        }
+
+        ConnectionPool previous = pool;
+        List<Replica> previousReplicas = replicas;
+        this.fetchSize = newFetchSize;
+        this.readYourWritesWindow = newWindow;
+        this.pool = newPool;
+        this.replicas = newReplicas;
+        if (previous != null) {
+            previous.close();
+        }
+        for (Replica replica : previousReplicas) {
+            replica.pool.close();
+        }
+    }
+
+    private List<Replica> createReplicas(DBConfigParser configParser) throws ChatException {
+        List<Replica> created = new ArrayList<>();
+        try {
+            for (DBConfigParser.Replica replica : configParser.getReplicas()) {
+                created.add(new Replica(createPool(configParser, url(replica.getHost(), replica.getPort(), replica.getDatabase()),
+                        replica.getUsername(), replica.getPassword())));
+            }
+        } catch (RuntimeException e) {
+            for (Replica replica : created) {
+                replica.pool.close();
+            }
+            throw new ChatException("Error configuring the replica connections: " + e.getMessage(), e);
+        }
+        return Collections.unmodifiableList(created);
+    }
+
+    private static String url(String host, String port, String database) {
+        return "jdbc:mysql://" + host + ":" + port + "/" + database + "?noAccessToProcedureBodies=true";
+    }
+
+    private static ConnectionPool createPool(DBConfigParser configParser, String url, String user, String password) {
+        return new ConnectionPool(url, user, password,
+        		parseInt(configParser.getPoolMinSize(), DEFAULT_POOL_MIN_SIZE),
+        		getPoolMaxSize(configParser),
+        		parseLong(configParser.getPoolIdleTimeout(), DEFAULT_POOL_IDLE_TIMEOUT),
+        		parseLong(configParser.getPoolBorrowTimeout(), DEFAULT_POOL_BORROW_TIMEOUT),
+        		parseInt(configParser.getPoolValidationTimeout(), DEFAULT_POOL_VALIDATION_TIMEOUT),
+        		parseInt(configParser.getStatementCacheSize(), DEFAULT_STATEMENT_CACHE_SIZE),
+        		parseLong(configParser.getPoolConnectTimeout(), ConnectionPool.DEFAULT_CONNECT_TIMEOUT));
+    }
+
+    /**
+     * Borrows a connection to the primary, for a write. Closing it returns it to the pool.
+     * The wait is recorded by the {@code db.connection.acquire} timer.
+     *
+     * @return A pooled connection
+     * @throws SQLException If no connection could be obtained
+     */
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return borrow(pool);
+    }
+
+    /**
+     * Borrows a connection for a read by a caller that has not written recently.
+     *
+     * @return A pooled connection
+     * @throws SQLException If no connection could be obtained
+     * @see #getReadConnection(long)
+     */
+    public Connection getReadConnection() throws SQLException {
+        return getReadConnection(0);
+    }
+
+    /**
+     * Borrows a connection for a read. Closing it returns it to its pool.
+     * The connection is to the next replica, or to the primary when there is
+     * no replica, during the read-your-writes window following the caller's
+     * last write, or when no replica answers. A replica that failed is skipped
+     * for a backoff period, doubled on each new failure.
+     *
+     * @param lastWrite The time the caller last wrote, in milliseconds since the epoch, 0 if never
+     * @return A pooled connection
+     * @throws SQLException If no connection could be obtained
+     */
+    public Connection getReadConnection(long lastWrite) throws SQLException {
+        List<Replica> current = replicas;
+        long now = System.currentTimeMillis();
+        if (!current.isEmpty() && now - lastWrite >= readYourWritesWindow) {
+            int first = Math.floorMod(nextReplica.getAndIncrement(), current.size());
+            for (int i = 0; i < current.size(); i++) {
+                Replica replica = current.get((first + i) % current.size());
+                if (replica.isBackingOff(now)) {
+                    continue;
+                }
+                try {
+                    Connection conn = borrow(replica.pool);
+                    replica.succeeded();
+                    replicaReads.increment();
+                    return conn;
+                } catch (SQLException e) {
+                    replicaFailures.increment();
+                    long backoff = replica.failed(now);
+                    System.err.println("Error connecting to replica, skipping it for " + backoff + " ms: " + e.getMessage());
+                }
+            }
+        }
+        Connection conn = borrow(pool);
+        primaryReads.increment();
+        return conn;
+    }
+
+    private Connection borrow(ConnectionPool from) throws SQLException {
+        long start = acquireTimer.start();
+        try {
+            return from.borrow();
+        } catch (SQLException | RuntimeException e) {
+            acquireErrors.increment();
+            throw e;
+        } finally {
+            acquireTimer.stop(start);
+        }
+    }
+
+    /**
+     * @return the JDBC fetch size hint for streamed queries, 0 to let the driver decide.
+     *         With MySQL, {@link Integer#MIN_VALUE} streams the rows one at a time.
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @param configParser The configuration
+     * @return the maximum number of connections of each pool, as configured
+     */
+    public static int getPoolMaxSize(DBConfigParser configParser) {
+        return parseInt(configParser.getPoolMaxSize(), DEFAULT_POOL_MAX_SIZE);
+    }
+
+    /**
+     * @return a snapshot of the connection pool statistics
+     */
+    public ConnectionPool.Stats getPoolStats() {
+        return pool.getStats();
+    }
+
+    /**
+     * @return a snapshot of the statistics of each replica pool, in configuration order
+     */
+    public List<ConnectionPool.Stats> getReplicaPoolStats() {
+        List<ConnectionPool.Stats> stats = new ArrayList<>();
+        for (Replica replica : replicas) {
+            stats.add(replica.pool.getStats());
+        }
+        return stats;
     }
-    
+
+    /**
+     * Closes all pooled connections, to the primary and to the replicas.
+     */
+    public void close() {
+        pool.close();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
     public static void disconnect(Connection connection) throws SQLException {
         connection.close();
     }
-}
 
+    private static int parseInt(String value, int defaultValue) {
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * The pool of a replica and its health.
+     */
+    private static class Replica {
+        private final ConnectionPool pool;
+        /** Time until which the replica is skipped, in milliseconds since the epoch */
+        private volatile long retryAt;
+        /** Current backoff, 0 while the replica answers. Guarded by this */
+        private long backoff;
+
+        Replica(ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        boolean isBackingOff(long now) {
+            return now < retryAt;
+        }
+
+        /**
+         * @return the time the replica is now skipped for, in milliseconds
+         */
+        synchronized long failed(long now) {
+            backoff = backoff == 0 ? MIN_REPLICA_BACKOFF : Math.min(MAX_REPLICA_BACKOFF, backoff * 2);
+            retryAt = now + backoff;
+            return backoff;
+        }
+
+        void succeeded() {
+            if (retryAt != 0) {
+                synchronized (this) {
+                    backoff = 0;
+                    retryAt = 0;
+                }
+            }
+        }
+    }
+}
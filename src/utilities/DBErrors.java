@@ -0,0 +1,81 @@
+package utilities;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+
+/**
+ * Tells the database errors worth retrying, because the database or the path
+ * to it failed, from the rejections of the request itself, such as a taken
+ * nickname or a constraint violation, which fail the same way every time.
+ */
+public final class DBErrors {
+    /** MySQL: lock wait timeout exceeded */
+    private static final int LOCK_WAIT_TIMEOUT = 1205;
+    /** MySQL: deadlock found when trying to get lock */
+    private static final int DEADLOCK = 1213;
+    /** MySQL: the server runs with an option preventing the statement, typically --read-only */
+    private static final int OPTION_PREVENTS_STATEMENT = 1290;
+    /** MySQL: cannot execute statement in a read-only transaction */
+    private static final int READ_ONLY_TRANSACTION = 1792;
+    /** MySQL: running in read-only mode */
+    private static final int READ_ONLY_MODE = 1836;
+
+    private DBErrors() {
+    }
+
+    /**
+     * Whether an error may not happen again if the same statements are retried
+     * later: the connection was lost, the transaction was rolled back by a
+     * deadlock or a timeout, or the server does not accept writes for now, as a
+     * demoted primary during a failover.
+     *
+     * @param e The error
+     * @return whether the error is transient
+     */
+    public static boolean isTransient(SQLException e) {
+        if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        if (state != null && (state.startsWith("08") || state.startsWith("40") || state.startsWith("HYT")
+                || state.equals("25006"))) {
+            // Connection exception, transaction rollback, timeout, read-only transaction
+            return true;
+        }
+        switch (e.getErrorCode()) {
+            case LOCK_WAIT_TIMEOUT:
+            case DEADLOCK:
+            case OPTION_PREVENTS_STATEMENT:
+            case READ_ONLY_TRANSACTION:
+            case READ_ONLY_MODE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether a failed call points at the backend rather than at the request:
+     * a passed deadline, a transient database error or an unexpected exception
+     * anywhere in the causes. A {@link ChatException} without any such cause is
+     * a rejection of the request.
+     *
+     * @param error The error of the call
+     * @return whether the error is a failure of the backend
+     */
+    public static boolean isBackendFailure(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof DeadlineExceededException) {
+                return true;
+            }
+            if (e instanceof SQLException) {
+                return isTransient((SQLException) e);
+            }
+            if (!(e instanceof ChatException) && !(e instanceof UncheckedChatException)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package utilities;
+
+/**
+ * The time by which an operation must complete, carried by the thread running it.
+ * <p>
+ * The front end sets a deadline when it starts an operation with
+ * {@link #run(Operation)}; the layers below read it with {@link #current()} to
+ * give up early instead of working for a caller that stopped waiting: the
+ * resilience decorators reject calls whose deadline passed, the connection pool
+ * waits no longer than the time left, and statements get it as query timeout.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    /** Expiry, on the {@link System#nanoTime()} clock */
+    private final long expiresAt;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Creates a deadline that expires after the given time from now.
+     *
+     * @param millis The time allowed, in milliseconds
+     * @return The deadline
+     */
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + millis * 1_000_000);
+    }
+
+    /**
+     * @return the deadline of the operation running on this thread, or null if it has none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the time left before expiry in milliseconds, 0 or less once expired
+     */
+    public long remainingMillis() {
+        return (expiresAt - System.nanoTime()) / 1_000_000;
+    }
+
+    /**
+     * @return whether the deadline has passed
+     */
+    public boolean isExpired() {
+        return expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Runs an operation with this deadline as the current one of the thread,
+     * restoring the previous deadline afterwards. A deadline already set by an
+     * enclosing operation is kept if it is the earlier one.
+     *
+     * @param operation The operation
+     * @return The result of the operation
+     * @throws ChatException If the deadline passed before the operation started, or the operation failed
+     */
+    public <T> T run(Operation<T> operation) throws ChatException {
+        Deadline previous = CURRENT.get();
+        Deadline effective = previous != null && previous.expiresAt - expiresAt < 0 ? previous : this;
+        effective.check();
+        CURRENT.set(effective);
+        try {
+            return operation.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Fails if the current deadline of the thread has passed.
+     *
+     * @throws DeadlineExceededException If it has
+     */
+    public static void checkCurrent() throws DeadlineExceededException {
+        Deadline current = CURRENT.get();
+        if (current != null) {
+            current.check();
+        }
+    }
+
+    /**
+     * Shortens a timeout to the time left before the current deadline of the thread.
+     *
+     * @param millis The timeout, in milliseconds
+     * @return The timeout, or the time left if shorter, never negative
+     */
+    public static long cap(long millis) {
+        Deadline current = CURRENT.get();
+        return current == null ? millis : Math.max(0, Math.min(millis, current.remainingMillis()));
+    }
+
+    private void check() throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException("Deadline exceeded by " + -remainingMillis() + " ms");
+        }
+    }
+
+    /**
+     * An operation run with a deadline.
+     */
+    @FunctionalInterface
+    public interface Operation<T> {
+        T call() throws ChatException;
+    }
+}
@@ -0,0 +1,15 @@
+package utilities;
+
+/**
+ * Thrown instead of starting a call whose {@link Deadline} has already passed.
+ */
+public class DeadlineExceededException extends ChatException {
+    private static final long serialVersionUID = -4170963375227395530L;
+
+    /**
+     * @param message the detail message
+     */
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
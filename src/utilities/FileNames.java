@@ -0,0 +1,32 @@
+package utilities;
+
+/**
+ * Turns names chosen by users, such as rooms and nicknames, into names of files
+ * and directories.
+ */
+public final class FileNames {
+    private FileNames() {
+    }
+
+    /**
+     * Encodes a name as a single, valid file name. Lowercase ASCII letters,
+     * digits and '-' are kept; every other character, '_' and uppercase letters
+     * included, becomes '_' followed by its four hexadecimal digits. Two
+     * different names therefore never share a file, even on a file system that
+     * ignores case.
+     *
+     * @param name The name
+     * @return The file name
+     */
+    public static String encode(String name) {
+        StringBuilder encoded = new StringBuilder(name.length());
+        for (char c : name.toCharArray()) {
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-') {
+                encoded.append(c);
+            } else {
+                encoded.append('_').append(String.format("%04x", (int) c));
+            }
+        }
+        return encoded.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refresh scheduler that always polls at the same interval.
+ */
+public class FixedRefreshScheduler implements RefreshScheduler {
+    private final long interval;
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param interval The polling interval in milliseconds
+     */
+    public FixedRefreshScheduler(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long nextDelay() {
+        return interval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onResult(int newItems) {
+        polls.incrementAndGet();
+        if (newItems > 0) {
+            hits.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(ChatException e) {
+        polls.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setForeground(boolean foreground) {
+        // The interval does not depend on visibility
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCurrentInterval() {
+        return interval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getHitRatio() {
+        long total = polls.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+}
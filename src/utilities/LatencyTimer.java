@@ -0,0 +1,86 @@
+package utilities;
+
+/**
+ * Times calls into a {@link LatencyHistogram}. Timing a call costs two
+ * {@link System#nanoTime()} reads and two atomic increments.
+ * <p>
+ * Usage: {@code long start = timer.start(); try { ... } finally { timer.stop(start); }}
+ */
+public class LatencyTimer implements TimerMXBean {
+    private final LatencyHistogram total = new LatencyHistogram();
+    /** Latencies since the last periodic report */
+    private final LatencyHistogram interval = new LatencyHistogram();
+
+    /**
+     * @return the start time to pass to {@link #stop(long)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since the given start time.
+     *
+     * @param start The value returned by {@link #start()}
+     */
+    public void stop(long start) {
+        record((System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Records a latency measured elsewhere.
+     *
+     * @param micros The latency in microseconds
+     */
+    public void record(long micros) {
+        total.record(micros);
+        interval.record(micros);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCount() {
+        return total.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getP50Micros() {
+        return total.getPercentile(0.5);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getP90Micros() {
+        return total.getPercentile(0.9);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getP99Micros() {
+        return total.getPercentile(0.99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxMicros() {
+        return total.getPercentile(1.0);
+    }
+
+    /**
+     * @return the latencies recorded since the last periodic report
+     */
+    LatencyHistogram getInterval() {
+        return interval;
+    }
+}
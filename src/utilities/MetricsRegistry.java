@@ -0,0 +1,148 @@
+package utilities;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named {@link Counter}s and {@link LatencyTimer}s of the hot paths of the
+ * application, such as model calls and connection borrows.
+ * <p>
+ * Every metric is registered as an MXBean under the {@value #JMX_DOMAIN}
+ * domain, so it can be watched with JConsole or VisualVM, and
+ * {@link #startReporting(long)} also prints one summary line periodically.
+ * Look up a metric once and keep it: recording is lock-free, looking up is not free.
+ */
+public class MetricsRegistry {
+    public static final String JMX_DOMAIN = "javachat";
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry(true);
+
+    private final boolean jmx;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    /** Sorted so that the report lists the timers in a stable order */
+    private final Map<String, LatencyTimer> timers = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Creates a registry.
+     *
+     * @param jmx Whether to register the metrics with the platform MBean server
+     */
+    public MetricsRegistry(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    /**
+     * @return the registry shared by the whole application, exported through JMX
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it on first use.
+     *
+     * @param name The dotted name of the counter, e.g. {@code model.message.getSince.errors}
+     * @return The counter
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> register(n, "Counter", new Counter()));
+    }
+
+    /**
+     * Returns the timer with the given name, creating it on first use.
+     *
+     * @param name The dotted name of the timer, e.g. {@code model.message.getSince}
+     * @return The timer
+     */
+    public LatencyTimer timer(String name) {
+        return timers.computeIfAbsent(name, n -> register(n, "Timer", new LatencyTimer()));
+    }
+
+    /**
+     * Prints a summary of the calls timed during each period to standard output.
+     * Does nothing if already reporting.
+     *
+     * @param periodMillis The period, in milliseconds
+     */
+    public synchronized void startReporting(long periodMillis) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(this::report, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic summary.
+     */
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+
+    /**
+     * Builds the summary of the calls timed since the previous one, and starts a new period.
+     *
+     * @return One line listing, for each timer called during the period, the number
+     *         of calls, the median and 99th percentile latencies and, if any, the number
+     *         of errors since startup
+     */
+    public String formatReport() {
+        StringBuilder line = new StringBuilder("Metrics:");
+        for (Map.Entry<String, LatencyTimer> entry : timers.entrySet()) {
+            LatencyHistogram interval = entry.getValue().getInterval();
+            long count = interval.getCount();
+            if (count == 0) {
+                continue;
+            }
+            line.append(' ').append(entry.getKey())
+                .append(" n=").append(count)
+                .append(" p50=").append(interval.getPercentile(0.5)).append("us")
+                .append(" p99=").append(interval.getPercentile(0.99)).append("us");
+            Counter errors = counters.get(entry.getKey() + ".errors");
+            if (errors != null && errors.getCount() > 0) {
+                line.append(" errors=").append(errors.getCount());
+            }
+            line.append(';');
+            // Calls recorded between reading and resetting are lost, which a summary can afford
+            interval.reset();
+        }
+        return line.toString();
+    }
+
+    private void report() {
+        String line = formatReport();
+        if (line.indexOf(' ') > 0) {
+            System.out.println(line);
+        }
+    }
+
+    private <T> T register(String name, String type, T metric) {
+        if (jmx) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(metric, new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name)));
+            } catch (JMException e) {
+                // The metric still works, it is only missing from JMX
+                System.err.println("Error registering metric " + name + ": " + e.getMessage());
+            }
+        }
+        return metric;
+    }
+}
@@ -0,0 +1,46 @@
+package utilities;
+
+/**
+ * Decides how long to wait between two refreshes of a polled view.
+ * The view reports the outcome of every poll and asks for the next delay.
+ */
+public interface RefreshScheduler {
+    
+    /**
+     * Returns the delay to wait before the next poll.
+     * 
+     * @return The delay in milliseconds
+     */
+    long nextDelay();
+    
+    /**
+     * Reports a successful poll.
+     * 
+     * @param newItems The number of new items the poll returned
+     */
+    void onResult(int newItems);
+    
+    /**
+     * Reports a poll that failed.
+     * 
+     * @param e The error raised by the poll
+     */
+    void onError(ChatException e);
+    
+    /**
+     * Reports whether the polled view is currently visible and focused.
+     * 
+     * @param foreground true if the view is in the foreground
+     */
+    void setForeground(boolean foreground);
+    
+    /**
+     * @return the current polling interval in milliseconds, without jitter
+     */
+    long getCurrentInterval();
+    
+    /**
+     * @return the fraction of polls that returned new items, between 0 and 1
+     */
+    double getHitRatio();
+}
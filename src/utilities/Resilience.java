@@ -0,0 +1,112 @@
+package utilities;
+
+/**
+ * Guards the calls to the backend with a {@link CircuitBreaker} shared by every
+ * call, one {@link Bulkhead} per kind of call, and the current {@link Deadline}.
+ * <p>
+ * A call whose deadline passed, that finds its bulkhead full, or that arrives
+ * while the breaker is open fails at once with a {@link ChatException} and never
+ * reaches the backend. Rejections are counted in the metrics registry under
+ * {@code resilience.<kind>.rejected}.
+ * <p>
+ * Only failures of the backend count against the breaker, see
+ * {@link DBErrors#isBackendFailure}; a request turned down by the backend, as
+ * a taken nickname, counts as a successful call.
+ */
+public class Resilience {
+    private static final int DEFAULT_READ_CONCURRENCY = 4;
+    private static final int DEFAULT_WRITE_CONCURRENCY = 2;
+    private static final long DEFAULT_BULKHEAD_WAIT = 200; // milliseconds
+
+    /**
+     * Kind of call, each with its own bulkhead.
+     */
+    public enum Kind { READ, WRITE }
+
+    private final CircuitBreaker breaker;
+    private final Bulkhead reads;
+    private final Bulkhead writes;
+    private final Counter readRejections;
+    private final Counter writeRejections;
+
+    /**
+     * Creates a guard with the default breaker thresholds and bulkhead sizes.
+     *
+     * @param name The name of the guarded backend, used in log messages
+     * @param metrics The registry the rejections are counted in
+     */
+    public Resilience(String name, MetricsRegistry metrics) {
+        this(new CircuitBreaker(name),
+                new Bulkhead(name + " read", DEFAULT_READ_CONCURRENCY, DEFAULT_BULKHEAD_WAIT),
+                new Bulkhead(name + " write", DEFAULT_WRITE_CONCURRENCY, DEFAULT_BULKHEAD_WAIT),
+                metrics);
+    }
+
+    /**
+     * Creates a guard.
+     *
+     * @param breaker The breaker shared by every call
+     * @param reads The bulkhead of the calls that only read
+     * @param writes The bulkhead of the calls that change the backend
+     * @param metrics The registry the rejections are counted in
+     */
+    public Resilience(CircuitBreaker breaker, Bulkhead reads, Bulkhead writes, MetricsRegistry metrics) {
+        this.breaker = breaker;
+        this.reads = reads;
+        this.writes = writes;
+        this.readRejections = metrics.counter("resilience.read.rejected");
+        this.writeRejections = metrics.counter("resilience.write.rejected");
+    }
+
+    /**
+     * Runs a call if the deadline, the bulkhead of its kind and the breaker allow it.
+     *
+     * @param kind The kind of call
+     * @param operation The call
+     * @return The result of the call
+     * @throws ChatException If the call was rejected or failed
+     */
+    public <T> T call(Kind kind, Deadline.Operation<T> operation) throws ChatException {
+        Bulkhead bulkhead = kind == Kind.READ ? reads : writes;
+        Counter rejections = kind == Kind.READ ? readRejections : writeRejections;
+        try {
+            Deadline.checkCurrent();
+            bulkhead.acquire();
+        } catch (ChatException e) {
+            rejections.increment();
+            throw e;
+        }
+        try {
+            long permit;
+            try {
+                permit = breaker.acquire();
+            } catch (CircuitOpenException e) {
+                rejections.increment();
+                throw e;
+            }
+            long start = System.nanoTime();
+            try {
+                T result = operation.call();
+                breaker.onSuccess(permit, System.nanoTime() - start);
+                return result;
+            } catch (ChatException | RuntimeException e) {
+                if (DBErrors.isBackendFailure(e)) {
+                    breaker.onError(permit, System.nanoTime() - start);
+                } else {
+                    // The backend answered, it only turned the request down
+                    breaker.onSuccess(permit, System.nanoTime() - start);
+                }
+                throw e;
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * @return the breaker shared by every call
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+}
@@ -0,0 +1,265 @@
+package utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of records stored in a directory as a sequence of segment files.
+ * <p>
+ * Every record gets the next sequence number. Records are acknowledged in order
+ * once processed; the acknowledged position is kept in a checkpoint file and
+ * the segments holding only acknowledged records are deleted. On opening, a
+ * record torn by a crash at the end of the last segment is discarded.
+ * <p>
+ * A record is stored as {@code [int length][long seq][int crc32][data]}.
+ * The directory is locked while the journal is open, so that only one process
+ * appends to it and processes its records.
+ */
+public class SegmentedJournal implements Closeable {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOCK = "lock";
+    private static final int HEADER_SIZE = 16;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean sync;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    /** Segment files by the sequence number of their first record */
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private FileChannel active;
+    private long nextSeq;
+    private long acknowledged;
+    private final List<Record> recovered;
+
+    /**
+     * Opens the journal in the given directory, creating it if needed, and reads
+     * back the records that were not acknowledged.
+     *
+     * @param directory The directory holding the segments
+     * @param segmentSize The size after which a new segment is started, in bytes
+     * @param sync Whether every append is forced to the storage device before returning
+     * @throws IOException If the journal cannot be read or created, or is used by another process
+     */
+    public SegmentedJournal(Path directory, long segmentSize, boolean sync) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        Files.createDirectories(directory);
+
+        lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Already open in this process
+            acquired = null;
+        }
+        lock = acquired;
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Journal " + directory + " is used by another process");
+        }
+        try {
+            this.recovered = recover();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the checkpoint and the segments, and truncates a torn record.
+     *
+     * @return the records that were not acknowledged
+     */
+    private List<Record> recover() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            acknowledged = ByteBuffer.wrap(Files.readAllBytes(checkpoint)).getLong();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        nextSeq = acknowledged + 1;
+
+        List<Record> records = new ArrayList<>();
+        for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+            long validLength = readSegment(segment.getValue(), records);
+            if (Files.size(segment.getValue()) > validLength) {
+                System.err.println("Discarding a torn record at the end of " + segment.getValue());
+                try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+        }
+        if (!records.isEmpty()) {
+            nextSeq = Math.max(nextSeq, records.get(records.size() - 1).getSeq() + 1);
+        }
+        records.removeIf(record -> record.getSeq() <= acknowledged);
+        return records;
+    }
+
+    /**
+     * @return the records that were not acknowledged when the journal was opened, in order
+     */
+    public synchronized List<Record> getRecovered() {
+        return new ArrayList<>(recovered);
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @param data The content of the record
+     * @return The sequence number of the record
+     * @throws IOException If the record cannot be written
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        if (active == null || active.size() >= segmentSize) {
+            roll();
+        }
+        long seq = nextSeq;
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length);
+        buffer.putInt(data.length).putLong(seq).putInt((int) crc.getValue()).put(data).flip();
+        while (buffer.hasRemaining()) {
+            active.write(buffer);
+        }
+        if (sync) {
+            active.force(false);
+        }
+        nextSeq++;
+        return seq;
+    }
+
+    /**
+     * Acknowledges every record up to the given one and deletes the segments no longer needed.
+     *
+     * @param seq The sequence number of the last processed record
+     * @throws IOException If the checkpoint cannot be written
+     */
+    public synchronized void acknowledge(long seq) throws IOException {
+        if (seq <= acknowledged) {
+            return;
+        }
+        acknowledged = seq;
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        Path temp = directory.resolve(CHECKPOINT + ".tmp");
+        Files.write(temp, ByteBuffer.allocate(8).putLong(seq).array());
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // A segment is done once the next one starts after the checkpoint; the active one is kept
+        while (segments.size() > 1) {
+            Long second = segments.higherKey(segments.firstKey());
+            if (second - 1 > acknowledged) {
+                break;
+            }
+            Files.deleteIfExists(segments.pollFirstEntry().getValue());
+        }
+    }
+
+    /**
+     * @return the sequence number of the last acknowledged record
+     */
+    public synchronized long getAcknowledged() {
+        return acknowledged;
+    }
+
+    /**
+     * Closes the active segment and unlocks the directory.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+        if (lockChannel.isOpen()) {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    private void roll() throws IOException {
+        if (active != null) {
+            active.close();
+        }
+        Path file = directory.resolve(String.format("%020d%s", nextSeq, SEGMENT_SUFFIX));
+        active = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segments.put(nextSeq, file);
+    }
+
+    /**
+     * Reads the valid records of a segment.
+     *
+     * @return the length of the valid part of the segment
+     */
+    private static long readSegment(Path file, List<Record> records) throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (content.remaining() >= HEADER_SIZE) {
+            int start = content.position();
+            int length = content.getInt();
+            long seq = content.getLong();
+            int checksum = content.getInt();
+            if (length < 0 || length > content.remaining()) {
+                return start;
+            }
+            byte[] data = new byte[length];
+            content.get(data);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+            records.add(new Record(seq, data));
+        }
+        return content.position();
+    }
+
+    /**
+     * A record read back from the journal.
+     */
+    public static class Record {
+        private final long seq;
+        private final byte[] data;
+
+        Record(long seq, byte[] data) {
+            this.seq = seq;
+            this.data = data;
+        }
+
+        /**
+         * @return the sequence number of the record
+         */
+        public long getSeq() {
+            return seq;
+        }
+
+        /**
+         * @return the content of the record
+         */
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package utilities;
+
+/**
+ * JMX view of a {@link LatencyTimer}. Latencies are cumulative since startup.
+ */
+public interface TimerMXBean {
+
+    /**
+     * @return the number of timed calls
+     */
+    long getCount();
+
+    /**
+     * @return the median latency in microseconds
+     */
+    long getP50Micros();
+
+    /**
+     * @return the 90th percentile latency in microseconds
+     */
+    long getP90Micros();
+
+    /**
+     * @return the 99th percentile latency in microseconds
+     */
+    long getP99Micros();
+
+    /**
+     * @return the highest latency in microseconds, within the histogram precision
+     */
+    long getMaxMicros();
+}
@@ -0,0 +1,71 @@
+package utilities;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats timestamps as {@code dd/MM/yyyy HH:mm} for display.
+ * <p>
+ * The format has minute resolution, so the text of recently used minutes is
+ * cached and formatting a timestamp in one of them allocates nothing. Safe to
+ * use from any thread.
+ */
+public final class TimestampFormatter {
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm").withZone(ZoneId.systemDefault());
+    private static final long MILLIS_PER_MINUTE = 60000;
+    /** Number of cached minutes, a power of two */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * Direct-mapped cache indexed by minute. Entries are immutable, so a racy
+     * read sees either a complete entry or a stale one that fails the minute check.
+     */
+    private static final CachedMinute[] cache = new CachedMinute[CACHE_SIZE];
+
+    private TimestampFormatter() {
+    }
+
+    /**
+     * Formats a timestamp.
+     *
+     * @param timestamp The timestamp to format
+     * @return The formatted timestamp
+     */
+    public static String format(Timestamp timestamp) {
+        return format(timestamp.getTime());
+    }
+
+    /**
+     * Formats a point in time given in milliseconds since the epoch.
+     *
+     * @param epochMillis The time to format
+     * @return The formatted time
+     */
+    public static String format(long epochMillis) {
+        long minute = Math.floorDiv(epochMillis, MILLIS_PER_MINUTE);
+        int slot = (int) (minute & (CACHE_SIZE - 1));
+        CachedMinute cached = cache[slot];
+        if (cached == null || cached.minute != minute) {
+            String text = FORMAT.format(Instant.ofEpochMilli(minute * MILLIS_PER_MINUTE));
+            cached = new CachedMinute(minute, text);
+            cache[slot] = cached;
+        }
+        return cached.text;
+    }
+
+    /**
+     * The formatted text of one minute.
+     */
+    private static final class CachedMinute {
+        private final long minute;
+        private final String text;
+
+        CachedMinute(long minute, String text) {
+            this.minute = minute;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package utilities;
+
+/**
+ * Wraps a {@link ChatException} where a checked exception cannot be thrown,
+ * such as inside a {@link java.util.stream.Stream}.
+ */
+public class UncheckedChatException extends RuntimeException {
+    private static final long serialVersionUID = -3968216573218947263L;
+
+	/**
+     * Constructs a new UncheckedChatException wrapping the given exception.
+     *
+     * @param cause the wrapped exception
+     */
+    public UncheckedChatException(ChatException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * @return the wrapped exception
+     */
+    @Override
+    public synchronized ChatException getCause() {
+        return (ChatException) super.getCause();
+    }
+}
@@ -1,61 +1,143 @@
 package view;
 
 import java.awt.BorderLayout;
+import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.event.WindowFocusListener;
+import java.sql.Timestamp;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import javax.swing.DefaultListModel;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
-import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
-import javax.swing.text.DefaultCaret;
 
 import controller.*;
 import model.Message;
 import model.User;
+import utilities.AdaptiveRefreshScheduler;
 import utilities.ChatException;
+import utilities.CircuitOpenException;
+import utilities.Counter;
+import utilities.LatencyTimer;
+import utilities.MetricsRegistry;
+import utilities.RefreshScheduler;
 
 
 /**
  * View class that constructs the chat UI using Swing components.
  * Handles user interactions and displays data from the model.
+ * <p>
+ * Errors of background work, such as refreshes and history loads, are shown in
+ * a status line that the next successful refresh clears; only the failure of
+ * an action of the user opens a dialog.
  */
-public class ChatView extends JFrame {
+public class ChatView extends JFrame implements ChatListener {
     private static final long serialVersionUID = -6901782913751163706L;
-    private final int TIMER_MILL = 2000;
+    private static final int MIN_REFRESH_MILL = 500;
+    private static final int TIMER_MILL = 2000;
+    private static final int MAX_REFRESH_MILL = 30000;
+    private static final int MESSAGE_PAGE_SIZE = 100;
+    private static final int TRANSCRIPT_CAPACITY = 2000;
     private JPanel contentPane;
-    private JTextArea chatArea;
+    private JList<Message> chatList;
+    private JScrollPane chatScrollPane;
+    private final TranscriptModel transcript;
     private JTextField messageField;
+    private JComboBox<String> roomBox;
+    private JLabel statusLabel;
     public JButton sendButton;;
     public JButton logoutButton;
-    private JList<String> userList;
-	private ChatControllerInterface controller;
+    private JList<User> userList;
+    private final UserListModel userListModel = new UserListModel();
+	private AsyncChatControllerInterface controller;
     private Timer timer;
+    private final RefreshScheduler scheduler;
+    /** Time from the start of a refresh until its messages are on screen */
+    private final LatencyTimer refreshTimer = MetricsRegistry.getDefault().timer("view.refresh");
+    private final Counter refreshErrors = MetricsRegistry.getDefault().counter("view.refresh.errors");
+    /** Time spent on the event dispatch thread appending messages */
+    private final LatencyTimer renderTimer = MetricsRegistry.getDefault().timer("view.render");
+    /** Room shown in the chat area; the only room joined */
+    private String room = Message.DEFAULT_ROOM;
+    /** Id of the last message of the room received from the controller */
+    private long lastSeenId;
+    /** Whether a message fetch is still running, so timer ticks do not pile up */
+    private boolean fetchingMessages;
+    /** Whether another fetch was asked for while one was running */
+    private boolean refreshRequested;
+    /** Whether older or newer history is being loaded after scrolling */
+    private boolean fetchingHistory;
+    /** Whether the oldest message of the chat has been loaded */
+    private boolean historyComplete;
+    /** The last room switch sent to the controller */
+    private CompletableFuture<Void> roomChange = CompletableFuture.completedFuture(null);
+    /** Whether a logout is in progress, so that closing the window twice disconnects once */
+    private boolean loggingOut;
+    /** Whether the window was closed, so that the application exits even if the logout fails */
+    private boolean windowClosing;
+    /** Runs completion callbacks on the event dispatch thread */
+    private static final Executor EDT = SwingUtilities::invokeLater;
+    /** Longest wait for the disconnect before closing the window anyway, in milliseconds */
+    private static final long LOGOUT_TIMEOUT = 15000;
 
     /**
-     * Constructs the main chat window.
+     * Constructs the main chat window with an adaptive refresh interval.
      * Sets up the UI components and layout.
      */
     public ChatView() {
+        this(new AdaptiveRefreshScheduler(MIN_REFRESH_MILL, TIMER_MILL, MAX_REFRESH_MILL));
+    }
+    
+    /**
+     * Constructs the main chat window.
+     * Sets up the UI components and layout.
+     * 
+     * @param scheduler Decides the delay between two refreshes
+     */
+    public ChatView(RefreshScheduler scheduler) {
+        this(scheduler, TRANSCRIPT_CAPACITY);
+    }
+    
+    /**
+     * Constructs the main chat window.
+     * Sets up the UI components and layout.
+     * 
+     * @param scheduler Decides the delay between two refreshes
+     * @param transcriptCapacity The maximum number of messages kept in the chat area
+     */
+    public ChatView(RefreshScheduler scheduler, int transcriptCapacity) {
+        this.scheduler = scheduler;
+        this.transcript = new TranscriptModel(transcriptCapacity);
     	// Set up frame
         setTitle("Java Chat");
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // Closing waits for the logout, see windowClosing
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         setBounds(100, 100, 600, 400);
         setLocationRelativeTo(null);
 
@@ -78,17 +160,37 @@ public class ChatView extends JFrame {
         contentPane.add(centerPanel, BorderLayout.CENTER);
         centerPanel.setLayout(new BorderLayout(0, 0));
         
-        // Chat area
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        // Enable auto-scroll
-        DefaultCaret caret = (DefaultCaret)chatArea.getCaret();
-        caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
-        JScrollPane chatScrollPane = new JScrollPane(chatArea);
+        // Chat area: only the visible rows are laid out and rendered
+        chatList = new JList<>(transcript);
+        chatList.setCellRenderer(new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 6028323813474716514L;
+
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                // Long messages are cut to the row width, show them whole on hover
+                setToolTipText(getText());
+                return this;
+            }
+        });
+        chatList.setPrototypeCellValue(new Message("MMMMMMMMMMMM", "M", new Timestamp(0)));
+        chatScrollPane = new JScrollPane(chatList);
+        chatScrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+        // Fixed cell sizes spare the list from measuring every message
+        chatScrollPane.getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                chatList.setFixedCellWidth(chatScrollPane.getViewport().getWidth());
+            }
+        });
+        chatScrollPane.getVerticalScrollBar().addAdjustmentListener(e -> onChatScrolled());
         centerPanel.add(chatScrollPane, BorderLayout.CENTER);
 
         // User list
-        userList = new JList<>();
+        userList = new JList<>(userListModel);
+        // Size every cell like the prototype rather than measuring each user
+        userList.setPrototypeCellValue(new User("MMMMMMMMMMMM", new Timestamp(0)));
         JScrollPane userScrollPane = new JScrollPane(userList);
         userScrollPane.setPreferredSize(new Dimension(200, 0));
         centerPanel.add(userScrollPane, BorderLayout.EAST);
@@ -108,6 +210,14 @@ public class ChatView extends JFrame {
         buttonPanel.add(logoutButton);
         topPanel.add(buttonPanel, BorderLayout.EAST);
         
+        // Room selector, editable so that a new room can be entered
+        roomBox = new JComboBox<>(new String[] { Message.DEFAULT_ROOM });
+        roomBox.setEditable(true);
+        JPanel roomPanel = new JPanel();
+        roomPanel.add(new JLabel("Room:"));
+        roomPanel.add(roomBox);
+        topPanel.add(roomPanel, BorderLayout.WEST);
+        
         contentPane.add(topPanel, BorderLayout.NORTH);
 
         // Bottom panel for message input
@@ -124,10 +234,16 @@ public class ChatView extends JFrame {
         sendButton = new JButton("Send");
         bottomPanel.add(sendButton, BorderLayout.EAST);
         
+        // Status line for errors of background work, empty while all is well
+        statusLabel = new JLabel(" ");
+        statusLabel.setBorder(new EmptyBorder(2, 5, 2, 5));
+        bottomPanel.add(statusLabel, BorderLayout.SOUTH);
+        
         setupEventListeners();
         
-        // Set up a timer to auto-refresh the chat every 2 seconds
+        // Set up a timer to auto-refresh the chat, rescheduled after every refresh
         timer = new Timer(TIMER_MILL, e -> update());
+        timer.setRepeats(false);
         timer.start();
     }
     
@@ -137,8 +253,9 @@ public class ChatView extends JFrame {
      * @param controller The controller to set
      */
     public void setController(ChatControllerInterface controller) {
-        this.controller = controller;
+        this.controller = new AsyncChatController(controller);
         update();
+        loadRooms();
     }
     
     /**
@@ -149,18 +266,37 @@ public class ChatView extends JFrame {
     	addWindowListener(new WindowAdapter() {
     	    @Override
     	    public void windowClosing(WindowEvent event) {
-    	    	logout();
+    	    	logout(true);
+    	    }
+    	    
+    	    @Override
+    	    public void windowIconified(WindowEvent event) {
+    	        scheduler.setForeground(false);
+    	    }
+    	    
+    	    @Override
+    	    public void windowDeiconified(WindowEvent event) {
+    	        scheduler.setForeground(isFocused());
+    	    }
+    	});
+    	
+    	// Poll less often while the window is in the background
+    	addWindowFocusListener(new WindowFocusListener() {
+    	    @Override
+    	    public void windowGainedFocus(WindowEvent event) {
+    	        scheduler.setForeground(true);
+    	    }
+    	    
+    	    @Override
+    	    public void windowLostFocus(WindowEvent event) {
+    	        scheduler.setForeground(false);
     	    }
     	});
         
         // Action listener for the send button
         sendButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                try {
-					sendMessage();
-				} catch (ChatException e1) {
-					showError(e1.getMessage());
-				}
+                sendMessage();
             }
         });
         
@@ -168,17 +304,16 @@ public class ChatView extends JFrame {
         messageField.addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-                try {
-                	if (e.getKeyCode() == KeyEvent.VK_ENTER) {
-                        sendMessage();
-                        e.consume(); // Prevent the default action
-                    }
-				} catch (ChatException e1) {
-					showError(e1.getMessage());
-				}
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    sendMessage();
+                    e.consume(); // Prevent the default action
+                }
             }
         });
         
+        // Switch rooms when one is picked or typed in
+        roomBox.addActionListener(e -> switchRoom((String) roomBox.getSelectedItem()));
+        
         // Action listener for the logout button
         logoutButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
@@ -190,14 +325,18 @@ public class ChatView extends JFrame {
     
     /**
      * Sends a message from the message input field.
-     * 
-     * @throws ChatException If there is an error sending the message
+     * The message is sent in the background and the chat area is refreshed once it is delivered.
      */
-    private void sendMessage() throws ChatException {
+    private void sendMessage() {
         String message = messageField.getText().trim();
         if (!message.isEmpty()) {
-            controller.sendMessage(message);
-        	updateMessages();
+            controller.sendMessage(room, message).whenCompleteAsync((ignored, error) -> {
+                if (error != null) {
+                    showError("Failed to send message: " + causeOf(error).getMessage());
+                } else {
+                    updateMessages();
+                }
+            }, EDT);
             
             // Clear message input in view
             messageField.setText("");
@@ -205,61 +344,304 @@ public class ChatView extends JFrame {
     }
     
     /**
-     * Updates the chat area and user list with the latest data.
-     * Called periodically by the timer.
+     * Updates the chat area with the latest data.
+     * Called by the timer; the next refresh is scheduled once the messages are fetched.
+     * The user list is pushed by the controller instead.
      */
     private void update() {
     	if(controller != null) {
         	updateMessages();
-        	updateUsers();
+    	} else {
+    	    scheduleNextUpdate();
     	}
     }
     
+    /**
+     * Refreshes the chat area now rather than on the next timer tick, typically
+     * because new messages were pushed. May be called from any thread.
+     */
+    public void refreshNow() {
+        SwingUtilities.invokeLater(() -> {
+            if (controller == null) {
+                return;
+            }
+            if (fetchingMessages) {
+                // The running fetch may have missed them
+                refreshRequested = true;
+                return;
+            }
+            updateMessages();
+        });
+    }
+    
+    /**
+     * Restarts the timer with the delay chosen by the refresh scheduler.
+     */
+    private void scheduleNextUpdate() {
+        timer.setInitialDelay((int) scheduler.nextDelay());
+        timer.restart();
+    }
+    
     /**
      * Updates the chat area with the latest messages from the database.
+     * Skipped if the previous fetch has not completed yet.
      */
     private void updateMessages() {
-        try {
-            List<Message> messages = controller.getMessages();
-            for (Message msg : messages) {
-            	chatArea.append(msg + "\n");
+        if (fetchingMessages) {
+            return;
+        }
+        fetchingMessages = true;
+        long start = refreshTimer.start();
+        controller.poll().whenCompleteAsync((received, error) -> {
+            fetchingMessages = false;
+            refreshTimer.stop(start);
+            if (error != null) {
+                refreshErrors.increment();
+                Throwable cause = causeOf(error);
+                scheduler.onError(cause instanceof ChatException ? (ChatException) cause
+                        : new ChatException(cause.getMessage(), cause));
+                scheduleNextUpdate();
+                if (cause instanceof CircuitOpenException) {
+                    long seconds = (((CircuitOpenException) cause).getRetryAfterMillis() + 999) / 1000;
+                    showStatus("Server unavailable, retrying in " + seconds + " s");
+                } else {
+                    showStatus("Error updating messages: " + cause.getMessage());
+                }
+                return;
             }
-        } catch (ChatException e) {
-        	showError("Error updating messages: " + e.getMessage());
+            showStatus(null);
+            scheduler.onResult(received);
+            if (refreshRequested) {
+                refreshRequested = false;
+                updateMessages();
+            } else {
+                scheduleNextUpdate();
+            }
+        }, EDT);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * Appends the messages to the chat area on the event dispatch thread.
+     */
+    @Override
+    public void messagesReceived(List<Message> messages) {
+        SwingUtilities.invokeLater(() -> showMessages(messages));
+    }
+    
+    /**
+     * {@inheritDoc}
+     * Updates the user list on the event dispatch thread.
+     */
+    @Override
+    public void presenceChanged(List<User> users) {
+        SwingUtilities.invokeLater(() -> userListModel.update(users));
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void errorOccurred(String message) {
+        showStatus(message);
+    }
+    
+    /**
+     * Appends new messages to the chat area.
+     * 
+     * @param messages The messages, oldest first
+     */
+    private void showMessages(List<Message> messages) {
+        if (!messages.get(0).getRoom().equals(room)) {
+            // Polled just before switching rooms
+            return;
         }
+        long start = renderTimer.start();
+        boolean atBottom = isScrolledToBottom();
+        lastSeenId = messages.get(messages.size() - 1).getId();
+        if (transcript.append(messages) && atBottom) {
+            scrollToBottom();
+        }
+        if (transcript.getSize() == transcript.getCapacity()) {
+            // The oldest messages may have been dropped, they can be loaded again
+            historyComplete = false;
+        }
+        renderTimer.stop(start);
     }
     
     /**
-     * Updates the chat area with the latest messages from the database.
+     * Loads more history when the chat area is scrolled to its top or, after older
+     * history pushed the newest messages out, back to its bottom.
      */
-    private void updateUsers() {
-    	try {
-            List<User> users = controller.getUsers();
-            DefaultListModel<String> listModel = new DefaultListModel<>();
-            
-            for (User user : users) {
-                listModel.addElement(user.toString());
+    private void onChatScrolled() {
+        if (controller == null || fetchingHistory || transcript.getSize() == 0) {
+            return;
+        }
+        JScrollBar bar = chatScrollPane.getVerticalScrollBar();
+        if (bar.getValue() == bar.getMinimum() && !historyComplete) {
+            loadOlderMessages();
+        } else if (transcript.isDetached() && isScrolledToBottom()) {
+            loadNewerMessages();
+        }
+    }
+    
+    /**
+     * Fetches the page of messages preceding the oldest one shown and inserts it
+     * at the top, keeping the rows currently in view in place.
+     */
+    private void loadOlderMessages() {
+        fetchingHistory = true;
+        String requested = room;
+        controller.getMessagesBefore(room, transcript.getOldestId(), MESSAGE_PAGE_SIZE).whenCompleteAsync((messages, error) -> {
+            fetchingHistory = false;
+            if (!requested.equals(room)) {
+                return;
             }
-            
-            userList.setModel(listModel);
-        } catch (ChatException e) {
-        	showError("Error updating active users: " + e.getMessage());
+            if (error != null) {
+                showStatus("Error loading history: " + causeOf(error).getMessage());
+                return;
+            }
+            if (messages.size() < MESSAGE_PAGE_SIZE) {
+                historyComplete = true;
+            }
+            JScrollBar bar = chatScrollPane.getVerticalScrollBar();
+            int value = bar.getValue();
+            transcript.prepend(messages);
+            chatList.revalidate();
+            SwingUtilities.invokeLater(() -> bar.setValue(value + messages.size() * chatList.getFixedCellHeight()));
+        }, EDT);
+    }
+    
+    /**
+     * Fetches the page of messages following the newest one shown, while the
+     * chat area is detached from the live messages.
+     */
+    private void loadNewerMessages() {
+        fetchingHistory = true;
+        String requested = room;
+        controller.getMessagesSince(room, transcript.getNewestId(), MESSAGE_PAGE_SIZE).whenCompleteAsync((messages, error) -> {
+            fetchingHistory = false;
+            if (!requested.equals(room)) {
+                return;
+            }
+            if (error != null) {
+                showStatus("Error loading history: " + causeOf(error).getMessage());
+                return;
+            }
+            if (!messages.isEmpty()) {
+                // The oldest messages were dropped to make room
+                historyComplete = false;
+            }
+            transcript.appendHistory(messages, lastSeenId);
+        }, EDT);
+    }
+    
+    /**
+     * Fills the room selector with the rooms holding messages.
+     */
+    private void loadRooms() {
+        controller.getRooms().whenCompleteAsync((rooms, error) -> {
+            if (error != null) {
+                showStatus("Error loading rooms: " + causeOf(error).getMessage());
+                return;
+            }
+            for (String name : rooms) {
+                addRoom(name);
+            }
+        }, EDT);
+    }
+    
+    /**
+     * Leaves the current room for another one, whose most recent messages
+     * replace the chat area on the next refresh.
+     * 
+     * @param name The room to enter
+     */
+    private void switchRoom(String name) {
+        if (controller == null || name == null || name.trim().isEmpty() || name.trim().equals(room)) {
+            return;
         }
-
+        String previous = room;
+        room = name.trim();
+        addRoom(room);
+        setTitle("Java Chat - " + room);
+        transcript.clear();
+        lastSeenId = 0;
+        historyComplete = false;
+        String joined = room;
+        // Chained after the previous switch, so quick switches cannot reorder a leave and a join
+        roomChange = roomChange.handle((ignored, error) -> null)
+                .thenCompose(ignored -> controller.leaveRoom(previous))
+                .thenCompose(ignored -> controller.joinRoom(joined));
+        roomChange.whenCompleteAsync((ignored, error) -> {
+            if (error != null) {
+                showError("Error joining room: " + causeOf(error).getMessage());
+                return;
+            }
+            updateMessages();
+        }, EDT);
+    }
+    
+    private void addRoom(String name) {
+        for (int i = 0; i < roomBox.getItemCount(); i++) {
+            if (roomBox.getItemAt(i).equals(name)) {
+                return;
+            }
+        }
+        roomBox.addItem(name);
+    }
+    
+    /**
+     * @return whether the last row of the chat area is visible
+     */
+    private boolean isScrolledToBottom() {
+        JScrollBar bar = chatScrollPane.getVerticalScrollBar();
+        return bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - chatList.getFixedCellHeight();
+    }
+    
+    /**
+     * Scrolls the chat area to its last row once the new rows are laid out.
+     */
+    private void scrollToBottom() {
+        SwingUtilities.invokeLater(() -> chatList.ensureIndexIsVisible(transcript.getSize() - 1));
     }
     
     /**
      * Handles user logout.
      */
     public void logout() {
-        try {
-            // Stop timers
-            if (timer != null) {
-            	timer.stop();
+        logout(false);
+    }
+    
+    /**
+     * Disconnects the user, then exits once the queued messages are sent.
+     *
+     * @param closing Whether the window is being closed, in which case the
+     *                application exits even if the logout fails or times out
+     */
+    private void logout(boolean closing) {
+        windowClosing |= closing;
+        if (loggingOut) {
+            return;
+        }
+        loggingOut = true;
+        
+        // Stop timers
+        if (timer != null) {
+        	timer.stop();
+        }
+        
+        // Disconnect from the server
+        controller.disconnect().orTimeout(LOGOUT_TIMEOUT, TimeUnit.MILLISECONDS).whenCompleteAsync((ignored, error) -> {
+            if (error != null) {
+            	Throwable cause = causeOf(error);
+            	showError("Error during logout: " + (cause instanceof TimeoutException ? "timed out" : cause.getMessage()));
+            	if (!windowClosing) {
+            	    loggingOut = false;
+            	    return;
+            	}
             }
-            
-            // Disconnect from the server
-            controller.disconnect();
+            controller.shutdown();
             
             // Hide the current window
             setVisible(false);
@@ -267,17 +649,42 @@ public class ChatView extends JFrame {
             
             // Notify the login manager to show login screen
             System.exit(NORMAL);
-        } catch (ChatException e) {
-        	showError("Error during logout: " + e.getMessage());
+        }, EDT);
+    }
+    
+    /**
+     * Displays an error message in the status line, without interrupting the user.
+     *
+     * @param message the error message to display, or null to clear the status line
+     */
+    public void showStatus(String message) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> showStatus(message));
+            return;
         }
+        statusLabel.setText(message != null ? message : " ");
     }
     
     /**
-     * Displays an error message.
+     * Displays an error message in a dialog, for the failure of an action of the user.
      *
      * @param message the error message to display
      */
     public void showError(String message) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> showError(message));
+            return;
+        }
     	JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
     }
+    
+    /**
+     * Unwraps the exception a future was completed with.
+     *
+     * @param error The exception passed to a completion callback
+     * @return The exception raised by the controller
+     */
+    private static Throwable causeOf(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
 }
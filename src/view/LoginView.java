@@ -23,13 +23,13 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
-import javax.swing.Timer;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
 
+import controller.PresenceListener;
+import controller.PresenceService;
 import model.User;
-import model.UserInterface;
-import utilities.ChatException;
 
 
 /**
@@ -38,7 +38,6 @@ import utilities.ChatException;
  */
 public class LoginView extends JFrame {
 	private static final long serialVersionUID = -4056116619527159147L;
-	private static final int TIMER_INTERVAL = 3000; // milliseconds
     
     private JPanel contentPane;
     private JTextField nicknameField;
@@ -48,23 +47,26 @@ public class LoginView extends JFrame {
     private DefaultListModel<String> userListModel;
     private String nickname;
     private boolean loginSuccessful;
-    private UserInterface userModel;
-    private Timer refreshTimer;
+    private final PresenceService presenceService;
+    private final PresenceListener presenceListener = (users, version) ->
+            SwingUtilities.invokeLater(() -> showConnectedUsers(users));
 
     /**
      * Creates a new login view.
+     * 
+     * @param presenceService The service providing the connected users
      */
-    public LoginView(UserInterface userModel) {
+    public LoginView(PresenceService presenceService) {
         setTitle("Java Chat - Login");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setBounds(100, 100, 600, 350);
         setLocationRelativeTo(null);
         
-        this.userModel = userModel;
+        this.presenceService = presenceService;
         
         initUI();
         setupEventListeners();
-        startRefreshTimer();
+        presenceService.subscribe(presenceListener);
     }
     
     /**
@@ -152,7 +154,7 @@ public class LoginView extends JFrame {
         cancelButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                stopRefreshTimer();
+                presenceService.unsubscribe(presenceListener);
                 dispose();
                 System.exit(0);
             }
@@ -175,7 +177,7 @@ public class LoginView extends JFrame {
     private void processLogin() {
         nickname = nicknameField.getText().trim();
         if (nickname != null && !nickname.isEmpty()) {
-            stopRefreshTimer();
+            presenceService.unsubscribe(presenceListener);
             loginSuccessful = true;
             setVisible(false);
             dispose();
@@ -207,48 +209,19 @@ public class LoginView extends JFrame {
     }
     
     /**
-     * Starts the timer to periodically refresh the user list.
+     * Shows the list of connected users.
+     * 
+     * @param users The connected users
      */
-    private void startRefreshTimer() {
-        refreshTimer = new Timer(TIMER_INTERVAL, new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                refreshConnectedUsers();
-            }
-        });
-        refreshTimer.start();
+    private void showConnectedUsers(List<User> users) {
+        userListModel.clear();
         
-        // Initial refresh
-        refreshConnectedUsers();
-    }
-    
-    /**
-     * Stops the refresh timer.
-     */
-    private void stopRefreshTimer() {
-        if (refreshTimer != null && refreshTimer.isRunning()) {
-            refreshTimer.stop();
-        }
-    }
-    
-    /**
-     * Refreshes the list of connected users.
-     */
-    private void refreshConnectedUsers() {
-        try {
-            List<User> users = userModel.getAll();
-            userListModel.clear();
-            
-            // Add a count of online users at the top
-            userListModel.addElement("Online Users: " + users.size());
-            userListModel.addElement("------------------------");
-            
-            for (User user : users) {
-                userListModel.addElement(user.getNick());
-            }
-        } catch (ChatException e) {
-            // Just log the error, don't show it to the user during login
-            System.err.println("Error refreshing user list: " + e.getMessage());
+        // Add a count of online users at the top
+        userListModel.addElement("Online Users: " + users.size());
+        userListModel.addElement("------------------------");
+        
+        for (User user : users) {
+            userListModel.addElement(user.getNick());
         }
     }
    
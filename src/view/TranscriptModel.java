@@ -0,0 +1,174 @@
+package view;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+import model.Message;
+
+/**
+ * List model of the chat transcript, backed by a ring buffer of at most
+ * {@code capacity} messages ordered by id.
+ * <p>
+ * New messages are appended at the end, dropping the oldest ones once the buffer
+ * is full. Older history loaded on scroll-up is inserted at the start, dropping
+ * the newest ones instead; the transcript is then <em>detached</em> from the live
+ * end and ignores new messages until the missing ones have been appended again
+ * with {@link #appendHistory}.
+ */
+public class TranscriptModel extends AbstractListModel<Message> {
+    private static final long serialVersionUID = -2735409178335409731L;
+
+    private final Message[] ring;
+    private int head;
+    private int size;
+    private boolean detached;
+
+    /**
+     * @param capacity The maximum number of messages kept
+     */
+    public TranscriptModel(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid transcript capacity: " + capacity);
+        }
+        this.ring = new Message[capacity];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Message getElementAt(int index) {
+        return ring[(head + index) % ring.length];
+    }
+
+    /**
+     * @return the maximum number of messages kept
+     */
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return the id of the oldest message kept, or 0 if empty
+     */
+    public long getOldestId() {
+        return size == 0 ? 0 : getElementAt(0).getId();
+    }
+
+    /**
+     * @return the id of the newest message kept, or 0 if empty
+     */
+    public long getNewestId() {
+        return size == 0 ? 0 : getElementAt(size - 1).getId();
+    }
+
+    /**
+     * @return whether newer messages were dropped to make room for older history
+     */
+    public boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * Appends new live messages. Ignored while detached.
+     *
+     * @param messages The messages, oldest first
+     * @return whether the messages were appended
+     */
+    public boolean append(List<Message> messages) {
+        if (detached) {
+            return false;
+        }
+        appendAll(messages);
+        return true;
+    }
+
+    /**
+     * Appends messages that follow the newest message kept, while detached.
+     * The transcript is attached again once it has caught up with the live cursor.
+     *
+     * @param messages The messages, oldest first
+     * @param liveId The id of the newest message received live
+     */
+    public void appendHistory(List<Message> messages, long liveId) {
+        appendAll(messages);
+        if (getNewestId() >= liveId) {
+            detached = false;
+        }
+    }
+
+    /**
+     * Inserts older history at the start, dropping the newest messages if full.
+     *
+     * @param messages The messages, oldest first, all older than the oldest one kept
+     */
+    public void prepend(List<Message> messages) {
+        int count = Math.min(messages.size(), ring.length);
+        if (count == 0) {
+            return;
+        }
+        int overflow = size + count - ring.length;
+        if (overflow > 0) {
+            for (int i = size - overflow; i < size; i++) {
+                ring[(head + i) % ring.length] = null;
+            }
+            size -= overflow;
+            detached = true;
+            fireIntervalRemoved(this, size, size + overflow - 1);
+        }
+        // Keep the newest of the given messages if there are more than fit
+        for (int i = messages.size() - 1; i >= messages.size() - count; i--) {
+            head = (head - 1 + ring.length) % ring.length;
+            ring[head] = messages.get(i);
+        }
+        size += count;
+        fireIntervalAdded(this, 0, count - 1);
+    }
+
+    /**
+     * Removes every message and attaches the transcript to the live end again.
+     */
+    public void clear() {
+        int removed = size;
+        Arrays.fill(ring, null);
+        head = 0;
+        size = 0;
+        detached = false;
+        if (removed > 0) {
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+    }
+
+    private void appendAll(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        int from = Math.max(0, messages.size() - ring.length);
+        int count = messages.size() - from;
+        int overflow = size + count - ring.length;
+        if (overflow > 0) {
+            for (int i = 0; i < overflow; i++) {
+                ring[(head + i) % ring.length] = null;
+            }
+            head = (head + overflow) % ring.length;
+            size -= overflow;
+            fireIntervalRemoved(this, 0, overflow - 1);
+        }
+        int first = size;
+        for (int i = from; i < messages.size(); i++) {
+            ring[(head + size) % ring.length] = messages.get(i);
+            size++;
+        }
+        fireIntervalAdded(this, first, size - 1);
+    }
+}
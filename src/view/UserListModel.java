@@ -0,0 +1,76 @@
+package view;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.swing.AbstractListModel;
+
+import model.User;
+
+/**
+ * List model of the connected users that is updated incrementally.
+ * Each new snapshot is compared with the current content and only the users who
+ * left or joined are removed or added, so the list is not relaid out as a whole.
+ */
+public class UserListModel extends AbstractListModel<User> {
+    private static final long serialVersionUID = 3318402567411982651L;
+
+    private final List<User> users = new ArrayList<>();
+    private final Set<User> present = new HashSet<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSize() {
+        return users.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public User getElementAt(int index) {
+        return users.get(index);
+    }
+
+    /**
+     * Applies a new snapshot of the connected users.
+     * Users who left are removed in place and users who joined are appended.
+     * 
+     * @param snapshot The connected users
+     */
+    public void update(List<User> snapshot) {
+        Set<User> next = new HashSet<>(snapshot);
+
+        // Leaves, from the end so that indexes stay valid, one event per contiguous run
+        int runEnd = -1;
+        for (int i = users.size() - 1; i >= 0; i--) {
+            boolean left = !next.contains(users.get(i));
+            if (left) {
+                if (runEnd < 0) {
+                    runEnd = i;
+                }
+                present.remove(users.remove(i));
+            }
+            if ((!left || i == 0) && runEnd >= 0) {
+                int runStart = left ? i : i + 1;
+                fireIntervalRemoved(this, runStart, runEnd);
+                runEnd = -1;
+            }
+        }
+
+        // Joins, appended in snapshot order
+        int firstAdded = users.size();
+        for (User user : snapshot) {
+            if (present.add(user)) {
+                users.add(user);
+            }
+        }
+        if (users.size() > firstAdded) {
+            fireIntervalAdded(this, firstAdded, users.size() - 1);
+        }
+    }
+}